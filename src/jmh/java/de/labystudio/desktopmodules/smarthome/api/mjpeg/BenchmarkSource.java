@@ -0,0 +1,33 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import java.io.IOException;
+
+/**
+ * Creates synthetic sources from the string parameters of the benchmarks
+ *
+ * @author LabyStudio
+ */
+final class BenchmarkSource {
+
+    private BenchmarkSource() {
+    }
+
+    /**
+     * Create a synthetic source
+     *
+     * @param resolution    Resolution in the format WIDTHxHEIGHT
+     * @param quality       JPEG quality between 0.0 and 1.0
+     * @param frameRate     Frames per second, 0 for unpaced
+     * @param boundaryStyle Name of the boundary style
+     * @param contentLength Send Content-Length headers
+     * @param frameCount    Amount of distinct frames
+     * @return The synthetic source
+     * @throws IOException Encode exception
+     */
+    static SyntheticMotionPictureSource create(String resolution, float quality, int frameRate,
+                                               String boundaryStyle, boolean contentLength, int frameCount) throws IOException {
+        String[] size = resolution.split("x");
+        return new SyntheticMotionPictureSource(Integer.parseInt(size[0]), Integer.parseInt(size[1]), quality, frameRate,
+                SyntheticMotionPictureSource.BoundaryStyle.valueOf(boundaryStyle), contentLength, frameCount);
+    }
+}
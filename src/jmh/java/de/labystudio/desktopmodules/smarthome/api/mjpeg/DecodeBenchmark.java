@@ -0,0 +1,92 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Decoding a compressed frame into an image
+ *
+ * @author LabyStudio
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"640x360", "1920x1080"})
+    public String resolution;
+
+    @Param({"0.6", "0.9"})
+    public float quality;
+
+    /**
+     * View port of the decoder: the full image or a module tile of 200x120
+     */
+    @Param({"full", "tile"})
+    public String viewPort;
+
+    /**
+     * Convert into a screen compatible image of the draw size as the stream does
+     */
+    @Param({"false", "true"})
+    public boolean renderReady;
+
+    private byte[] frame;
+    private FrameBuffer buffer;
+    private MotionPictureDecoder decoder;
+    private FrameExchange exchange;
+    private ViewPort decodeViewPort;
+
+    @Setup
+    public void setup() throws IOException {
+        this.frame = BenchmarkSource.create(this.resolution, this.quality, 0, "STANDARD", true, 1).getFrames()[0];
+
+        this.buffer = new FrameBufferPool(1).acquire();
+        System.arraycopy(this.frame, 0, this.buffer.ensureCapacity(this.frame.length), 0, this.frame.length);
+        this.buffer.setLength(this.frame.length);
+
+        this.decoder = new MotionPictureDecoder(this.renderReady);
+        this.exchange = new FrameExchange();
+        this.decodeViewPort = this.viewPort.equals("tile") ? new ViewPort(200, 120, 0, 0, 1, 1) : ViewPort.FULL;
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.decoder.dispose();
+    }
+
+    /**
+     * Decoding with ImageIO as the stream did before the reusable decoder
+     */
+    @Benchmark
+    public BufferedImage decodeImageIO() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(this.frame));
+    }
+
+    /**
+     * Decoding with the reused reader, view port and destination images of the stream
+     */
+    @Benchmark
+    public VideoFrame decodeReused() throws IOException {
+        VideoFrame frame = this.exchange.lock();
+        this.decoder.decode(this.buffer, this.decodeViewPort, frame);
+        this.exchange.publish(frame);
+        return frame;
+    }
+}
@@ -0,0 +1,69 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Extracting compressed frames out of a multipart transmission, reported per frame
+ *
+ * @author LabyStudio
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameExtractionBenchmark {
+
+    private static final int FRAMES = 8;
+
+    @Param({"640x360", "1920x1080"})
+    public String resolution;
+
+    @Param({"0.8"})
+    public float quality;
+
+    @Param({"STANDARD", "LEADING_BREAK", "BARE"})
+    public String boundaryStyle;
+
+    @Param({"true", "false"})
+    public boolean contentLength;
+
+    private ByteArrayInputStream transmission;
+    private MotionPictureParser parser;
+    private int frames;
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticMotionPictureSource source = BenchmarkSource.create(this.resolution, this.quality, 0,
+                this.boundaryStyle, this.contentLength, FRAMES);
+
+        this.transmission = new ByteArrayInputStream(source.getTransmission());
+        this.parser = new MotionPictureParser(new FrameBufferPool(3), frame -> {
+            this.frames++;
+            frame.release();
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int extract() throws IOException {
+        this.transmission.reset();
+        while (this.parser.read(this.transmission)) {
+            // Frames are counted by the handler
+        }
+        return this.frames;
+    }
+}
@@ -0,0 +1,71 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Scanning a compressed frame for the end of image marker
+ *
+ * @author LabyStudio
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkerScanBenchmark {
+
+    @Param({"640x360", "1920x1080"})
+    public String resolution;
+
+    @Param({"0.8"})
+    public float quality;
+
+    private byte[] frame;
+
+    @Setup
+    public void setup() throws IOException {
+        this.frame = BenchmarkSource.create(this.resolution, this.quality, 0, "STANDARD", true, 1).getFrames()[0];
+    }
+
+    /**
+     * Array scan of the bulk parser
+     */
+    @Benchmark
+    public int scanArray() {
+        return MotionPictureParser.indexOfMarker(this.frame, 2, this.frame.length, (byte) 0xD9);
+    }
+
+    /**
+     * Byte by byte reading through a buffered stream as the stream did before the bulk parser
+     */
+    @Benchmark
+    public int scanByteByByte() throws IOException {
+        InputStream stream = new BufferedInputStream(new ByteArrayInputStream(this.frame), 8192);
+
+        int position = 0;
+        int previousByte = 0;
+        int currentByte;
+        while ((currentByte = stream.read()) >= 0) {
+            if (previousByte == 0xFF && currentByte == 0xD9 && position > 1) {
+                return position - 1;
+            }
+            previousByte = currentByte;
+            position++;
+        }
+        return -1;
+    }
+}
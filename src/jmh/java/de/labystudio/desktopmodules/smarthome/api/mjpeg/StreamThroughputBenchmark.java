@@ -0,0 +1,95 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reading and decoding frames from an endless synthetic camera transmission, one operation per frame
+ *
+ * @author LabyStudio
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamThroughputBenchmark {
+
+    @Param({"640x360", "1920x1080"})
+    public String resolution;
+
+    @Param({"0.8"})
+    public float quality;
+
+    /**
+     * Frames per second of the camera, 0 delivers as fast as possible
+     */
+    @Param({"0"})
+    public int frameRate;
+
+    @Param({"true", "false"})
+    public boolean contentLength;
+
+    /**
+     * View port of the decoder: the full image or a module tile of 200x120
+     */
+    @Param({"full", "tile"})
+    public String viewPort;
+
+    private InputStream transmission;
+    private MotionPictureParser parser;
+    private MotionPictureDecoder decoder;
+    private FrameExchange exchange;
+    private ViewPort decodeViewPort;
+
+    private int frames;
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticMotionPictureSource source = BenchmarkSource.create(this.resolution, this.quality, this.frameRate,
+                "STANDARD", this.contentLength, 8);
+
+        this.transmission = source.openStream();
+        this.decoder = new MotionPictureDecoder();
+        this.exchange = new FrameExchange();
+        this.decodeViewPort = this.viewPort.equals("tile") ? new ViewPort(200, 120, 0, 0, 1, 1) : ViewPort.FULL;
+        this.parser = new MotionPictureParser(new FrameBufferPool(3), this::decode);
+    }
+
+    /**
+     * Decode a frame of the parser like the reader stage does in non-pipelined mode
+     *
+     * @param buffer The compressed frame
+     * @throws IOException Decode exception
+     */
+    private void decode(FrameBuffer buffer) throws IOException {
+        try {
+            VideoFrame frame = this.exchange.lock();
+            this.decoder.decode(buffer, this.decodeViewPort, frame);
+            this.exchange.publish(frame);
+            this.frames++;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Benchmark
+    public int readFrame() throws IOException {
+        int frames = this.frames;
+        while (this.frames == frames) {
+            this.parser.read(this.transmission);
+        }
+        return this.frames;
+    }
+}
@@ -0,0 +1,255 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * In-process generator of a multipart MJPEG transmission similar to the one of an IP camera
+ *
+ * @author LabyStudio
+ */
+public class SyntheticMotionPictureSource {
+
+    private final int width;
+    private final int height;
+    private final float quality;
+    private final int frameRate;
+    private final BoundaryStyle boundaryStyle;
+    private final boolean contentLength;
+
+    private final byte[][] frames;
+    private final byte[] transmission;
+
+    /**
+     * Create a synthetic source and encode its frames
+     *
+     * @param width         Width of the frames
+     * @param height        Height of the frames
+     * @param quality       JPEG quality between 0.0 and 1.0
+     * @param frameRate     Frames per second of {@link #openStream()}, 0 to deliver as fast as possible
+     * @param boundaryStyle Style of the part boundaries
+     * @param contentLength Send a Content-Length header for each part
+     * @param frameCount    Amount of distinct frames
+     * @throws IOException Encode exception
+     */
+    public SyntheticMotionPictureSource(int width, int height, float quality, int frameRate,
+                                        BoundaryStyle boundaryStyle, boolean contentLength, int frameCount) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.quality = quality;
+        this.frameRate = frameRate;
+        this.boundaryStyle = boundaryStyle;
+        this.contentLength = contentLength;
+
+        // Encode frames
+        this.frames = new byte[frameCount][];
+        for (int i = 0; i < frameCount; i++) {
+            this.frames[i] = encode(render(i));
+        }
+
+        // Build one pass of the transmission
+        ByteArrayOutputStream transmission = new ByteArrayOutputStream();
+        for (byte[] frame : this.frames) {
+            transmission.write(partHeader(frame.length));
+            transmission.write(frame);
+            transmission.write(this.boundaryStyle.trailer);
+        }
+        this.transmission = transmission.toByteArray();
+    }
+
+    /**
+     * Draw a frame with a static background, a moving object and sensor noise
+     *
+     * @param index Index of the frame
+     * @return The frame image
+     */
+    private BufferedImage render(int index) {
+        BufferedImage image = new BufferedImage(this.width, this.height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = image.createGraphics();
+
+        // Background gradient
+        for (int y = 0; y < this.height; y += 8) {
+            int shade = 40 + y * 120 / this.height;
+            graphics.setColor(new Color(shade, shade + 20, shade + 10));
+            graphics.fillRect(0, y, this.width, 8);
+        }
+
+        // Static scenery
+        graphics.setColor(new Color(90, 70, 50));
+        graphics.fillRect(this.width / 8, this.height / 2, this.width / 4, this.height / 3);
+        graphics.setColor(new Color(200, 200, 190));
+        graphics.fillRect(this.width / 2, this.height / 6, this.width / 3, this.height / 5);
+
+        // Moving object
+        int size = Math.max(8, this.height / 6);
+        graphics.setColor(new Color(180, 40, 40));
+        graphics.fillOval((index * this.width / 16) % this.width, this.height / 3, size, size);
+        graphics.dispose();
+
+        // Sensor noise
+        Random random = new Random(index);
+        for (int i = this.width * this.height / 50; i > 0; i--) {
+            int x = random.nextInt(this.width);
+            int y = random.nextInt(this.height);
+            image.setRGB(x, y, image.getRGB(x, y) ^ random.nextInt(0x0F0F0F));
+        }
+        return image;
+    }
+
+    /**
+     * Encode an image with the configured quality
+     *
+     * @param image The image
+     * @return The compressed JPEG
+     * @throws IOException Encode exception
+     */
+    private byte[] encode(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(this.quality);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(output)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Create the header of a part
+     *
+     * @param length Length of the JPEG
+     * @return The header bytes
+     */
+    private byte[] partHeader(int length) {
+        StringBuilder header = new StringBuilder(this.boundaryStyle.boundary);
+        header.append("Content-Type: image/jpeg\r\n");
+        if (this.contentLength) {
+            header.append("Content-Length: ").append(length).append("\r\n");
+        }
+        header.append("\r\n");
+        return header.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Open an endless transmission that repeats the frames and is paced to the configured frame rate
+     *
+     * @return The transmission stream
+     */
+    public InputStream openStream() {
+        return new LoopingStream();
+    }
+
+    /**
+     * One pass of the transmission containing every frame once
+     *
+     * @return The transmission bytes
+     */
+    public byte[] getTransmission() {
+        return transmission;
+    }
+
+    /**
+     * The compressed frames
+     *
+     * @return The JPEG frames
+     */
+    public byte[][] getFrames() {
+        return frames;
+    }
+
+    /**
+     * Style of the part boundaries, cameras differ in where they put the line breaks
+     */
+    public enum BoundaryStyle {
+        /**
+         * Boundary line before each part and a line break after the JPEG
+         */
+        STANDARD("--myboundary\r\n", "\r\n"),
+
+        /**
+         * Boundary with a leading line break and nothing after the JPEG
+         */
+        LEADING_BREAK("\r\n--ipcamera\r\n", ""),
+
+        /**
+         * Boundary without dashes and bare line feeds
+         */
+        BARE("boundarydonotcross\n", "\n\n");
+
+        private final String boundary;
+        private final byte[] trailer;
+
+        BoundaryStyle(String boundary, String trailer) {
+            this.boundary = boundary;
+            this.trailer = trailer.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Endless stream over the transmission
+     */
+    private class LoopingStream extends InputStream {
+
+        private final long frameInterval = frameRate <= 0 ? 0 : 1_000_000_000L / frameRate;
+        private final int bytesPerFrame = transmission.length / frames.length;
+
+        private int position;
+        private long sentBytes;
+        private final long start = System.nanoTime();
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            pace();
+
+            int read = Math.min(length, transmission.length - this.position);
+            System.arraycopy(transmission, this.position, buffer, offset, read);
+            this.position = (this.position + read) % transmission.length;
+            this.sentBytes += read;
+            return read;
+        }
+
+        /**
+         * Wait until the sent bytes match the configured frame rate
+         *
+         * @throws IOException Interrupted while waiting
+         */
+        private void pace() throws IOException {
+            if (this.frameInterval == 0) {
+                return;
+            }
+
+            long due = this.start + this.sentBytes / this.bytesPerFrame * this.frameInterval;
+            long delay = due - System.nanoTime();
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay / 1_000_000L, (int) (delay % 1_000_000L));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+}
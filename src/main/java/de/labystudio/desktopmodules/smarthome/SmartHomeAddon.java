@@ -3,12 +3,18 @@ package de.labystudio.desktopmodules.smarthome;
 import com.google.gson.JsonObject;
 import de.labystudio.desktopmodules.core.addon.Addon;
 import de.labystudio.desktopmodules.smarthome.api.fritzbox.AsyncFritzBoxAPI;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.CameraRegistry;
+import de.labystudio.desktopmodules.smarthome.api.motion.MotionTriggerScheduler;
 import de.labystudio.desktopmodules.smarthome.modules.HomeIndicatorModule;
 import de.labystudio.desktopmodules.smarthome.modules.IPCameraModule;
 
+import java.io.File;
+
 public class SmartHomeAddon extends Addon {
 
     private final AsyncFritzBoxAPI fritzBox = new AsyncFritzBoxAPI();
+    private final CameraRegistry cameraRegistry = new CameraRegistry();
+    private final MotionTriggerScheduler motionTriggerScheduler = new MotionTriggerScheduler(2);
 
     @Override
     public void onInitialize() throws Exception {
@@ -27,20 +33,45 @@ public class SmartHomeAddon extends Addon {
         String username = getConfigValue(object, "username", "admin");
         String password = getConfigValue(object, "password", "admin");
         int updateInterval = getConfigValue(object, "update_interval", 30);
+        int fastUpdateInterval = getConfigValue(object, "fast_update_interval", Math.min(5, updateInterval));
+        int maxUpdateInterval = getConfigValue(object, "max_update_interval", updateInterval * 4);
+        String sessionFile = getConfigValue(object, "session_file", "");
+
+        JsonObject events = getConfigObject(object, "events");
+        boolean eventsEnabled = getConfigValue(events, "enabled", false);
+        int eventsPort = getConfigValue(events, "port", 0);
 
         // Change address
         this.fritzBox.setAddress(address);
 
+        // Reuse the login session across restarts
+        this.fritzBox.setSessionFile(sessionFile.isEmpty() ? null : new File(sessionFile));
+
         // Connect
-        this.fritzBox.connect(username, password, updateInterval);
+        this.fritzBox.connect(username, password, fastUpdateInterval, updateInterval, maxUpdateInterval);
+
+        // Receive host changes from the fritz box instead of waiting for the next poll
+        if (eventsEnabled) {
+            this.fritzBox.enableEvents(eventsPort);
+        }
     }
 
     @Override
     public void onDisable() {
         this.fritzBox.disconnect();
+        this.motionTriggerScheduler.cancelAll();
+        this.cameraRegistry.closeAll();
     }
 
     public AsyncFritzBoxAPI getFritzBox() {
         return this.fritzBox;
     }
+
+    public CameraRegistry getCameraRegistry() {
+        return this.cameraRegistry;
+    }
+
+    public MotionTriggerScheduler getMotionTriggerScheduler() {
+        return this.motionTriggerScheduler;
+    }
 }
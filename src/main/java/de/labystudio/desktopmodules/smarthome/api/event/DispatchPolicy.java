@@ -0,0 +1,26 @@
+package de.labystudio.desktopmodules.smarthome.api.event;
+
+/**
+ * What happens to a new event if the queue of a subscriber is full
+ *
+ * @author LabyStudio
+ */
+public enum DispatchPolicy {
+
+    /**
+     * The subscriber only keeps the newest event, a pending event is replaced.
+     * The queue capacity is always 1.
+     */
+    LATEST_ONLY,
+
+    /**
+     * The oldest pending event is dropped to make room for the new event
+     */
+    DROP_OLDEST,
+
+    /**
+     * The publishing thread waits until the subscriber has room for the event.
+     * Only for subscribers that must not miss events, a slow subscriber stalls the publisher.
+     */
+    BLOCK
+}
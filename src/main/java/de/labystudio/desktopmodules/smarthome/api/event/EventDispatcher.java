@@ -0,0 +1,179 @@
+package de.labystudio.desktopmodules.smarthome.api.event;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Passes events from an I/O thread to listeners without running them on that thread.
+ * Each subscriber has a bounded queue and a {@link DispatchPolicy}, so a slow listener only falls behind on its own.
+ * <p>
+ * The subscriber list is replaced as a whole on change, publishing only reads it and never takes a lock.
+ * Reused events (like leased frames) are retained once per queued subscriber and released after delivery or when dropped.
+ *
+ * @param <T> The event type
+ * @author LabyStudio
+ */
+public class EventDispatcher<T> {
+
+    private static final Subscription<?>[] EMPTY = new Subscription<?>[0];
+
+    private final Executor executor;
+    private final Predicate<T> retain;
+    private final Consumer<T> release;
+
+    private final AtomicReference<Subscription<T>[]> subscriptions;
+
+    /**
+     * Create a dispatcher for events that don't need to be released
+     *
+     * @param executor The executor running the listeners
+     */
+    public EventDispatcher(Executor executor) {
+        this(executor, event -> true, event -> {
+        });
+    }
+
+    /**
+     * Create a dispatcher for reused events
+     *
+     * @param executor The executor running the listeners
+     * @param retain   Takes a reference on the event for a subscriber, returns false if the event can't be retained
+     * @param release  Releases a reference that has been taken by retain
+     */
+    @SuppressWarnings("unchecked")
+    public EventDispatcher(Executor executor, Predicate<T> retain, Consumer<T> release) {
+        this.executor = executor;
+        this.retain = retain;
+        this.release = release;
+        this.subscriptions = new AtomicReference<>((Subscription<T>[]) EMPTY);
+    }
+
+    /**
+     * Subscribe a listener
+     *
+     * @param listener The listener called on the executor
+     * @param policy   What happens if the queue of the listener is full
+     * @param capacity Maximum amount of pending events, ignored for {@link DispatchPolicy#LATEST_ONLY}
+     * @return The subscription handle to unsubscribe and to read the lag counters
+     */
+    public Subscription<T> subscribe(Consumer<T> listener, DispatchPolicy policy, int capacity) {
+        Subscription<T> subscription = new Subscription<>(this, listener, policy, capacity);
+
+        while (true) {
+            Subscription<T>[] current = this.subscriptions.get();
+            Subscription<T>[] updated = copyOf(current, current.length + 1);
+            updated[current.length] = subscription;
+
+            if (this.subscriptions.compareAndSet(current, updated)) {
+                return subscription;
+            }
+        }
+    }
+
+    /**
+     * Subscribe a listener that only receives the newest event
+     *
+     * @param listener The listener called on the executor
+     * @return The subscription handle
+     */
+    public Subscription<T> subscribe(Consumer<T> listener) {
+        return subscribe(listener, DispatchPolicy.LATEST_ONLY, 1);
+    }
+
+    /**
+     * Remove a subscription from the list
+     *
+     * @param subscription The subscription to remove
+     */
+    void remove(Subscription<T> subscription) {
+        while (true) {
+            Subscription<T>[] current = this.subscriptions.get();
+
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == subscription) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index == -1) {
+                return;
+            }
+
+            // Copy all except the removed one
+            Subscription<T>[] updated = copyOf(current, current.length - 1);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+
+            if (this.subscriptions.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Queue the event for all subscribers.
+     * Only blocks if a subscriber with {@link DispatchPolicy#BLOCK} has a full queue.
+     *
+     * @param event The event
+     */
+    public void dispatch(T event) {
+        for (Subscription<T> subscription : this.subscriptions.get()) {
+            if (this.retain.test(event)) {
+                subscription.offer(event, this.executor);
+            }
+        }
+    }
+
+    /**
+     * Release the reference of a delivered or dropped event
+     *
+     * @param event The event
+     */
+    void release(T event) {
+        this.release.accept(event);
+    }
+
+    /**
+     * Remove all subscriptions
+     */
+    public void unsubscribeAll() {
+        for (Subscription<T> subscription : this.subscriptions.get()) {
+            subscription.unsubscribe();
+        }
+    }
+
+    /**
+     * Indicates if anybody is subscribed, so the publisher can skip preparing events
+     *
+     * @return At least one subscription exists
+     */
+    public boolean hasSubscribers() {
+        return this.subscriptions.get().length != 0;
+    }
+
+    /**
+     * The current subscriptions for example to find slow listeners
+     *
+     * @return Snapshot of the subscriptions
+     */
+    public Subscription<T>[] getSubscriptions() {
+        Subscription<T>[] current = this.subscriptions.get();
+        return copyOf(current, current.length);
+    }
+
+    /**
+     * Copy the first elements of a subscription array into a new array
+     *
+     * @param source The source array
+     * @param length Length of the new array
+     * @return The new array
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Subscription<T>[] copyOf(Subscription<T>[] source, int length) {
+        Subscription<T>[] target = (Subscription<T>[]) new Subscription<?>[length];
+        System.arraycopy(source, 0, target, 0, Math.min(source.length, length));
+        return target;
+    }
+}
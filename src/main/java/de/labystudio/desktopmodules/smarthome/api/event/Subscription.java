@@ -0,0 +1,268 @@
+package de.labystudio.desktopmodules.smarthome.api.event;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A subscriber of an {@link EventDispatcher} with its own bounded queue.
+ * The events are delivered in order on the executor of the dispatcher, never two at the same time.
+ * The counters show how far the subscriber falls behind the publisher.
+ *
+ * @param <T> The event type
+ * @author LabyStudio
+ */
+public class Subscription<T> {
+
+    private final EventDispatcher<T> dispatcher;
+    private final Consumer<T> listener;
+    private final DispatchPolicy policy;
+
+    private final Object[] events;
+    private final long[] times;
+    private int head;
+    private int size;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean subscribed = true;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long lag;
+    private volatile long maxLag;
+
+    /**
+     * Create a subscription
+     *
+     * @param dispatcher The dispatcher of the events
+     * @param listener   The event listener
+     * @param policy     The policy if the queue is full
+     * @param capacity   Maximum amount of pending events
+     */
+    Subscription(EventDispatcher<T> dispatcher, Consumer<T> listener, DispatchPolicy policy, int capacity) {
+        this.dispatcher = dispatcher;
+        this.listener = listener;
+        this.policy = policy;
+
+        // Latest only is a single slot that is always replaced
+        int slots = policy == DispatchPolicy.LATEST_ONLY ? 1 : Math.max(1, capacity);
+        this.events = new Object[slots];
+        this.times = new long[slots];
+    }
+
+    /**
+     * Queue an event according to the policy and schedule the delivery.
+     * The event has already been retained for this subscriber.
+     *
+     * @param event    The event
+     * @param executor The executor running the delivery
+     */
+    void offer(T event, Executor executor) {
+        T droppedEvent = null;
+
+        synchronized (this) {
+            if (this.size == this.events.length) {
+                if (this.policy == DispatchPolicy.BLOCK) {
+                    // Wait until the listener took an event
+                    try {
+                        while (this.subscribed && this.size == this.events.length) {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    if (!this.subscribed || this.size == this.events.length) {
+                        droppedEvent = event;
+                        event = null;
+                    }
+                } else {
+                    // Drop the oldest pending event
+                    droppedEvent = poll();
+                }
+            }
+
+            if (event != null) {
+                int index = (this.head + this.size) % this.events.length;
+                this.events[index] = event;
+                this.times[index] = System.nanoTime();
+                this.size++;
+            }
+        }
+
+        if (droppedEvent != null) {
+            this.dropped.incrementAndGet();
+            this.dispatcher.release(droppedEvent);
+        }
+
+        if (event != null) {
+            schedule(executor);
+        }
+    }
+
+    /**
+     * Schedule the delivery of the pending events if it isn't running yet
+     *
+     * @param executor The executor running the delivery
+     */
+    private void schedule(Executor executor) {
+        if (this.scheduled.compareAndSet(false, true)) {
+            executor.execute(this::deliver);
+        }
+    }
+
+    /**
+     * Deliver all pending events to the listener
+     */
+    private void deliver() {
+        while (true) {
+            T event;
+            long queuedTime;
+
+            synchronized (this) {
+                queuedTime = this.times[this.head];
+                event = poll();
+                if (event != null) {
+                    // Wake up a blocked publisher
+                    notifyAll();
+                }
+            }
+
+            if (event == null) {
+                this.scheduled.set(false);
+
+                // An event might have been queued before the flag was cleared
+                synchronized (this) {
+                    if (this.size == 0 || !this.scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            // Measure how long the event was waiting for the listener
+            long lag = System.nanoTime() - queuedTime;
+            this.lag = lag;
+            if (lag > this.maxLag) {
+                this.maxLag = lag;
+            }
+
+            try {
+                if (this.subscribed) {
+                    this.listener.accept(event);
+                    this.delivered.incrementAndGet();
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                this.dispatcher.release(event);
+            }
+        }
+    }
+
+    /**
+     * Take the oldest pending event, must hold the monitor
+     *
+     * @return The event or null if no event is pending
+     */
+    @SuppressWarnings("unchecked")
+    private T poll() {
+        if (this.size == 0) {
+            return null;
+        }
+
+        T event = (T) this.events[this.head];
+        this.events[this.head] = null;
+        this.head = (this.head + 1) % this.events.length;
+        this.size--;
+        return event;
+    }
+
+    /**
+     * Stop receiving events. Pending events are dropped and a blocked publisher is released.
+     */
+    public void unsubscribe() {
+        if (!this.subscribed) {
+            return;
+        }
+        this.subscribed = false;
+        this.dispatcher.remove(this);
+
+        // Drop the pending events
+        while (true) {
+            T event;
+            synchronized (this) {
+                event = poll();
+                notifyAll();
+            }
+            if (event == null) {
+                break;
+            }
+            this.dispatcher.release(event);
+        }
+    }
+
+    /**
+     * Indicates if the subscription still receives events
+     *
+     * @return Subscription is active
+     */
+    public boolean isSubscribed() {
+        return subscribed;
+    }
+
+    /**
+     * The policy if the queue of this subscriber is full
+     *
+     * @return The dispatch policy
+     */
+    public DispatchPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Amount of events waiting for the listener
+     *
+     * @return Pending event count
+     */
+    public synchronized int getPending() {
+        return this.size;
+    }
+
+    /**
+     * Amount of events that have been passed to the listener
+     *
+     * @return Delivered event count
+     */
+    public long getDelivered() {
+        return this.delivered.get();
+    }
+
+    /**
+     * Amount of events that have been dropped because the listener was too slow
+     *
+     * @return Dropped event count
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Time the last delivered event was waiting in the queue
+     *
+     * @return Lag in nanoseconds
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    /**
+     * The longest time an event was waiting in the queue
+     *
+     * @return Lag in nanoseconds
+     */
+    public long getMaxLag() {
+        return maxLag;
+    }
+}
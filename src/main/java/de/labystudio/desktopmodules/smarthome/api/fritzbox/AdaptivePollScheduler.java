@@ -0,0 +1,290 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a poll task with an interval that adapts to the polled data.
+ * <p>
+ * After a change the task is polled with the fast interval, each poll without a change increases the interval
+ * up to the normal interval while fast polling is requested, otherwise up to the maximum interval.
+ * While the source pushes its changes, the maximum interval is used in any case.
+ * Failures double the interval up to the maximum. All delays are randomized by 10% so polls don't line up with other clients.
+ * <p>
+ * Only one poll runs at a time and the next poll is scheduled after the previous one finished.
+ * Refresh requests during a poll are combined into a single poll that starts after it.
+ *
+ * @author LabyStudio
+ */
+public class AdaptivePollScheduler {
+
+    private static final double BACKOFF_FACTOR = 1.5D;
+    private static final double JITTER = 0.1D;
+
+    /**
+     * Minimum time between the start of two polls for a requested refresh
+     */
+    private static final long MIN_REFRESH_DELAY = 1000L;
+
+    private final ScheduledExecutorService executor;
+    private final Callable<Boolean> task;
+
+    private final Object lock = new Object();
+
+    // Guarded by the lock
+    private long fastInterval;
+    private long interval;
+    private long maxInterval;
+    private long currentInterval;
+    private boolean fast;
+    private boolean eventDriven;
+    private boolean running;
+    private boolean stopped = true;
+    private long lastStart;
+    private int generation;
+    private ScheduledFuture<?> next;
+    private CompletableFuture<Void> pendingRefresh;
+
+    /**
+     * Create a stopped scheduler
+     *
+     * @param executor The executor running the task
+     * @param task     The poll task, returns true if the polled data changed
+     */
+    public AdaptivePollScheduler(ScheduledExecutorService executor, Callable<Boolean> task) {
+        this.executor = executor;
+        this.task = task;
+    }
+
+    /**
+     * Start polling immediately. Does nothing if the scheduler is already running except updating the intervals.
+     *
+     * @param fastInterval Interval after a change in milliseconds
+     * @param interval     Maximum interval while fast polling is requested in milliseconds
+     * @param maxInterval  Maximum interval of a stable or unreachable source in milliseconds
+     */
+    public void start(long fastInterval, long interval, long maxInterval) {
+        synchronized (this.lock) {
+            this.fastInterval = Math.max(1L, Math.min(fastInterval, interval));
+            this.interval = interval;
+            this.maxInterval = Math.max(interval, maxInterval);
+
+            if (this.stopped) {
+                this.stopped = false;
+                this.currentInterval = this.fastInterval;
+                schedule(0L);
+            }
+        }
+    }
+
+    /**
+     * Stop polling, a running poll is finished but not repeated
+     */
+    public void stop() {
+        CompletableFuture<Void> refresh;
+
+        synchronized (this.lock) {
+            this.stopped = true;
+            this.generation++;
+            if (this.next != null) {
+                this.next.cancel(false);
+                this.next = null;
+            }
+
+            refresh = this.pendingRefresh;
+            this.pendingRefresh = null;
+        }
+
+        if (refresh != null) {
+            refresh.cancel(false);
+        }
+    }
+
+    /**
+     * Poll as soon as possible. If a poll is running, a single poll is started after it for all requests made meanwhile.
+     *
+     * @return Completes after a poll that started after this request finished
+     */
+    public CompletableFuture<Void> requestRefresh() {
+        synchronized (this.lock) {
+            if (this.stopped) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                future.completeExceptionally(new IllegalStateException("Polling is stopped"));
+                return future;
+            }
+
+            // Join the refresh that hasn't started yet
+            if (this.pendingRefresh == null) {
+                this.pendingRefresh = new CompletableFuture<>();
+
+                // A running poll schedules the refresh when it finished
+                if (!this.running) {
+                    schedule(refreshDelay());
+                }
+            }
+            return this.pendingRefresh;
+        }
+    }
+
+    /**
+     * Limit the interval to the normal interval, for example while the polled data is displayed
+     *
+     * @param fast Fast polling requested
+     */
+    public void setFast(boolean fast) {
+        synchronized (this.lock) {
+            this.fast = fast;
+            applyLimit();
+        }
+    }
+
+    /**
+     * Indicate that the source announces its changes with {@link #requestRefresh()},
+     * polling is only a fallback then and uses the maximum interval
+     *
+     * @param eventDriven The source pushes its changes
+     */
+    public void setEventDriven(boolean eventDriven) {
+        synchronized (this.lock) {
+            this.eventDriven = eventDriven;
+            applyLimit();
+        }
+    }
+
+    /**
+     * Don't wait for the long delay of the stable state if the limit decreased, must be called while holding the lock
+     */
+    private void applyLimit() {
+        long limit = limit();
+        if (this.currentInterval > limit) {
+            this.currentInterval = limit;
+            if (!this.stopped && !this.running && this.pendingRefresh == null) {
+                schedule(jitter(this.currentInterval));
+            }
+        }
+    }
+
+    /**
+     * The interval a stable source reaches, must be called while holding the lock
+     *
+     * @return Interval in milliseconds
+     */
+    private long limit() {
+        return this.fast && !this.eventDriven ? this.interval : this.maxInterval;
+    }
+
+    /**
+     * Run a poll and schedule the next one
+     *
+     * @param generation The generation of the schedule, outdated polls are ignored
+     */
+    private void poll(int generation) {
+        CompletableFuture<Void> refresh;
+
+        synchronized (this.lock) {
+            if (this.stopped || this.running || generation != this.generation) {
+                return;
+            }
+            this.running = true;
+            this.next = null;
+            this.lastStart = System.currentTimeMillis();
+
+            // This poll serves all refresh requests made until now
+            refresh = this.pendingRefresh;
+            this.pendingRefresh = null;
+        }
+
+        boolean changed = false;
+        Exception failure = null;
+        try {
+            changed = this.task.call();
+        } catch (Exception e) {
+            failure = e;
+        }
+
+        synchronized (this.lock) {
+            this.running = false;
+
+            if (failure != null) {
+                // Back off while the source is unreachable
+                this.currentInterval = Math.min(this.maxInterval, Math.max(this.currentInterval, this.fastInterval) * 2);
+            } else if (changed) {
+                // More changes are likely to follow soon
+                this.currentInterval = this.fastInterval;
+            } else {
+                this.currentInterval = Math.min(limit(), Math.max(this.fastInterval, (long) (this.currentInterval * BACKOFF_FACTOR)));
+            }
+
+            if (!this.stopped) {
+                schedule(this.pendingRefresh != null ? refreshDelay() : jitter(this.currentInterval));
+            }
+        }
+
+        if (refresh != null) {
+            if (failure == null) {
+                refresh.complete(null);
+            } else {
+                refresh.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Replace the scheduled poll, must be called while holding the lock
+     *
+     * @param delay Delay in milliseconds
+     */
+    private void schedule(long delay) {
+        if (this.next != null) {
+            this.next.cancel(false);
+        }
+
+        int generation = ++this.generation;
+        this.next = this.executor.schedule(() -> poll(generation), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Delay of a refresh, so refresh requests can't flood the polled source
+     *
+     * @return Delay in milliseconds
+     */
+    private long refreshDelay() {
+        return Math.max(0L, this.lastStart + MIN_REFRESH_DELAY - System.currentTimeMillis());
+    }
+
+    /**
+     * Randomize a delay
+     *
+     * @param delay Delay in milliseconds
+     * @return The delay with a random deviation of up to 10%
+     */
+    private static long jitter(long delay) {
+        return (long) (delay * (1.0D + JITTER * (ThreadLocalRandom.current().nextDouble() * 2.0D - 1.0D)));
+    }
+
+    /**
+     * Current interval between two polls
+     *
+     * @return Interval in milliseconds
+     */
+    public long getCurrentInterval() {
+        synchronized (this.lock) {
+            return this.currentInterval;
+        }
+    }
+
+    /**
+     * Indicates if polling is active
+     *
+     * @return The scheduler is started
+     */
+    public boolean isRunning() {
+        synchronized (this.lock) {
+            return !this.stopped;
+        }
+    }
+}
@@ -1,30 +1,73 @@
 package de.labystudio.desktopmodules.smarthome.api.fritzbox;
 
-import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.Network;
+import de.labystudio.desktopmodules.smarthome.api.event.DispatchPolicy;
+import de.labystudio.desktopmodules.smarthome.api.event.EventDispatcher;
+import de.labystudio.desktopmodules.smarthome.api.event.Subscription;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.NetworkDeviceList;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.NetworkDiff;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.upnp.GenaSubscriber;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.upnp.ServiceDescription;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 
 /**
  * Asynchronous FritzBox API
+ * <p>
+ * Listeners are only called if a device changed. Devices are identified by the UID of the fritz box,
+ * so a renamed device is reported as rename and not as a device that left and joined.
+ * <p>
+ * The device list is polled faster after a change and while a module displays it, a stable network is polled less often.
+ * With TR-064 events enabled, the fritz box announces host changes and polling is only a fallback.
  *
  * @author LabyStudio
  */
 public class AsyncFritzBoxAPI extends FritzBoxAPI {
 
+    private static final String KEY_FIELD = "UID";
+
+    private static final String URL_TR064_DESCRIPTION = "http://%s:49000/tr64desc.xml";
+    private static final String SERVICE_HOSTS = "urn:dslforum-org:service:Hosts:1";
+
+    /**
+     * Time a change found by polling may be apart from the last event before the events count as unreliable
+     */
+    private static final long EVENT_GRACE = 10000L;
+    private static final long EVENT_RETRY_DELAY = TimeUnit.MINUTES.toMillis(30);
+
+    private static final int DEFAULT_FAST_INTERVAL = 5;
+    private static final int DEFAULT_MAX_INTERVAL_FACTOR = 4;
+
     private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(2);
-    private ScheduledFuture<?> fritzBoxTask;
+    private final AdaptivePollScheduler pollScheduler = new AdaptivePollScheduler(this.executorService, this::updateNetworkDevices);
+    private final Set<Object> observers = new HashSet<>();
+    private final Object eventLock = new Object();
+    private volatile GenaSubscriber eventSubscriber;
 
-    private boolean authenticationError = false;
+    private volatile boolean authenticationError = false;
     private int retry = 10;
 
-    private final List<Consumer<Network>> networkListeners = new ArrayList<>();
+    private final EventDispatcher<NetworkDeviceList> networkDispatcher
+            = new EventDispatcher<>(this.executorService, NetworkDeviceList::retain, NetworkDeviceList::release);
+
+    private final EventDispatcher<NetworkDiff> changeDispatcher = new EventDispatcher<>(this.executorService);
+
+    // Only accessed by the update task
+    private final List<NetworkDeviceList> networkLists = new ArrayList<>();
+    private final NetworkTracker networkTracker = new NetworkTracker();
+    private volatile String[] networkFields = {KEY_FIELD};
 
     /**
      * Fritz box API access using the given router address
@@ -43,28 +86,51 @@ public class AsyncFritzBoxAPI extends FritzBoxAPI {
     }
 
     /**
-     * Login asynchronously to the fritz box and start a repeating task to update the network devices
+     * Login asynchronously to the fritz box and start a repeating task to update the network devices.
+     * The list is polled each 5 seconds after a change and up to four times the update interval while the network is stable.
      *
      * @param username       The username of the fritz box
      * @param password       The password of the fritz box
-     * @param updateInterval Update the network device list each x seconds
-     * @throws Exception Login exception
+     * @param updateInterval Update the network device list at least each x seconds while a module displays it
      */
     public void connect(String username, String password, int updateInterval) {
+        connect(username, password, Math.min(DEFAULT_FAST_INTERVAL, updateInterval), updateInterval, updateInterval * DEFAULT_MAX_INTERVAL_FACTOR);
+    }
+
+    /**
+     * Login asynchronously to the fritz box and start a repeating task to update the network devices.
+     * An unreachable fritz box is retried, a rejected login is not retried until the next connect.
+     *
+     * @param username       The username of the fritz box
+     * @param password       The password of the fritz box
+     * @param fastInterval   Update the network device list each x seconds after a change
+     * @param updateInterval Update the network device list at least each x seconds while a module displays it
+     * @param maxInterval    Update the network device list at least each x seconds while the network is stable
+     */
+    public void connect(String username, String password, int fastInterval, int updateInterval, int maxInterval) {
         // Connect to fritz box async
         this.executorService.execute(() -> {
             try {
-                // Login
+                // Login or continue the cached session
                 super.connect(username, password);
+                this.authenticationError = false;
 
-                // Start repeating task
-                if (this.fritzBoxTask == null || this.fritzBoxTask.isDone() || this.fritzBoxTask.isCancelled()) {
-                    this.fritzBoxTask = this.executorService.scheduleAtFixedRate(this::updateNetworkDevices, 0, updateInterval, TimeUnit.SECONDS);
-                }
+                // Start polling
+                this.pollScheduler.start(
+                        TimeUnit.SECONDS.toMillis(fastInterval),
+                        TimeUnit.SECONDS.toMillis(updateInterval),
+                        TimeUnit.SECONDS.toMillis(maxInterval)
+                );
             } catch (Exception e) {
                 e.printStackTrace();
 
-                this.authenticationError = true;
+                // Only a rejected password is reported, an unreachable fritz box is retried silently
+                if (e instanceof AuthenticationException) {
+                    this.authenticationError = true;
+
+                    // Every further attempt with the same password would extend the login block of the fritz box
+                    return;
+                }
 
                 // Check for retry
                 if (this.retry > 0) {
@@ -78,7 +144,7 @@ public class AsyncFritzBoxAPI extends FritzBoxAPI {
                     }
 
                     // Reconnect
-                    connect(username, password, updateInterval);
+                    connect(username, password, fastInterval, updateInterval, maxInterval);
                 }
             }
         });
@@ -88,43 +154,214 @@ public class AsyncFritzBoxAPI extends FritzBoxAPI {
      * Stop the repeating task
      */
     public void disconnect() {
-        if (this.fritzBoxTask != null) {
-            this.fritzBoxTask.cancel(true);
+        this.pollScheduler.stop();
+        disableEvents();
+    }
+
+    /**
+     * Subscribe asynchronously to the host events of the TR-064 interface of the fritz box.
+     * Each event updates the network device list, polling continues with the maximum interval as fallback.
+     * The TR-064 interface has to be allowed for applications in the network settings of the fritz box.
+     *
+     * @param port Local port of the event callback, 0 for any free port
+     */
+    public void enableEvents(int port) {
+        this.executorService.execute(() -> {
+            try {
+                URL descriptionUrl = new URL(String.format(URL_TR064_DESCRIPTION, this.address));
+                enableEvents(ServiceDescription.findEventUrl(descriptionUrl, SERVICE_HOSTS), new InetSocketAddress(port));
+            } catch (IOException e) {
+                // No events available, keep polling
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Subscribe to the events of a GENA event URL
+     *
+     * @param eventUrl        The event subscription URL of the hosts service
+     * @param callbackAddress Local address of the event callback, an unspecified address uses the interface that reaches the fritz box
+     * @throws IOException If the callback server can't be started
+     */
+    public void enableEvents(URL eventUrl, InetSocketAddress callbackAddress) throws IOException {
+        synchronized (this.eventLock) {
+            disableEvents();
+
+            GenaSubscriber subscriber = new GenaSubscriber(this.executorService, eventUrl, callbackAddress,
+                    this::requestRefresh, this.pollScheduler::setEventDriven);
+            subscriber.start();
+            this.eventSubscriber = subscriber;
         }
     }
 
+    /**
+     * Cancel the event subscription and return to regular polling
+     */
+    public void disableEvents() {
+        synchronized (this.eventLock) {
+            if (this.eventSubscriber != null) {
+                this.eventSubscriber.stop();
+                this.eventSubscriber = null;
+            }
+            this.pollScheduler.setEventDriven(false);
+        }
+    }
+
+    /**
+     * Update the network device list as soon as possible.
+     * Requests during a running update are answered by a single update after it.
+     *
+     * @return Completes after the updated device list has been passed to the listeners
+     */
+    public CompletableFuture<Void> requestRefresh() {
+        return this.pollScheduler.requestRefresh();
+    }
+
+    /**
+     * Report whether an observer displays the network devices, the list is polled faster while it is displayed
+     *
+     * @param observer The observer, for example a module
+     * @param observed The observer displays the network devices
+     */
+    public synchronized void setObserved(Object observer, boolean observed) {
+        if (observed) {
+            this.observers.add(observer);
+        } else {
+            this.observers.remove(observer);
+        }
+        this.pollScheduler.setFast(!this.observers.isEmpty());
+    }
+
     /**
      * Update the network devices list and trigger all network listeners
+     *
+     * @return A device changed
+     * @throws Exception The fritz box is not reachable right now, the update interval backs off
      */
-    private void updateNetworkDevices() {
+    private boolean updateNetworkDevices() throws Exception {
         if (this.authenticationError) {
-            return;
+            return false;
         }
 
         try {
-            // Get current network devices
-            Network network = getNetworkDevices();
+            // Read the current network devices into a list no listener holds anymore
+            NetworkDeviceList list = acquireNetworkList();
+            getNetworkDevices(list);
 
-            // Call listeners
-            if (network != null) {
-                for (Consumer<Network> listener : this.networkListeners) {
-                    listener.accept(network);
-                }
+            // Nothing changed since the last update
+            NetworkDiff diff = this.networkTracker.update(list, list.indexOf(KEY_FIELD));
+            if (diff == null) {
+                return false;
             }
-        } catch (Exception e) {
+
+            // The fritz box didn't announce this change, so its events can't be trusted
+            GenaSubscriber subscriber = this.eventSubscriber;
+            if (subscriber != null && subscriber.isActive() && !diff.isReset() && !diff.isEmpty()
+                    && subscriber.getLastEvent() + EVENT_GRACE < System.currentTimeMillis()) {
+                subscriber.resubscribe(EVENT_RETRY_DELAY);
+            }
+
+            // Pass the changes and the list to the listeners without waiting for them
+            this.changeDispatcher.dispatch(diff);
+            this.networkDispatcher.dispatch(list);
+            return !diff.isEmpty();
+        } catch (AuthenticationException e) {
             e.printStackTrace();
 
+            // Password changed meanwhile
             this.authenticationError = true;
+            throw e;
+        } catch (Exception e) {
+            // The fritz box is not reachable right now, try again with the next update
+            e.printStackTrace();
+            throw e;
         }
     }
 
     /**
-     * Register a network device update listener
+     * Get a device list that is not referenced by any listener or create a new one
+     *
+     * @return A device list with the current projection
+     */
+    private NetworkDeviceList acquireNetworkList() {
+        String[] fields = this.networkFields;
+
+        for (int i = this.networkLists.size() - 1; i >= 0; i--) {
+            NetworkDeviceList list = this.networkLists.get(i);
+            if (!list.isReleased()) {
+                continue;
+            }
+
+            // Drop lists of an old projection
+            if (!Arrays.equals(list.getFields(), fields)) {
+                this.networkLists.remove(i);
+                continue;
+            }
+            return list;
+        }
+
+        NetworkDeviceList list = new NetworkDeviceList(fields);
+        this.networkLists.add(list);
+        return list;
+    }
+
+    /**
+     * Request extra fields of the landevice list in addition to the name and the active state.
+     * The projection is used by the next update, which sends all devices with their new fields to the change listeners.
+     *
+     * @param fields Field names, for example "mac" or "ip"
+     */
+    public void setNetworkFields(String... fields) {
+        List<String> projection = new ArrayList<>(Arrays.asList(fields));
+
+        // The identity of the devices is always required
+        if (!projection.contains(KEY_FIELD)) {
+            projection.add(0, KEY_FIELD);
+        }
+        this.networkFields = projection.toArray(new String[0]);
+    }
+
+    /**
+     * Register a network device update listener that only receives the newest device list if a device changed.
+     * The list is reused after the listener returned, so it must not be stored.
+     *
+     * @param listener The callback
+     * @return The subscription handle to unregister the listener
+     */
+    public Subscription<NetworkDeviceList> registerNetworkListener(Consumer<NetworkDeviceList> listener) {
+        return registerNetworkListener(listener, DispatchPolicy.LATEST_ONLY, 1);
+    }
+
+    /**
+     * Register a network device update listener with an own queue
      *
      * @param listener The callback
+     * @param policy   What happens if the listener falls behind
+     * @param capacity Maximum amount of pending device lists
+     * @return The subscription handle to unregister the listener and to read the lag counters
      */
-    public void registerNetworkListener(Consumer<Network> listener) {
-        this.networkListeners.add(listener);
+    public Subscription<NetworkDeviceList> registerNetworkListener(Consumer<NetworkDeviceList> listener, DispatchPolicy policy, int capacity) {
+        Subscription<NetworkDeviceList> subscription = this.networkDispatcher.subscribe(listener, policy, capacity);
+
+        // The new listener needs the current list even if nothing changes
+        this.networkTracker.reset();
+        return subscription;
+    }
+
+    /**
+     * Register a listener for the changes of the network devices.
+     * Every change is delivered, the first diff after subscribing is a reset with all current devices.
+     *
+     * @param listener The callback
+     * @return The subscription handle to unregister the listener
+     */
+    public Subscription<NetworkDiff> registerChangeListener(Consumer<NetworkDiff> listener) {
+        Subscription<NetworkDiff> subscription = this.changeDispatcher.subscribe(listener, DispatchPolicy.BLOCK, 16);
+
+        // The new listener needs the current devices as a starting point
+        this.networkTracker.reset();
+        return subscription;
     }
 
     /**
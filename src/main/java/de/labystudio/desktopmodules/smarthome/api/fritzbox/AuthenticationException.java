@@ -0,0 +1,32 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox;
+
+/**
+ * The fritz box rejected the username or password
+ *
+ * @author LabyStudio
+ */
+public class AuthenticationException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int blockTime;
+
+    /**
+     * Create an authentication exception
+     *
+     * @param blockTime Seconds until the fritz box accepts the next login attempt
+     */
+    public AuthenticationException(int blockTime) {
+        super("Login rejected, next attempt possible in " + blockTime + " seconds");
+        this.blockTime = blockTime;
+    }
+
+    /**
+     * Seconds until the fritz box accepts the next login attempt
+     *
+     * @return Block time in seconds
+     */
+    public int getBlockTime() {
+        return blockTime;
+    }
+}
@@ -2,28 +2,55 @@ package de.labystudio.desktopmodules.smarthome.api.fritzbox;
 
 import com.google.gson.Gson;
 import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.Network;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.NetworkDeviceList;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * FritzBox API
+ * <p>
+ * The session id is cached and reused until the fritz box reports it as invalid.
+ * A new session is created with a single request that validates the old session and returns the challenge for the login,
+ * concurrent callers that need a new session share the same login.
  *
  * @author LabyStudio
  */
 public class FritzBoxAPI {
 
-    private static final String URL_API_CHALLENGE = "http://%s/login_sid.lua";
-    private static final String URL_API_LOGIN = "http://%s/login_sid.lua?username=%s&response=%s";
+    private static final String URL_API_SESSION = "http://%s/login_sid.lua?version=2&sid=%s";
+    private static final String URL_API_LOGIN = "http://%s/login_sid.lua?version=2&username=%s&response=%s";
     private static final String URL_API_NETWORK_DEVICES = "http://%s/query.lua?sid=%s&network=landevice:settings/landevice/list(name, active)";
+    private static final String URL_API_NETWORK_DEVICE_LIST = "http://%s/query.lua?sid=%s&network=landevice:settings/landevice/list(%s)";
+
+    private static final String INVALID_SID = "0000000000000000";
 
     private static final Gson GSON = new Gson();
 
     protected String address;
-    protected String sid = "";
+    protected volatile String sid = INVALID_SID;
+
+    private String username;
+    private String password;
+    private File sessionFile;
+
+    private final Object loginLock = new Object();
+    private CompletableFuture<String> pendingLogin;
 
     /**
      * Fritz box API access using the given router address
@@ -42,56 +69,323 @@ public class FritzBoxAPI {
     }
 
     /**
-     * Connect to the fritz box
+     * Connect to the fritz box. A cached session is reused if the fritz box still accepts it.
      *
      * @param username The username of the fritz box
      * @param password The password of the fritz box
      * @throws Exception Can't authenticate
      */
     public void connect(String username, String password) throws Exception {
-        String challenge = getChallenge();
-        this.sid = login(challenge, username, password);
+        this.username = username;
+        this.password = password;
+
+        // Continue the session of the last run
+        if (this.sid.equals(INVALID_SID)) {
+            this.sid = loadSession();
+        }
+
+        renewSession(null);
     }
 
     /**
-     * Get a list of all registered fritz box client network devices
+     * Get a list of all registered fritz box client network devices.
+     * The request is repeated once with a new session if the current session expired.
      *
      * @return Network response
      * @throws Exception
      */
     public Network getNetworkDevices() throws Exception {
-        String json = request(String.format(URL_API_NETWORK_DEVICES, this.address, this.sid));
+        String sid = this.sid;
+        try {
+            return requestNetworkDevices(sid);
+        } catch (SessionExpiredException e) {
+            return requestNetworkDevices(renewSession(sid));
+        }
+    }
+
+    /**
+     * Request the network device list with the given session
+     *
+     * @param sid The session id
+     * @return Network response
+     * @throws Exception
+     */
+    private Network requestNetworkDevices(String sid) throws Exception {
+        String json = request(String.format(URL_API_NETWORK_DEVICES, this.address, sid));
+
+        // Older firmware answers an invalid session with the login page
+        if (!json.trim().startsWith("{")) {
+            throw new SessionExpiredException("Session " + sid + " is not valid");
+        }
         return GSON.fromJson(json, Network.class);
     }
 
     /**
-     * Generate a challenge code for the login
+     * Read the registered network devices into a reusable list.
+     * The response is parsed while it is received and only the projected fields of the list are kept.
+     * The request is repeated once with a new session if the current session expired.
      *
-     * @return The challenge code as string
+     * @param list The list to fill, its extra fields are requested in addition to the name and the active state
      * @throws Exception
      */
-    private String getChallenge() throws Exception {
-        String result = request(String.format(URL_API_CHALLENGE, this.address));
-        return result.substring(result.indexOf("<Challenge>") + 11, result.indexOf("<Challenge>") + 19);
+    public void getNetworkDevices(NetworkDeviceList list) throws Exception {
+        String sid = this.sid;
+        try {
+            requestNetworkDevices(sid, list);
+        } catch (SessionExpiredException e) {
+            requestNetworkDevices(renewSession(sid), list);
+        }
     }
 
     /**
-     * Login to the fritz box using the challenge code and the fritz box password
+     * Request the projected network device list with the given session
      *
-     * @param challenge Challenge code as string
-     * @param password  Fritz box password
-     * @return SID (Access token)
+     * @param sid  The session id
+     * @param list The list to fill
      * @throws Exception
      */
-    private String login(String challenge, String username, String password) throws Exception {
+    private void requestNetworkDevices(String sid, NetworkDeviceList list) throws Exception {
+        StringBuilder projection = new StringBuilder("name,active");
+        for (String field : list.getFields()) {
+            projection.append(',').append(field);
+        }
+
+        try (InputStream stream = new BufferedInputStream(openStream(String.format(URL_API_NETWORK_DEVICE_LIST, this.address, sid, projection)))) {
+            // Older firmware answers an invalid session with the login page
+            if (!startsWithObject(stream)) {
+                throw new SessionExpiredException("Session " + sid + " is not valid");
+            }
+            list.read(stream);
+        }
+    }
+
+    /**
+     * Check if the stream starts with a JSON object without consuming it
+     *
+     * @param stream A stream supporting mark and reset
+     * @return The first character after whitespace is an opening brace
+     * @throws IOException Read exception
+     */
+    private static boolean startsWithObject(InputStream stream) throws IOException {
+        stream.mark(64);
+        try {
+            for (int i = 0; i < 64; i++) {
+                int value = stream.read();
+                if (value != ' ' && value != '\t' && value != '\r' && value != '\n') {
+                    return value == '{';
+                }
+            }
+            return false;
+        } finally {
+            stream.reset();
+        }
+    }
+
+    /**
+     * Replace an invalid session. If another caller already replaced it or is replacing it right now,
+     * its session is used instead of logging in again.
+     *
+     * @param invalidSid The session that has been rejected or null to validate the current session
+     * @return The new session id
+     * @throws Exception Can't authenticate
+     */
+    protected String renewSession(String invalidSid) throws Exception {
+        CompletableFuture<String> login;
+        boolean owner = false;
+
+        synchronized (this.loginLock) {
+            // Session has already been replaced
+            if (invalidSid != null && this.pendingLogin == null && !this.sid.equals(invalidSid)) {
+                return this.sid;
+            }
+
+            // Join the running login
+            login = this.pendingLogin;
+            if (login == null) {
+                login = this.pendingLogin = new CompletableFuture<>();
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            try {
+                String sid = login();
+                this.sid = sid;
+                saveSession(sid);
+                login.complete(sid);
+            } catch (Exception e) {
+                login.completeExceptionally(e);
+            } finally {
+                synchronized (this.loginLock) {
+                    this.pendingLogin = null;
+                }
+            }
+        }
+
+        try {
+            return login.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Validate the current session and login if it is invalid.
+     * The validation response already contains the challenge, so a login only needs one more request.
+     *
+     * @return A valid session id
+     * @throws Exception Can't authenticate
+     */
+    private String login() throws Exception {
+        String result = request(String.format(URL_API_SESSION, this.address, this.sid));
+
+        // Session is still valid
+        String sid = getTag(result, "SID");
+        if (!sid.equals(INVALID_SID)) {
+            return sid;
+        }
+
+        String challenge = getTag(result, "Challenge");
+        String response = challenge.startsWith("2$") ? getPbkdf2Response(challenge, this.password) : getMd5Response(challenge, this.password);
+
+        result = request(String.format(URL_API_LOGIN, this.address,
+                URLEncoder.encode(this.username, "UTF-8"), URLEncoder.encode(response, "UTF-8")));
+
+        sid = getTag(result, "SID");
+        if (sid.equals(INVALID_SID)) {
+            throw new AuthenticationException(Integer.parseInt(getTag(result, "BlockTime")));
+        }
+        return sid;
+    }
+
+    /**
+     * Create the login response for a PBKDF2 challenge of the format 2$iterations1$salt1$iterations2$salt2
+     *
+     * @param challenge The challenge of the fritz box
+     * @param password  Fritz box password
+     * @return The response for the login
+     * @throws GeneralSecurityException HmacSHA256 is not available
+     */
+    static String getPbkdf2Response(String challenge, String password) throws GeneralSecurityException {
+        String[] parts = challenge.split("\\$");
+        int iterations1 = Integer.parseInt(parts[1]);
+        byte[] salt1 = fromHex(parts[2]);
+        int iterations2 = Integer.parseInt(parts[3]);
+        byte[] salt2 = fromHex(parts[4]);
+
+        // The static hash of the password can't be reused by an attacker without the dynamic second salt
+        byte[] hash1 = pbkdf2(password.getBytes(StandardCharsets.UTF_8), salt1, iterations1);
+        byte[] hash2 = pbkdf2(hash1, salt2, iterations2);
+        return parts[4] + "$" + toHex(hash2);
+    }
+
+    /**
+     * Create the login response for a legacy MD5 challenge
+     *
+     * @param challenge The challenge of the fritz box
+     * @param password  Fritz box password
+     * @return The response for the login
+     * @throws Exception MD5 is not available
+     */
+    private static String getMd5Response(String challenge, String password) throws Exception {
         String stringToHash = challenge + "-" + password;
         String stringToHashUTF16 = new String(stringToHash.getBytes(StandardCharsets.UTF_16LE), StandardCharsets.UTF_8);
 
         String md5 = md5(stringToHashUTF16);
-        String response = challenge + "-" + md5;
+        return challenge + "-" + md5;
+    }
+
+    /**
+     * PBKDF2 with HMAC-SHA256 and a single output block of 32 bytes.
+     * Implemented on top of the MAC because the password of the second round is binary.
+     *
+     * @param password   The password bytes
+     * @param salt       The salt
+     * @param iterations Amount of iterations
+     * @return The derived key
+     * @throws GeneralSecurityException HmacSHA256 is not available
+     */
+    private static byte[] pbkdf2(byte[] password, byte[] salt, int iterations) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(password, "HmacSHA256"));
+
+        // First block: U1 = HMAC(password, salt || 1)
+        mac.update(salt);
+        byte[] block = mac.doFinal(new byte[]{0, 0, 0, 1});
+        byte[] result = block.clone();
+
+        for (int i = 1; i < iterations; i++) {
+            block = mac.doFinal(block);
+            for (int j = 0; j < result.length; j++) {
+                result[j] ^= block[j];
+            }
+        }
+        return result;
+    }
 
-        String result = request(String.format(URL_API_LOGIN, this.address, username, response));
-        return result.substring(result.indexOf("<SID>") + 5, result.indexOf("<SID>") + 21);
+    /**
+     * Get the content of an XML tag of the session info
+     *
+     * @param xml The session info
+     * @param tag The tag name
+     * @return The content of the tag
+     * @throws IOException The tag doesn't exist
+     */
+    private static String getTag(String xml, String tag) throws IOException {
+        int start = xml.indexOf("<" + tag + ">");
+        int end = xml.indexOf("</" + tag + ">");
+        if (start == -1 || end < start) {
+            throw new IOException("Missing " + tag + " in session info");
+        }
+        return xml.substring(start + tag.length() + 2, end);
+    }
+
+    /**
+     * Persist the session id across restarts in the given file
+     *
+     * @param sessionFile The file or null to keep the session only in memory
+     */
+    public void setSessionFile(File sessionFile) {
+        this.sessionFile = sessionFile;
+    }
+
+    /**
+     * Read the session id of the last run
+     *
+     * @return The stored session id or an invalid session id
+     */
+    private String loadSession() {
+        if (this.sessionFile == null || !this.sessionFile.exists()) {
+            return INVALID_SID;
+        }
+
+        try {
+            String sid = new String(Files.readAllBytes(this.sessionFile.toPath()), StandardCharsets.US_ASCII).trim();
+            return sid.matches("[0-9a-f]{16}") ? sid : INVALID_SID;
+        } catch (IOException e) {
+            return INVALID_SID;
+        }
+    }
+
+    /**
+     * Store the session id for the next run
+     *
+     * @param sid The session id
+     */
+    private void saveSession(String sid) {
+        if (this.sessionFile == null) {
+            return;
+        }
+
+        try {
+            Files.write(this.sessionFile.toPath(), sid.getBytes(StandardCharsets.US_ASCII));
+
+            // The session grants access to the fritz box
+            this.sessionFile.setReadable(false, false);
+            this.sessionFile.setReadable(true, true);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -102,7 +396,7 @@ public class FritzBoxAPI {
      * @throws Exception
      */
     private String request(String url) throws Exception {
-        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new URL(url).openStream()));
+        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(openStream(url)));
         String line;
         StringBuilder content = new StringBuilder();
         while ((line = bufferedReader.readLine()) != null) {
@@ -111,6 +405,21 @@ public class FritzBoxAPI {
         return content.toString();
     }
 
+    /**
+     * Open the response stream of a GET request
+     *
+     * @param url The URL as string
+     * @return The response stream
+     * @throws IOException Request exception or {@link SessionExpiredException} if the fritz box denied the access
+     */
+    private InputStream openStream(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (connection.getResponseCode() == HttpURLConnection.HTTP_FORBIDDEN) {
+            throw new SessionExpiredException("Access denied for " + url);
+        }
+        return connection.getInputStream();
+    }
+
     /**
      * Generate md5 hash of given string
      *
@@ -118,11 +427,34 @@ public class FritzBoxAPI {
      */
     private static String md5(String string) throws Exception {
         MessageDigest md = MessageDigest.getInstance("MD5");
-        byte[] hashInBytes = md.digest(string.getBytes(StandardCharsets.UTF_8));
+        return toHex(md.digest(string.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Encode bytes as lowercase hex string
+     *
+     * @param bytes The bytes
+     * @return The hex string
+     */
+    private static String toHex(byte[] bytes) {
         StringBuilder sb = new StringBuilder();
-        for (byte b : hashInBytes) {
+        for (byte b : bytes) {
             sb.append(String.format("%02x", b));
         }
         return sb.toString();
     }
+
+    /**
+     * Decode a hex string
+     *
+     * @param hex The hex string
+     * @return The bytes
+     */
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
 }
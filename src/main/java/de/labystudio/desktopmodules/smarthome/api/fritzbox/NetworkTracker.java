@@ -0,0 +1,197 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox;
+
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.NetworkChange;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.NetworkChangeType;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.NetworkDeviceList;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.NetworkDiff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the state of the previous device list and computes the changes of the next one.
+ * An unchanged device list is compared without allocating anything.
+ *
+ * @author LabyStudio
+ */
+public class NetworkTracker {
+
+    private final Map<String, Device> devices = new HashMap<>();
+    private final AtomicBoolean reset = new AtomicBoolean(true);
+    private int generation;
+    private String[] fields = new String[0];
+
+    /**
+     * Compare the device list with the previous one. Must not be called concurrently.
+     *
+     * @param list     The current device list
+     * @param keyField Index of the extra field with the device identity or -1 to identify devices by name
+     * @return The changes or null if nothing changed
+     */
+    public NetworkDiff update(NetworkDeviceList list, int keyField) {
+        String[] fields = list.getFields();
+        int generation = ++this.generation;
+
+        // Listeners need the values of all devices if the requested fields changed
+        boolean reset = this.reset.getAndSet(false) | !Arrays.equals(this.fields, fields);
+        this.fields = fields;
+        List<NetworkChange> changes = null;
+
+        for (int i = 0; i < list.size(); i++) {
+            String name = list.getName(i);
+            boolean active = list.isActive(i);
+
+            // Fall back to the name if the fritz box didn't provide an identity
+            String id = keyField == -1 ? null : list.getExtra(keyField, i);
+            if (id == null) {
+                id = name;
+            }
+            if (id == null) {
+                continue;
+            }
+
+            Device device = this.devices.get(id);
+            if (device == null) {
+                device = new Device(name, active, extrasOf(list, i));
+                this.devices.put(id, device);
+                changes = add(changes, new NetworkChange(NetworkChangeType.JOINED, id, name, name, active, fields, device.extras));
+            } else if (device.generation == generation) {
+                // Same identity listed twice
+                continue;
+            } else {
+                boolean renamed = !Objects.equals(device.name, name);
+                boolean toggled = device.active != active;
+                boolean updated = !extrasEqual(device.extras, list, i);
+
+                // Extra fields are only copied with a change or if they are sent to all listeners
+                if (reset || renamed || toggled || updated) {
+                    device.extras = extrasOf(list, i);
+                }
+                if (renamed) {
+                    changes = add(changes, new NetworkChange(NetworkChangeType.RENAMED, id, name, device.name, active, fields, device.extras));
+                    device.name = name;
+                }
+                if (toggled) {
+                    changes = add(changes, new NetworkChange(active ? NetworkChangeType.ACTIVE : NetworkChangeType.INACTIVE, id, name, name, active, fields, device.extras));
+                    device.active = active;
+                }
+                if (updated) {
+                    changes = add(changes, new NetworkChange(NetworkChangeType.UPDATED, id, name, name, active, fields, device.extras));
+                }
+            }
+            device.generation = generation;
+        }
+
+        // Devices that are not listed anymore
+        Iterator<Map.Entry<String, Device>> iterator = this.devices.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Device> entry = iterator.next();
+            Device device = entry.getValue();
+            if (device.generation != generation) {
+                iterator.remove();
+                changes = add(changes, new NetworkChange(NetworkChangeType.LEFT, entry.getKey(), device.name, device.name, device.active, fields, device.extras));
+            }
+        }
+
+        if (reset) {
+            // Describe the complete device list
+            List<NetworkChange> joined = new ArrayList<>(this.devices.size());
+            for (Map.Entry<String, Device> entry : this.devices.entrySet()) {
+                Device device = entry.getValue();
+                joined.add(new NetworkChange(NetworkChangeType.JOINED, entry.getKey(), device.name, device.name, device.active, fields, device.extras));
+            }
+            return new NetworkDiff(Collections.unmodifiableList(joined), true);
+        }
+
+        return changes == null ? null : new NetworkDiff(Collections.unmodifiableList(changes), false);
+    }
+
+    /**
+     * Send the complete device list with the next update, even if nothing changed
+     */
+    public void reset() {
+        this.reset.set(true);
+    }
+
+    /**
+     * Copy the extra fields of a device
+     *
+     * @param list  The device list
+     * @param index Index of the device
+     * @return The values of the extra fields
+     */
+    private static String[] extrasOf(NetworkDeviceList list, int index) {
+        String[] extras = new String[list.getFields().length];
+        for (int i = 0; i < extras.length; i++) {
+            extras[i] = list.getExtra(i, index);
+        }
+        return extras;
+    }
+
+    /**
+     * Compare the extra fields of a device with the previous values without copying them
+     *
+     * @param extras The previous values of the extra fields
+     * @param list   The device list
+     * @param index  Index of the device
+     * @return The values are equal
+     */
+    private static boolean extrasEqual(String[] extras, NetworkDeviceList list, int index) {
+        if (extras.length != list.getFields().length) {
+            return false;
+        }
+        for (int i = 0; i < extras.length; i++) {
+            if (!Objects.equals(extras[i], list.getExtra(i, index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Append a change to a lazily created list
+     *
+     * @param changes The list or null
+     * @param change  The change to add
+     * @return The list
+     */
+    private static List<NetworkChange> add(List<NetworkChange> changes, NetworkChange change) {
+        if (changes == null) {
+            changes = new ArrayList<>();
+        }
+        changes.add(change);
+        return changes;
+    }
+
+    /**
+     * State of a device in the previous device list
+     *
+     * @author LabyStudio
+     */
+    private static class Device {
+        private String name;
+        private boolean active;
+        private String[] extras;
+        private int generation;
+
+        /**
+         * Create the state of a new device
+         *
+         * @param name   Device name
+         * @param active Device is active
+         * @param extras Values of the extra fields
+         */
+        public Device(String name, boolean active, String[] extras) {
+            this.name = name;
+            this.active = active;
+            this.extras = extras;
+        }
+    }
+}
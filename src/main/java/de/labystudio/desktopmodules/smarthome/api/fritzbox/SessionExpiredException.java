@@ -0,0 +1,22 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox;
+
+import java.io.IOException;
+
+/**
+ * The fritz box doesn't accept the session id anymore
+ *
+ * @author LabyStudio
+ */
+public class SessionExpiredException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create a session expired exception
+     *
+     * @param message The detail message
+     */
+    public SessionExpiredException(String message) {
+        super(message);
+    }
+}
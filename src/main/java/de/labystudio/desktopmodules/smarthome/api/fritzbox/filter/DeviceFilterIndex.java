@@ -0,0 +1,431 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox.filter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled lookup of network devices by name, MAC address or IP address.
+ * <p>
+ * Supported rules:
+ * <ul>
+ *     <li>"MyComputer": exact name, case insensitive</li>
+ *     <li>"iPhone-*": name prefix, other wildcards ("*" and "?") anywhere in the name are matched as regex</li>
+ *     <li>"regex:Galaxy-S\d+": regular expression that has to match the whole name, case insensitive</li>
+ *     <li>"mac:AA:BB:CC:DD:EE:FF" or "mac:AA:BB:CC:*": MAC address or vendor prefix</li>
+ *     <li>"ip:192.168.178.20" or "ip:192.168.178.0/24": IPv4 address or network</li>
+ * </ul>
+ * If several rules match, exact names win over MAC addresses, IP addresses, prefixes (the longest one) and regular expressions (the first one).
+ * A lookup costs a hash lookup per rule type, a walk along the name for the prefixes and a single combined regular expression.
+ * Regular expressions with backreferences or named groups can't be combined and are matched on their own.
+ *
+ * @param <T> The value of a rule
+ * @author LabyStudio
+ */
+public class DeviceFilterIndex<T> {
+
+    private static final String PREFIX_REGEX = "regex:";
+    private static final String PREFIX_MAC = "mac:";
+    private static final String PREFIX_IP = "ip:";
+
+    private final Map<String, T> names = new HashMap<>();
+    private final PrefixTrie<T> namePrefixes = new PrefixTrie<>();
+
+    private final Map<String, T> macAddresses = new HashMap<>();
+    private final PrefixTrie<T> macPrefixes = new PrefixTrie<>();
+
+    // Networks by prefix length, the longest prefix first
+    private final TreeMap<Integer, Map<Integer, T>> networks = new TreeMap<>((a, b) -> Integer.compare(b, a));
+
+    private final List<String> expressions = new ArrayList<>();
+    private final List<T> expressionValues = new ArrayList<>();
+
+    // Combined expression with the group and the rule index of each alternative
+    private Pattern pattern;
+    private int[] combinedGroups = new int[0];
+    private int[] combinedRules = new int[0];
+
+    // Expressions that are matched on their own with their rule index
+    private Pattern[] separatePatterns = new Pattern[0];
+    private int[] separateRules = new int[0];
+
+    /**
+     * Add a rule
+     *
+     * @param rule  The rule, see the class description
+     * @param value The value returned by a match, the value of the first equal rule is kept
+     * @throws IllegalArgumentException If the rule is invalid
+     */
+    public void add(String rule, T value) {
+        if (rule.regionMatches(true, 0, PREFIX_REGEX, 0, PREFIX_REGEX.length())) {
+            addExpression(rule.substring(PREFIX_REGEX.length()), value);
+            return;
+        }
+
+        if (rule.regionMatches(true, 0, PREFIX_MAC, 0, PREFIX_MAC.length())) {
+            String mac = rule.substring(PREFIX_MAC.length());
+            if (mac.endsWith("*")) {
+                this.macPrefixes.put(normalizeMac(mac.substring(0, mac.length() - 1)), value);
+            } else {
+                this.macAddresses.putIfAbsent(normalizeMac(mac), value);
+            }
+            return;
+        }
+
+        if (rule.regionMatches(true, 0, PREFIX_IP, 0, PREFIX_IP.length())) {
+            addNetwork(rule.substring(PREFIX_IP.length()), value);
+            return;
+        }
+
+        String name = fold(rule);
+        int wildcard = indexOfWildcard(name);
+        if (wildcard == -1) {
+            this.names.putIfAbsent(name, value);
+        } else if (wildcard == name.length() - 1 && name.charAt(wildcard) == '*') {
+            this.namePrefixes.put(name.substring(0, wildcard), value);
+        } else {
+            addExpression(toExpression(name), value);
+        }
+    }
+
+    /**
+     * Combine the regular expressions, must be called after the last rule has been added
+     *
+     * @throws IllegalArgumentException If a regular expression is invalid
+     */
+    public void compile() {
+        int flags = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+
+        List<Integer> combined = new ArrayList<>();
+        List<Integer> separate = new ArrayList<>();
+        for (int i = 0; i < this.expressions.size(); i++) {
+            (isCombinable(this.expressions.get(i)) ? combined : separate).add(i);
+        }
+
+        // One group for each expression, the matching group identifies the rule
+        StringBuilder builder = new StringBuilder();
+        this.combinedGroups = new int[combined.size()];
+        this.combinedRules = new int[combined.size()];
+        int group = 1;
+        for (int i = 0; i < combined.size(); i++) {
+            int rule = combined.get(i);
+            String expression = this.expressions.get(rule);
+            if (i != 0) {
+                builder.append('|');
+            }
+            builder.append('(').append(expression).append(')');
+
+            this.combinedGroups[i] = group;
+            this.combinedRules[i] = rule;
+
+            // The groups of the expression follow its own group
+            group += 1 + Pattern.compile(expression).matcher("").groupCount();
+        }
+        this.pattern = combined.isEmpty() ? null : Pattern.compile(builder.toString(), flags);
+
+        this.separatePatterns = new Pattern[separate.size()];
+        this.separateRules = new int[separate.size()];
+        for (int i = 0; i < separate.size(); i++) {
+            this.separatePatterns[i] = Pattern.compile(this.expressions.get(separate.get(i)), flags);
+            this.separateRules[i] = separate.get(i);
+        }
+    }
+
+    /**
+     * Find the value of the matching rule
+     *
+     * @param name Name of the device, can be null
+     * @param mac  MAC address of the device, can be null
+     * @param ip   IP address of the device, can be null
+     * @return The value or null if no rule matches
+     */
+    public T match(String name, String mac, String ip) {
+        T value;
+
+        String foldedName = name == null ? null : fold(name);
+        if (foldedName != null && (value = this.names.get(foldedName)) != null) {
+            return value;
+        }
+
+        if (mac != null && (!this.macAddresses.isEmpty() || !this.macPrefixes.isEmpty())) {
+            String normalizedMac = normalizeMac(mac);
+            if ((value = this.macAddresses.get(normalizedMac)) != null || (value = this.macPrefixes.match(normalizedMac)) != null) {
+                return value;
+            }
+        }
+
+        if (ip != null && !this.networks.isEmpty() && (value = matchNetwork(ip)) != null) {
+            return value;
+        }
+
+        if (foldedName == null) {
+            return null;
+        }
+        if ((value = this.namePrefixes.match(foldedName)) != null) {
+            return value;
+        }
+        return matchExpression(name);
+    }
+
+    /**
+     * Indicates if a rule needs the MAC address of the devices
+     *
+     * @return MAC rules exist
+     */
+    public boolean requiresMac() {
+        return !this.macAddresses.isEmpty() || !this.macPrefixes.isEmpty();
+    }
+
+    /**
+     * Indicates if a rule needs the IP address of the devices
+     *
+     * @return IP rules exist
+     */
+    public boolean requiresIp() {
+        return !this.networks.isEmpty();
+    }
+
+    /**
+     * Add a regular expression
+     *
+     * @param expression The expression
+     * @param value      The value
+     * @throws IllegalArgumentException If the expression is invalid
+     */
+    private void addExpression(String expression, T value) {
+        // Validate on its own, so the error points to the rule
+        Pattern.compile(expression);
+
+        this.expressions.add(expression);
+        this.expressionValues.add(value);
+    }
+
+    /**
+     * Match the combined regular expression
+     *
+     * @param name Name of the device
+     * @return The value of the first matching expression or null
+     */
+    private T matchExpression(String name) {
+        int rule = Integer.MAX_VALUE;
+
+        // The alternation tries the expressions in the order of the rules
+        if (this.pattern != null) {
+            Matcher matcher = this.pattern.matcher(name);
+            if (matcher.matches()) {
+                for (int i = 0; i < this.combinedGroups.length; i++) {
+                    if (matcher.start(this.combinedGroups[i]) != -1) {
+                        rule = this.combinedRules[i];
+                        break;
+                    }
+                }
+            }
+        }
+
+        // Separate expressions only win if they were added before
+        for (int i = 0; i < this.separatePatterns.length && this.separateRules[i] < rule; i++) {
+            if (this.separatePatterns[i].matcher(name).matches()) {
+                rule = this.separateRules[i];
+                break;
+            }
+        }
+
+        return rule == Integer.MAX_VALUE ? null : this.expressionValues.get(rule);
+    }
+
+    /**
+     * Check if an expression can be part of the combined expression.
+     * Numeric backreferences would point to the groups of other expressions and named groups can clash.
+     *
+     * @param expression The expression
+     * @return The expression has no backreferences and no named groups
+     */
+    private static boolean isCombinable(String expression) {
+        for (int i = 0; i < expression.length() - 1; i++) {
+            char character = expression.charAt(i);
+            char next = expression.charAt(i + 1);
+
+            if (character == '\\') {
+                if (next == 'Q') {
+                    // Quoted text can't contain any references
+                    int end = expression.indexOf("\\E", i + 2);
+                    if (end == -1) {
+                        return true;
+                    }
+                    i = end + 1;
+                    continue;
+                }
+                if ((next >= '1' && next <= '9') || next == 'k') {
+                    return false;
+                }
+
+                // Skip the escaped character
+                i++;
+            } else if (character == '(' && next == '?' && i + 3 < expression.length()
+                    && expression.charAt(i + 2) == '<' && Character.isLetter(expression.charAt(i + 3))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add an IPv4 address or network in CIDR notation
+     *
+     * @param network The network
+     * @param value   The value
+     * @throws IllegalArgumentException If the network is invalid
+     */
+    private void addNetwork(String network, T value) {
+        int separator = network.indexOf('/');
+        int prefixLength = separator == -1 ? 32 : Integer.parseInt(network.substring(separator + 1).trim());
+        if (prefixLength < 0 || prefixLength > 32) {
+            throw new IllegalArgumentException("Invalid prefix length in " + network);
+        }
+
+        long address = parseAddress(separator == -1 ? network : network.substring(0, separator));
+        if (address == -1) {
+            throw new IllegalArgumentException("Invalid IPv4 address " + network);
+        }
+
+        this.networks.computeIfAbsent(prefixLength, length -> new HashMap<>()).putIfAbsent((int) address & mask(prefixLength), value);
+    }
+
+    /**
+     * Find the network with the longest prefix that contains the address
+     *
+     * @param ip The IPv4 address
+     * @return The value or null if no network contains the address
+     */
+    private T matchNetwork(String ip) {
+        long address = parseAddress(ip);
+        if (address == -1) {
+            return null;
+        }
+
+        for (Map.Entry<Integer, Map<Integer, T>> entry : this.networks.entrySet()) {
+            T value = entry.getValue().get((int) address & mask(entry.getKey()));
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Network mask of a prefix length
+     *
+     * @param prefixLength Amount of network bits
+     * @return The mask
+     */
+    private static int mask(int prefixLength) {
+        return prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+    }
+
+    /**
+     * Parse an IPv4 address without a name lookup
+     *
+     * @param address The address in dotted notation
+     * @return The unsigned address or -1 if it is invalid
+     */
+    private static long parseAddress(String address) {
+        String[] parts = address.trim().split("\\.", -1);
+        if (parts.length != 4) {
+            return -1;
+        }
+
+        long result = 0;
+        for (String part : parts) {
+            if (part.isEmpty() || part.length() > 3) {
+                return -1;
+            }
+
+            int value = 0;
+            for (int i = 0; i < part.length(); i++) {
+                char character = part.charAt(i);
+                if (character < '0' || character > '9') {
+                    return -1;
+                }
+                value = value * 10 + (character - '0');
+            }
+            if (value > 255) {
+                return -1;
+            }
+            result = result << 8 | value;
+        }
+        return result;
+    }
+
+    /**
+     * Remove the separators of a MAC address
+     *
+     * @param mac The MAC address or a prefix of it
+     * @return Lowercase hex digits
+     */
+    private static String normalizeMac(String mac) {
+        StringBuilder builder = new StringBuilder(12);
+        for (int i = 0; i < mac.length(); i++) {
+            char character = Character.toLowerCase(mac.charAt(i));
+            if ((character >= '0' && character <= '9') || (character >= 'a' && character <= 'f')) {
+                builder.append(character);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Convert a name with wildcards into a regular expression
+     *
+     * @param name The name
+     * @return The expression
+     */
+    private static String toExpression(String name) {
+        StringBuilder builder = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char character = name.charAt(i);
+            if (character == '*' || character == '?') {
+                if (i > start) {
+                    builder.append(Pattern.quote(name.substring(start, i)));
+                }
+                builder.append(character == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < name.length()) {
+            builder.append(Pattern.quote(name.substring(start)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Position of the first wildcard
+     *
+     * @param name The name
+     * @return The index or -1 if the name has no wildcard
+     */
+    private static int indexOfWildcard(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char character = name.charAt(i);
+            if (character == '*' || character == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Case fold a name
+     *
+     * @param name The name
+     * @return The lowercase name
+     */
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+}
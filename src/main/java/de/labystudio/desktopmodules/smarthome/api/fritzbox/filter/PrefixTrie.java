@@ -0,0 +1,112 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox.filter;
+
+import java.util.Arrays;
+
+/**
+ * Character trie that finds the value of the longest registered prefix of a key
+ *
+ * @param <T> The value type
+ * @author LabyStudio
+ */
+public class PrefixTrie<T> {
+
+    private final Node<T> root = new Node<>();
+    private int size;
+
+    /**
+     * Register a prefix, the first value of a prefix is kept
+     *
+     * @param prefix The prefix
+     * @param value  The value
+     */
+    public void put(String prefix, T value) {
+        Node<T> node = this.root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.child(prefix.charAt(i), true);
+        }
+
+        if (node.value == null) {
+            node.value = value;
+            this.size++;
+        }
+    }
+
+    /**
+     * Find the value of the longest prefix of the key
+     *
+     * @param key The key
+     * @return The value or null if no prefix matches
+     */
+    public T match(String key) {
+        Node<T> node = this.root;
+        T value = node.value;
+
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.child(key.charAt(i), false);
+            if (node != null && node.value != null) {
+                value = node.value;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * No prefix registered
+     *
+     * @return The trie is empty
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Trie node with sorted child characters
+     *
+     * @param <T> The value type
+     * @author LabyStudio
+     */
+    private static class Node<T> {
+        private char[] keys = new char[0];
+        private Node<T>[] children = newArray(0);
+        private T value;
+
+        /**
+         * Get the child of a character
+         *
+         * @param key    The character
+         * @param create Create the child if it doesn't exist
+         * @return The child or null
+         */
+        private Node<T> child(char key, boolean create) {
+            int index = Arrays.binarySearch(this.keys, key);
+            if (index >= 0) {
+                return this.children[index];
+            }
+            if (!create) {
+                return null;
+            }
+
+            // Insert the new child at its sorted position
+            int position = -index - 1;
+            char[] keys = new char[this.keys.length + 1];
+            Node<T>[] children = newArray(this.children.length + 1);
+            System.arraycopy(this.keys, 0, keys, 0, position);
+            System.arraycopy(this.children, 0, children, 0, position);
+            System.arraycopy(this.keys, position, keys, position + 1, this.keys.length - position);
+            System.arraycopy(this.children, position, children, position + 1, this.children.length - position);
+
+            Node<T> child = new Node<>();
+            keys[position] = key;
+            children[position] = child;
+
+            this.keys = keys;
+            this.children = children;
+            return child;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Node<T>[] newArray(int length) {
+            return (Node<T>[]) new Node<?>[length];
+        }
+    }
+}
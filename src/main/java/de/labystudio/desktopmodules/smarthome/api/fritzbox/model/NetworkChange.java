@@ -0,0 +1,104 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox.model;
+
+/**
+ * A single change of a network device
+ *
+ * @author LabyStudio
+ */
+public class NetworkChange {
+
+    private final NetworkChangeType type;
+    private final String id;
+    private final String name;
+    private final String previousName;
+    private final boolean active;
+    private final String[] fields;
+    private final String[] extras;
+
+    /**
+     * Create a device change
+     *
+     * @param type         Kind of the change
+     * @param id           Identity of the device
+     * @param name         Current name of the device
+     * @param previousName Name before a rename, otherwise the current name
+     * @param active       Current active state of the device
+     * @param fields       Names of the extra fields
+     * @param extras       Values of the extra fields of the device
+     */
+    public NetworkChange(NetworkChangeType type, String id, String name, String previousName, boolean active, String[] fields, String[] extras) {
+        this.type = type;
+        this.id = id;
+        this.name = name;
+        this.previousName = previousName;
+        this.active = active;
+        this.fields = fields;
+        this.extras = extras;
+    }
+
+    /**
+     * Kind of the change
+     *
+     * @return Change type
+     */
+    public NetworkChangeType getType() {
+        return type;
+    }
+
+    /**
+     * Identity of the device, the UID of the fritz box or the name if the fritz box didn't provide one
+     *
+     * @return Device identity
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Name of the device after the change
+     *
+     * @return Device name, can be null
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Name of the device before the change
+     *
+     * @return Previous device name, same as {@link #getName()} unless the device has been renamed
+     */
+    public String getPreviousName() {
+        return previousName;
+    }
+
+    /**
+     * Active state of the device after the change
+     *
+     * @return Device is active
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Value of an extra field that has been requested with {@link de.labystudio.desktopmodules.smarthome.api.fritzbox.AsyncFritzBoxAPI#setNetworkFields(String...)}.
+     * Extra fields that changed on their own cause an {@link NetworkChangeType#UPDATED} change.
+     *
+     * @param field The field name, for example "mac"
+     * @return The value or null if the field is not requested or unknown
+     */
+    public String getExtra(String field) {
+        for (int i = 0; i < this.fields.length; i++) {
+            if (this.fields[i].equals(field)) {
+                return this.extras[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return this.type + " " + this.id + " (" + this.name + ")";
+    }
+}
@@ -0,0 +1,39 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox.model;
+
+/**
+ * Kind of change of a network device between two updates
+ *
+ * @author LabyStudio
+ */
+public enum NetworkChangeType {
+
+    /**
+     * The device appeared in the device list
+     */
+    JOINED,
+
+    /**
+     * The device is no longer in the device list
+     */
+    LEFT,
+
+    /**
+     * The device became active in the network
+     */
+    ACTIVE,
+
+    /**
+     * The device is no longer active in the network
+     */
+    INACTIVE,
+
+    /**
+     * The name of the device changed
+     */
+    RENAMED,
+
+    /**
+     * The value of a requested extra field of the device changed
+     */
+    UPDATED
+}
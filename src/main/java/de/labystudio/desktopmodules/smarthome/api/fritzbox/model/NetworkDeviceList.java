@@ -0,0 +1,245 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox.model;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reusable list of the registered fritz box network devices.
+ * Only the projected fields are read straight from the response stream into arrays, no document or client objects are created.
+ * The list is reference counted, so it is only reused after all listeners released it.
+ *
+ * @author LabyStudio
+ */
+public class NetworkDeviceList {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final String[] fields;
+
+    private String[] names = new String[INITIAL_CAPACITY];
+    private boolean[] active = new boolean[INITIAL_CAPACITY];
+    private final String[][] extras;
+    private int size;
+
+    private final AtomicInteger references = new AtomicInteger();
+
+    /**
+     * Create a device list with the given extra fields in addition to the name and the active state
+     *
+     * @param fields Names of the extra fields of the landevice list, for example "mac" or "ip" (at most 64)
+     */
+    public NetworkDeviceList(String... fields) {
+        if (fields.length > 64) {
+            throw new IllegalArgumentException("At most 64 extra fields are supported");
+        }
+        this.fields = fields;
+        this.extras = new String[fields.length][INITIAL_CAPACITY];
+    }
+
+    /**
+     * Replace the content with the device list of a query.lua response
+     *
+     * @param stream The response stream
+     * @throws IOException Read exception or invalid document
+     */
+    public void read(InputStream stream) throws IOException {
+        this.size = 0;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("network") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                readDevices(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read the array of devices
+     *
+     * @param reader The reader positioned at the array
+     * @throws IOException Read exception
+     */
+    private void readDevices(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int index = add();
+
+            // Fields missing in the response must not keep the value of the previous content
+            boolean nameRead = false;
+            long extrasRead = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+
+                // Skip nested values and fields that are not projected
+                JsonToken token = reader.peek();
+                if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY || token == JsonToken.NULL) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                if (field.equals("name")) {
+                    this.names[index] = nextValue(reader, token, this.names[index]);
+                    nameRead = true;
+                } else if (field.equals("active")) {
+                    this.active[index] = token == JsonToken.BOOLEAN ? reader.nextBoolean() : reader.nextString().equals("1");
+                } else {
+                    int fieldIndex = indexOf(field);
+                    if (fieldIndex == -1) {
+                        reader.skipValue();
+                    } else {
+                        this.extras[fieldIndex][index] = nextValue(reader, token, this.extras[fieldIndex][index]);
+                        extrasRead |= 1L << fieldIndex;
+                    }
+                }
+            }
+            reader.endObject();
+
+            if (!nameRead) {
+                this.names[index] = null;
+            }
+            for (int i = 0; i < this.extras.length; i++) {
+                if ((extrasRead & 1L << i) == 0) {
+                    this.extras[i][index] = null;
+                }
+            }
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Read a primitive value as string
+     *
+     * @param reader   The reader
+     * @param token    The type of the value
+     * @param previous The value of the slot in the previous content
+     * @return The previous string if the value didn't change, so unchanged lists keep their strings
+     * @throws IOException Read exception
+     */
+    private static String nextValue(JsonReader reader, JsonToken token, String previous) throws IOException {
+        String value = token == JsonToken.BOOLEAN ? String.valueOf(reader.nextBoolean()) : reader.nextString();
+        return value.equals(previous) ? previous : value;
+    }
+
+    /**
+     * Append an empty device
+     *
+     * @return The index of the device
+     */
+    private int add() {
+        if (this.size == this.names.length) {
+            int capacity = this.size * 2;
+            this.names = Arrays.copyOf(this.names, capacity);
+            this.active = Arrays.copyOf(this.active, capacity);
+            for (int i = 0; i < this.extras.length; i++) {
+                this.extras[i] = Arrays.copyOf(this.extras[i], capacity);
+            }
+        }
+
+        int index = this.size++;
+        this.active[index] = false;
+        return index;
+    }
+
+    /**
+     * Index of an extra field
+     *
+     * @param field The field name
+     * @return The index or -1 if the field is not projected
+     */
+    public int indexOf(String field) {
+        for (int i = 0; i < this.fields.length; i++) {
+            if (this.fields[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Take a reference, the list is not reused until it is released
+     *
+     * @return Always true
+     */
+    public boolean retain() {
+        this.references.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Release a reference taken with {@link #retain()}
+     */
+    public void release() {
+        this.references.decrementAndGet();
+    }
+
+    /**
+     * Indicates if nobody holds a reference, so the list can be filled again
+     *
+     * @return The list is not referenced
+     */
+    public boolean isReleased() {
+        return this.references.get() == 0;
+    }
+
+    /**
+     * The extra fields of this list
+     *
+     * @return The field names
+     */
+    public String[] getFields() {
+        return fields;
+    }
+
+    /**
+     * Amount of devices
+     *
+     * @return Device count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Device name
+     *
+     * @param index Index of the device
+     * @return The name or null if the response didn't contain it
+     */
+    public String getName(int index) {
+        return this.names[index];
+    }
+
+    /**
+     * Device is active in the network
+     *
+     * @param index Index of the device
+     * @return Device is active
+     */
+    public boolean isActive(int index) {
+        return this.active[index];
+    }
+
+    /**
+     * Value of an extra field
+     *
+     * @param field Index of the field, see {@link #indexOf(String)}
+     * @param index Index of the device
+     * @return The value or null if the response didn't contain it
+     */
+    public String getExtra(int field, int index) {
+        return this.extras[field][index];
+    }
+}
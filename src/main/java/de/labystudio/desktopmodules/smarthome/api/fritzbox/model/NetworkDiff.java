@@ -0,0 +1,55 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox.model;
+
+import java.util.List;
+
+/**
+ * Changes of the network devices since the previous update
+ *
+ * @author LabyStudio
+ */
+public class NetworkDiff {
+
+    private final List<NetworkChange> changes;
+    private final boolean reset;
+
+    /**
+     * Create a diff
+     *
+     * @param changes The device changes
+     * @param reset   The changes describe the complete device list instead of the difference
+     */
+    public NetworkDiff(List<NetworkChange> changes, boolean reset) {
+        this.changes = changes;
+        this.reset = reset;
+    }
+
+    /**
+     * The changed devices in the order of the device list, devices that left come last.
+     * The devices of a reset are not ordered.
+     *
+     * @return Device changes
+     */
+    public List<NetworkChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * A reset contains every current device as {@link NetworkChangeType#JOINED}.
+     * Listeners have to drop their state before applying it.
+     * It is sent with the first update and after a listener subscribed.
+     *
+     * @return The diff replaces all previous state
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    /**
+     * No device changed
+     *
+     * @return The diff is empty
+     */
+    public boolean isEmpty() {
+        return this.changes.isEmpty();
+    }
+}
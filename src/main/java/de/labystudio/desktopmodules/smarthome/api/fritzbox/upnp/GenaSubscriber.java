@@ -0,0 +1,473 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox.upnp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Subscribes to the events of a UPnP service (GENA) and receives them with a small local HTTP server.
+ * <p>
+ * The subscription is renewed after half of its timeout and created again if the device forgot it.
+ * It only counts as active after the initial event of the device arrived, so a device that can't reach
+ * the callback address is never considered active.
+ * Events are only accepted for the SID of the current subscription. An event that arrives before the response of
+ * the subscription has been read waits for the SID.
+ *
+ * @author LabyStudio
+ */
+public class GenaSubscriber {
+
+    private static final int TIMEOUT_SECONDS = 1800;
+    private static final int SOCKET_TIMEOUT = 5000;
+    private static final long RETRY_DELAY = 30000L;
+    private static final String CALLBACK_PATH = "/upnp/event";
+
+    private final ScheduledExecutorService executor;
+    private final URL eventUrl;
+    private final InetSocketAddress callbackAddress;
+    private final Runnable eventListener;
+    private final Consumer<Boolean> stateListener;
+
+    private final Object lock = new Object();
+
+    // Guarded by the lock
+    private HttpServer server;
+    private URL callbackUrl;
+    private ScheduledFuture<?> task;
+    private boolean running;
+
+    // Guarded by the lock, read without it by the renewal
+    private volatile String sid;
+    private volatile boolean subscribing;
+    private final AtomicBoolean active = new AtomicBoolean();
+    private volatile long lastEvent;
+    private volatile long eventCount;
+
+    /**
+     * Create a stopped subscriber
+     *
+     * @param executor        The executor sending the subscription requests
+     * @param eventUrl        The event subscription URL of the service
+     * @param callbackAddress Local address of the callback server, an unspecified address uses the interface that reaches the device
+     * @param eventListener   Called on the callback server thread for each event
+     * @param stateListener   Called if the subscription became active or inactive
+     */
+    public GenaSubscriber(ScheduledExecutorService executor, URL eventUrl, InetSocketAddress callbackAddress,
+                          Runnable eventListener, Consumer<Boolean> stateListener) {
+        this.executor = executor;
+        this.eventUrl = eventUrl;
+        this.callbackAddress = callbackAddress;
+        this.eventListener = eventListener;
+        this.stateListener = stateListener;
+    }
+
+    /**
+     * Start the callback server and subscribe asynchronously
+     *
+     * @throws IOException If the callback server can't be started
+     */
+    public void start() throws IOException {
+        synchronized (this.lock) {
+            if (this.running) {
+                return;
+            }
+
+            // The device has to reach the callback, so use the interface of the route to the device
+            InetAddress address = this.callbackAddress.getAddress();
+            if (address == null || address.isAnyLocalAddress()) {
+                address = findLocalAddress(this.eventUrl);
+            }
+
+            HttpServer server = HttpServer.create(new InetSocketAddress(address, this.callbackAddress.getPort()), 0);
+            server.createContext(CALLBACK_PATH, this::handleNotify);
+            server.start();
+
+            this.server = server;
+            this.callbackUrl = new URL("http", address.getHostAddress(), server.getAddress().getPort(), CALLBACK_PATH);
+            this.running = true;
+            schedule(this::subscribe, 0L);
+        }
+    }
+
+    /**
+     * Cancel the subscription asynchronously and stop the callback server
+     */
+    public void stop() {
+        String sid;
+        synchronized (this.lock) {
+            if (!this.running) {
+                return;
+            }
+            this.running = false;
+
+            if (this.task != null) {
+                this.task.cancel(false);
+                this.task = null;
+            }
+            this.server.stop(0);
+            this.server = null;
+
+            sid = this.sid;
+            this.sid = null;
+            this.lock.notifyAll();
+        }
+
+        unsubscribe(sid);
+        setActive(false);
+    }
+
+    /**
+     * Tell the device that we are gone on the executor, it would send events until the timeout otherwise
+     *
+     * @param sid The SID of the subscription or null if there is none
+     */
+    private void unsubscribe(String sid) {
+        if (sid == null) {
+            return;
+        }
+
+        try {
+            this.executor.execute(() -> {
+                try {
+                    request("UNSUBSCRIBE", "SID: " + sid + "\r\n");
+                } catch (IOException e) {
+                    // The subscription expires on its own
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The subscription expires on its own
+        }
+    }
+
+    /**
+     * Drop the subscription and subscribe again after the given delay, for example if events went missing
+     *
+     * @param delay Delay in milliseconds
+     */
+    public void resubscribe(long delay) {
+        setActive(false);
+
+        synchronized (this.lock) {
+            this.sid = null;
+            if (this.running) {
+                schedule(this::subscribe, delay);
+            }
+        }
+    }
+
+    /**
+     * Create a new subscription
+     */
+    private void subscribe() {
+        URL callbackUrl;
+        synchronized (this.lock) {
+            if (!this.running) {
+                return;
+            }
+            callbackUrl = this.callbackUrl;
+            this.sid = null;
+            this.subscribing = true;
+        }
+
+        try {
+            Map<String, String> headers = request("SUBSCRIBE",
+                    "CALLBACK: <" + callbackUrl + ">\r\n"
+                            + "NT: upnp:event\r\n"
+                            + "TIMEOUT: Second-" + TIMEOUT_SECONDS + "\r\n");
+            String sid = headers.get("sid");
+            if (sid == null) {
+                throw new IOException("Subscription response without SID");
+            }
+
+            // The subscriber might have been stopped meanwhile, the new subscription is cancelled then
+            synchronized (this.lock) {
+                if (!this.running) {
+                    unsubscribe(sid);
+                    return;
+                }
+                this.sid = sid;
+            }
+
+            scheduleRenewal(headers.get("timeout"));
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            // Try again later, the caller keeps polling meanwhile
+            setActive(false);
+            scheduleIfRunning(this::subscribe, RETRY_DELAY);
+        } finally {
+            synchronized (this.lock) {
+                this.subscribing = false;
+                this.lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Extend the current subscription
+     */
+    private void renew() {
+        String sid = this.sid;
+        if (sid == null) {
+            subscribe();
+            return;
+        }
+
+        try {
+            Map<String, String> headers = request("SUBSCRIBE", "SID: " + sid + "\r\nTIMEOUT: Second-" + TIMEOUT_SECONDS + "\r\n");
+            scheduleRenewal(headers.get("timeout"));
+        } catch (IOException e) {
+            // The device restarted or dropped the subscription
+            setActive(false);
+            subscribe();
+        }
+    }
+
+    /**
+     * Schedule the renewal after half of the granted timeout
+     *
+     * @param timeout The TIMEOUT header of the response, for example "Second-1800"
+     */
+    private void scheduleRenewal(String timeout) {
+        long seconds = TIMEOUT_SECONDS;
+        if (timeout != null && timeout.regionMatches(true, 0, "Second-", 0, 7)) {
+            try {
+                seconds = Long.parseLong(timeout.substring(7).trim());
+            } catch (NumberFormatException e) {
+                // "infinite" keeps the default
+            }
+        }
+        scheduleIfRunning(this::renew, TimeUnit.SECONDS.toMillis(Math.max(1L, seconds / 2)));
+    }
+
+    /**
+     * Handle an event of the device
+     *
+     * @param exchange The NOTIFY request
+     * @throws IOException Response exception
+     */
+    private void handleNotify(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            // The changed values are read by the listener, the body is only drained
+            byte[] buffer = new byte[1024];
+            while (body.read(buffer) != -1) {
+                // Drain
+            }
+
+            String sid = exchange.getRequestHeaders().getFirst("SID");
+            if (!exchange.getRequestMethod().equals("NOTIFY") || sid == null || !isCurrentSid(sid)) {
+                // Unknown subscriptions are cancelled by the device
+                exchange.sendResponseHeaders(412, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, -1);
+        } finally {
+            exchange.close();
+        }
+
+        this.lastEvent = System.currentTimeMillis();
+        this.eventCount++;
+
+        // The initial event confirms that the device reaches the callback
+        setActive(true);
+        this.eventListener.run();
+    }
+
+    /**
+     * Check the SID of an event, the initial event can arrive before the response of the subscription has been read
+     *
+     * @param sid The SID of the event
+     * @return The SID belongs to the current subscription
+     */
+    private boolean isCurrentSid(String sid) {
+        long deadline = System.currentTimeMillis() + SOCKET_TIMEOUT;
+        synchronized (this.lock) {
+            try {
+                // Wait for the response of the running subscription
+                long remaining;
+                while (this.subscribing && this.sid == null && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    this.lock.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return sid.equals(this.sid);
+        }
+    }
+
+    /**
+     * Send a GENA request to the event URL
+     *
+     * @param method  SUBSCRIBE or UNSUBSCRIBE
+     * @param headers Additional header lines
+     * @return The response headers with lowercase names
+     * @throws IOException Request exception or an unsuccessful response
+     */
+    private Map<String, String> request(String method, String headers) throws IOException {
+        int port = this.eventUrl.getPort() == -1 ? this.eventUrl.getDefaultPort() : this.eventUrl.getPort();
+
+        // HttpURLConnection doesn't support the GENA methods
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(this.eventUrl.getHost(), port), SOCKET_TIMEOUT);
+            socket.setSoTimeout(SOCKET_TIMEOUT);
+
+            String request = method + " " + this.eventUrl.getFile() + " HTTP/1.1\r\n"
+                    + "HOST: " + this.eventUrl.getHost() + ":" + port + "\r\n"
+                    + headers
+                    + "Content-Length: 0\r\n"
+                    + "Connection: close\r\n"
+                    + "\r\n";
+            OutputStream output = socket.getOutputStream();
+            output.write(request.getBytes(StandardCharsets.ISO_8859_1));
+            output.flush();
+
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            String status = readLine(input);
+            String[] parts = status.split(" ", 3);
+            if (parts.length < 2 || !parts[1].equals("200")) {
+                throw new IOException(method + " " + this.eventUrl + " failed: " + status);
+            }
+
+            Map<String, String> response = new HashMap<>();
+            String line;
+            while (!(line = readLine(input)).isEmpty()) {
+                int separator = line.indexOf(':');
+                if (separator > 0) {
+                    response.put(line.substring(0, separator).trim().toLowerCase(Locale.ROOT), line.substring(separator + 1).trim());
+                }
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Read a header line
+     *
+     * @param input The response stream
+     * @return The line without the line break
+     * @throws IOException Read exception or end of stream
+     */
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int value;
+        while ((value = input.read()) != '\n') {
+            if (value == -1) {
+                throw new IOException("Connection closed");
+            }
+            if (value != '\r') {
+                builder.append((char) value);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Find the local address that is used to reach the device
+     *
+     * @param url Any URL of the device
+     * @return The local address
+     * @throws IOException If the device can't be resolved
+     */
+    private static InetAddress findLocalAddress(URL url) throws IOException {
+        // Connecting a datagram socket only selects the route, nothing is sent
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(InetAddress.getByName(url.getHost()), 9);
+            return socket.getLocalAddress();
+        }
+    }
+
+    /**
+     * Replace the scheduled task, must be called while holding the lock
+     *
+     * @param task  The task
+     * @param delay Delay in milliseconds
+     */
+    private void schedule(Runnable task, long delay) {
+        if (this.task != null) {
+            this.task.cancel(false);
+        }
+        this.task = this.executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replace the scheduled task if the subscriber is still running
+     *
+     * @param task  The task
+     * @param delay Delay in milliseconds
+     */
+    private void scheduleIfRunning(Runnable task, long delay) {
+        synchronized (this.lock) {
+            if (this.running) {
+                schedule(task, delay);
+            }
+        }
+    }
+
+    /**
+     * Update the state and notify the state listener on a change
+     *
+     * @param active The subscription is active
+     */
+    private void setActive(boolean active) {
+        if (this.active.compareAndSet(!active, active)) {
+            this.stateListener.accept(active);
+        }
+    }
+
+    /**
+     * Indicates if events are received
+     *
+     * @return The device accepted the subscription and its initial event arrived
+     */
+    public boolean isActive() {
+        return this.active.get();
+    }
+
+    /**
+     * Time of the last event
+     *
+     * @return Unix time in milliseconds or 0 if no event arrived yet
+     */
+    public long getLastEvent() {
+        return lastEvent;
+    }
+
+    /**
+     * Amount of received events
+     *
+     * @return Event count
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * The URL the device sends the events to
+     *
+     * @return The callback URL or null if the subscriber is not started
+     */
+    public URL getCallbackUrl() {
+        synchronized (this.lock) {
+            return this.callbackUrl;
+        }
+    }
+}
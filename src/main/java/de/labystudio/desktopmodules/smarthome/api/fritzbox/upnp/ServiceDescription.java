@@ -0,0 +1,76 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox.upnp;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Reads the event subscription URL of a service from a UPnP device description like the tr64desc.xml of a fritz box
+ *
+ * @author LabyStudio
+ */
+public class ServiceDescription {
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        // Device descriptions don't need any entities
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Find the event subscription URL of a service
+     *
+     * @param descriptionUrl URL of the device description
+     * @param serviceType    The service type, for example "urn:dslforum-org:service:Hosts:1"
+     * @return The absolute event subscription URL
+     * @throws IOException Request exception or {@link FileNotFoundException} if the device doesn't provide events for the service
+     */
+    public static URL findEventUrl(URL descriptionUrl, String serviceType) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) descriptionUrl.openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(5000);
+
+        try (InputStream stream = connection.getInputStream()) {
+            XMLStreamReader reader = FACTORY.createXMLStreamReader(stream);
+            try {
+                String type = null;
+                String eventPath = null;
+
+                while (reader.hasNext()) {
+                    int event = reader.next();
+
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if (name.equals("service")) {
+                            type = null;
+                            eventPath = null;
+                        } else if (name.equals("serviceType")) {
+                            type = reader.getElementText().trim();
+                        } else if (name.equals("eventSubURL")) {
+                            eventPath = reader.getElementText().trim();
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("service")) {
+                        // Services without events have an empty event url
+                        if (serviceType.equals(type) && eventPath != null && !eventPath.isEmpty()) {
+                            return new URL(descriptionUrl, eventPath);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+
+        throw new FileNotFoundException("No events for " + serviceType + " in " + descriptionUrl);
+    }
+}
@@ -0,0 +1,156 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.Executor;
+
+/**
+ * Transport that reads the stream with a blocking {@link URLConnection} on a thread of the reader executor.
+ * Supports every protocol of {@link URL}, for example https.
+ *
+ * @author LabyStudio
+ */
+class BlockingTransport implements StreamTransport {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private final MotionPictureStream stream;
+    private final URL url;
+    private final Executor executor;
+
+    private InputStream input;
+
+    /**
+     * Create the blocking transport of a stream
+     *
+     * @param stream   The stream receiving the frames
+     * @param url      The remote url
+     * @param executor The executor running the blocking reader
+     */
+    BlockingTransport(MotionPictureStream stream, URL url, Executor executor) {
+        this.stream = stream;
+        this.url = url;
+        this.executor = executor;
+    }
+
+    @Override
+    public void open(int session) {
+        this.executor.execute(() -> supervise(session));
+    }
+
+    /**
+     * Keep the stream connected until it is closed.
+     * Failed attempts are repeated with a jittered exponential backoff, the last frame stays visible meanwhile.
+     *
+     * @param session The session of this connection, a new session is started for each opening
+     */
+    private void supervise(int session) {
+        int attempt = 0;
+
+        while (this.stream.isSession(session)) {
+            // Poll snapshots instead of streaming in snapshot mode or while the standby exceeds its bandwidth
+            if (this.stream.isPollingSnapshots()) {
+                this.stream.pollSnapshots(session);
+                attempt = 0;
+                continue;
+            }
+
+            this.stream.updateState(session, attempt == 0 ? ConnectionState.CONNECTING : ConnectionState.RECONNECTING);
+
+            try {
+                // Start with the shortest delay again after a working connection
+                if (read(session)) {
+                    attempt = 0;
+                }
+            } catch (SocketTimeoutException e) {
+                // No bytes received within the stall timeout
+            } catch (SocketException e) {
+                // Connection refused, reset or closed
+            } catch (IOException e) {
+                if (this.stream.isSession(session)) {
+                    e.printStackTrace();
+                }
+            }
+
+            // The stream has been left to switch to snapshots
+            if (this.stream.isPollingSnapshots()) {
+                continue;
+            }
+
+            if (!this.stream.isReconnect() || !this.stream.isSession(session)) {
+                break;
+            }
+
+            // Wait before the next attempt
+            this.stream.updateState(session, ConnectionState.RECONNECTING);
+            if (!this.stream.await(session, MotionPictureStream.getReconnectDelay(attempt++), false)) {
+                break;
+            }
+        }
+
+        // Give up the connection
+        this.stream.closeSession(session);
+    }
+
+    /**
+     * Open the stream and read frames until the connection drops, stalls or is closed
+     *
+     * @param session The session of this connection, a new session is started for each opening
+     * @return true if at least one frame has been received on this connection
+     * @throws IOException Read exception
+     */
+    private boolean read(int session) throws IOException {
+        // Open stream, a read timeout detects a stalled connection
+        URLConnection connection = this.url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(this.stream.getStallTimeout());
+        InputStream input = connection.getInputStream();
+
+        synchronized (this.stream) {
+            if (!this.stream.isSession(session)) {
+                // Closed while connecting
+                input.close();
+                return false;
+            }
+            this.input = input;
+        }
+
+        // Read jpeg images
+        long receivedFrames = this.stream.getStatistics().getReceivedFrames();
+        MotionPictureParser parser = new MotionPictureParser(this.stream.getBufferPool(), frame -> this.stream.handleFrame(session, frame));
+        try {
+            while (this.stream.isReading(session) && parser.read(input)) {
+                // Frames are passed to the handler
+            }
+        } finally {
+            parser.release();
+
+            // Close stream
+            synchronized (this.stream) {
+                if (this.input == input) {
+                    this.input = null;
+                }
+            }
+            input.close();
+        }
+
+        return this.stream.getStatistics().getReceivedFrames() != receivedFrames;
+    }
+
+    @Override
+    public void close() throws IOException {
+        InputStream input;
+        synchronized (this.stream) {
+            input = this.input;
+            this.input = null;
+        }
+
+        if (input != null) {
+            input.close();
+        }
+    }
+}
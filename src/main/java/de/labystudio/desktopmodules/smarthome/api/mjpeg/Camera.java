@@ -0,0 +1,174 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A camera stream shared by multiple views.
+ * The demands of all views are merged: the stream is open if any view is open, visible if any view is visible,
+ * decodes at the highest target frame rate and covers the union of all view ports.
+ * If no view is open but a view is in standby, the connection is kept warm without decoding.
+ *
+ * @author LabyStudio
+ */
+public class Camera {
+
+    private final CameraRegistry registry;
+    private final URL url;
+    private final MotionPictureStream stream;
+
+    private final List<CameraView> views = new CopyOnWriteArrayList<>();
+
+    /**
+     * Create a shared camera
+     *
+     * @param registry The registry that manages the camera
+     * @param url      The remote url of the stream
+     * @param stream   The stream of the camera
+     */
+    Camera(CameraRegistry registry, URL url, MotionPictureStream stream) {
+        this.registry = registry;
+        this.url = url;
+        this.stream = stream;
+    }
+
+    /**
+     * Create a new view of this camera
+     *
+     * @return The new view
+     */
+    CameraView createView() {
+        CameraView view = new CameraView(this);
+        this.views.add(view);
+        return view;
+    }
+
+    /**
+     * Remove a disposed view and remove the camera from the registry if it was the last one
+     *
+     * @param view The disposed view
+     */
+    void removeView(CameraView view) {
+        this.views.remove(view);
+        update();
+
+        // The registry checks again while holding its lock, a view might have been created meanwhile
+        this.registry.removeIfUnused(this);
+    }
+
+    /**
+     * Indicates if the camera is still used
+     *
+     * @return At least one view has not been disposed
+     */
+    boolean hasViews() {
+        return !this.views.isEmpty();
+    }
+
+    /**
+     * Merge the demands of all views and apply them to the stream
+     */
+    synchronized void update() {
+        boolean open = false;
+        boolean standby = false;
+        boolean visible = false;
+        boolean pipelined = false;
+        int frameRate = -1;
+        long snapshotInterval = -1;
+
+        float minX = 1, minY = 1, maxX = 0, maxY = 0;
+        float densityX = 0, densityY = 0;
+        boolean fullResolution = false;
+
+        for (CameraView view : this.views) {
+            standby |= view.isStandby();
+            if (!view.isOpen()) {
+                continue;
+            }
+
+            open = true;
+            pipelined |= view.isPipelined();
+
+            // Shortest snapshot interval, 0 means a view requests the stream
+            long viewSnapshotInterval = view.getSnapshotInterval();
+            snapshotInterval = snapshotInterval == -1 ? viewSnapshotInterval : Math.min(snapshotInterval, viewSnapshotInterval);
+
+            if (!view.isVisible()) {
+                continue;
+            }
+            visible = true;
+
+            // Highest frame rate, 0 means every frame
+            int viewFrameRate = view.getTargetFrameRate();
+            frameRate = frameRate == 0 || viewFrameRate == 0 ? 0 : Math.max(frameRate, viewFrameRate);
+
+            // Union of all visible regions with the highest pixel density
+            ViewPort viewPort = view.getViewPort();
+            minX = Math.min(minX, viewPort.getX());
+            minY = Math.min(minY, viewPort.getY());
+            maxX = Math.max(maxX, viewPort.getX() + viewPort.getWidth());
+            maxY = Math.max(maxY, viewPort.getY() + viewPort.getHeight());
+
+            if (viewPort.getDrawWidth() <= 0 || viewPort.getDrawHeight() <= 0) {
+                fullResolution = true;
+            } else {
+                densityX = Math.max(densityX, viewPort.getDrawWidth() / viewPort.getWidth());
+                densityY = Math.max(densityY, viewPort.getDrawHeight() / viewPort.getHeight());
+            }
+        }
+
+        // Apply merged demand
+        this.stream.setPipelined(pipelined);
+        this.stream.setTargetFrameRate(Math.max(0, frameRate));
+        if (visible) {
+            float width = maxX - minX;
+            float height = maxY - minY;
+            // Tolerate float rounding, so a single view gets exactly its draw size and the frame is drawn without scaling
+            this.stream.setViewPort(fullResolution ? new ViewPort(0, 0, minX, minY, width, height) : new ViewPort(
+                    (int) Math.ceil(densityX * width - 0.01F), (int) Math.ceil(densityY * height - 0.01F),
+                    minX, minY, width, height));
+        }
+        this.stream.setVisible(visible);
+        this.stream.setSnapshotInterval(Math.max(0, snapshotInterval));
+        this.stream.setStandby(!open && standby);
+
+        // Open or close the upstream connection
+        boolean connected = open || standby;
+        if (connected && !this.stream.isAlive()) {
+            this.stream.openAsync();
+        } else if (!connected && this.stream.isAlive()) {
+            close();
+        }
+    }
+
+    /**
+     * Close the upstream connection
+     */
+    void close() {
+        try {
+            this.stream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The remote url of the camera
+     *
+     * @return The url
+     */
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * The shared stream of the camera
+     *
+     * @return The motion picture stream
+     */
+    public MotionPictureStream getStream() {
+        return stream;
+    }
+}
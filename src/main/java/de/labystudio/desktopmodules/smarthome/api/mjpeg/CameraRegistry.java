@@ -0,0 +1,179 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.relay.MotionPictureRelay;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manages the camera streams of the addon.
+ * Views of the same url share one upstream connection and one decoded frame.
+ * All cameras decode on one bounded pool sized to the cores, each camera queues at most one decoder task at a time
+ * so a camera with a high resolution can't starve the others.
+ * Plain http cameras are read on the shared {@link StreamSelector}, only https or "blocking" cameras and the snapshot polling
+ * take a thread of the fixed reader pool. Frame listeners and name lookups run on a small pool of their own.
+ *
+ * @author LabyStudio
+ */
+public class CameraRegistry {
+
+    // Blocking readers and snapshot polling, further cameras wait for a free thread
+    private static final int READER_THREADS = 8;
+
+    // Frame listeners and name lookups
+    private static final int TASK_THREADS = 2;
+
+    private final ThreadPoolExecutor readerExecutor;
+    private final ThreadPoolExecutor taskExecutor;
+    private final ThreadPoolExecutor decodeExecutor;
+
+    private final Map<String, Camera> cameras = new HashMap<>();
+    private final List<MotionPictureRelay> relays = new ArrayList<>();
+
+    private StreamSelector streamSelector;
+
+    /**
+     * Create a camera registry with fixed reader and task pools and a decode pool sized to the available cores
+     */
+    public CameraRegistry() {
+        this.readerExecutor = createPool(READER_THREADS);
+        this.taskExecutor = createPool(TASK_THREADS);
+
+        this.decodeExecutor = createPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a fixed pool whose threads end after 30 seconds without work
+     *
+     * @param threads Maximum amount of threads
+     * @return The thread pool
+     */
+    private static ThreadPoolExecutor createPool(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Create a view of the camera with the given url. The camera is shared with all other views of the same url.
+     *
+     * @param url The remote url of the motion picture stream
+     * @return A new view of the camera
+     */
+    public synchronized CameraView createView(URL url) {
+        Camera camera = this.cameras.get(url.toString());
+        if (camera == null) {
+            MotionPictureStream stream = new MotionPictureStream(url, this.readerExecutor, this.taskExecutor, this.decodeExecutor);
+            camera = new Camera(this, url, stream);
+            this.cameras.put(url.toString(), camera);
+        }
+        return camera.createView();
+    }
+
+    /**
+     * Serve the camera with the given url to local HTTP clients.
+     * The relay uses its own view, so it shares the upstream connection with all other views of the camera.
+     *
+     * @param url     The remote url of the motion picture stream
+     * @param address The local address to listen on
+     * @return The started relay, stop it with {@link MotionPictureRelay#stop()}
+     * @throws IOException The address could not be bound
+     */
+    public synchronized MotionPictureRelay startRelay(URL url, InetSocketAddress address) throws IOException {
+        CameraView view = createView(url);
+        MotionPictureRelay relay = new MotionPictureRelay(view, address);
+        try {
+            relay.start();
+        } catch (IOException e) {
+            view.dispose();
+            throw e;
+        }
+
+        // Forget stopped relays
+        this.relays.removeIf(entry -> !entry.isRunning());
+        this.relays.add(relay);
+        return relay;
+    }
+
+    /**
+     * Remove a camera if it has no views anymore.
+     * Views are only created while holding the lock of the registry, so the camera can't be used again after the check.
+     *
+     * @param camera The camera that lost a view
+     */
+    synchronized void removeIfUnused(Camera camera) {
+        if (!camera.hasViews()) {
+            this.cameras.remove(camera.getUrl().toString(), camera);
+        }
+    }
+
+    /**
+     * Stop all relays, close the streams of all cameras and stop the stream selector
+     */
+    public void closeAll() {
+        ArrayList<Camera> cameras;
+        ArrayList<MotionPictureRelay> relays;
+        StreamSelector streamSelector;
+        synchronized (this) {
+            cameras = new ArrayList<>(this.cameras.values());
+            relays = new ArrayList<>(this.relays);
+            this.relays.clear();
+            streamSelector = this.streamSelector;
+            this.streamSelector = null;
+        }
+
+        for (MotionPictureRelay relay : relays) {
+            relay.stop();
+        }
+
+        for (Camera camera : cameras) {
+            camera.close();
+        }
+
+        // After the streams, so their connections are cancelled on the loop first
+        if (streamSelector != null) {
+            streamSelector.close();
+        }
+    }
+
+    /**
+     * The event loop that reads all cameras using the non-blocking transport, it is started on first use
+     *
+     * @return The shared stream selector
+     * @throws IOException The selector could not be opened
+     * @see MotionPictureStream#setStreamSelector(StreamSelector)
+     */
+    public synchronized StreamSelector getStreamSelector() throws IOException {
+        if (this.streamSelector == null) {
+            this.streamSelector = new StreamSelector();
+        }
+        return this.streamSelector;
+    }
+
+    /**
+     * The shared pool the camera frames are decoded on
+     *
+     * @return The decode executor
+     */
+    public Executor getDecodeExecutor() {
+        return decodeExecutor;
+    }
+
+    /**
+     * Amount of cameras with at least one view
+     *
+     * @return Camera count
+     */
+    public synchronized int getCameraCount() {
+        return this.cameras.size();
+    }
+}
@@ -0,0 +1,257 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A single consumer of a shared camera.
+ * Each view reports its own demand, the camera merges the demands of all its views.
+ *
+ * @author LabyStudio
+ */
+public class CameraView {
+
+    private final Camera camera;
+
+    private volatile boolean open;
+    private volatile boolean standby;
+    private volatile boolean visible = true;
+    private volatile boolean pipelined;
+    private volatile int targetFrameRate;
+    private volatile long snapshotInterval;
+    private volatile ViewPort viewPort = ViewPort.FULL;
+
+    /**
+     * Create a view of the given camera
+     *
+     * @param camera The shared camera
+     */
+    CameraView(Camera camera) {
+        this.camera = camera;
+    }
+
+    /**
+     * Request the stream of the camera, the connection is opened if it isn't alive yet
+     */
+    public void open() {
+        this.open = true;
+        this.standby = false;
+        this.camera.update();
+    }
+
+    /**
+     * Release the stream of the camera but keep the connection warm without decoding,
+     * so the next {@link #open()} shows a current image immediately
+     *
+     * @see MotionPictureStream#setStandby(boolean)
+     */
+    public void standby() {
+        this.open = false;
+        this.standby = true;
+        this.camera.update();
+    }
+
+    /**
+     * Release the stream of the camera, the connection is closed if no other view is open or in standby
+     */
+    public void close() {
+        this.open = false;
+        this.standby = false;
+        this.camera.update();
+    }
+
+    /**
+     * Close and remove this view from the camera
+     */
+    public void dispose() {
+        this.open = false;
+        this.standby = false;
+        this.camera.removeView(this);
+    }
+
+    /**
+     * Set whether this view is currently painted on the screen
+     *
+     * @param visible The view is visible
+     * @see MotionPictureStream#setVisible(boolean)
+     */
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+        this.camera.update();
+    }
+
+    /**
+     * Set the rate this view paints the frames with
+     *
+     * @param targetFrameRate Frames per second or 0 to decode every frame
+     * @see MotionPictureStream#setTargetFrameRate(int)
+     */
+    public void setTargetFrameRate(int targetFrameRate) {
+        this.targetFrameRate = targetFrameRate;
+        this.camera.update();
+    }
+
+    /**
+     * Set the visible region of the camera image and the size this view draws it with
+     *
+     * @param viewPort The view port
+     * @see MotionPictureStream#setViewPort(ViewPort)
+     */
+    public void setViewPort(ViewPort viewPort) {
+        this.viewPort = viewPort;
+        this.camera.update();
+    }
+
+    /**
+     * Let this view accept single snapshots instead of the stream, for example while it is only an overview tile.
+     * The camera only polls snapshots if all open views accept them.
+     *
+     * @param snapshotInterval Delay between the snapshots in milliseconds or 0 to request the stream
+     * @see MotionPictureStream#setSnapshotInterval(long)
+     */
+    public void setSnapshotInterval(long snapshotInterval) {
+        if (this.snapshotInterval == snapshotInterval) {
+            return;
+        }
+        this.snapshotInterval = snapshotInterval;
+        this.camera.update();
+    }
+
+    /**
+     * Request separate reader and decoder stages
+     *
+     * @param pipelined Use separate reader and decoder stages
+     * @see MotionPictureStream#setPipelined(boolean)
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+        this.camera.update();
+    }
+
+    /**
+     * Connection alive state of the shared stream
+     *
+     * @return Connection is alive
+     */
+    public boolean isAlive() {
+        return this.camera.getStream().isAlive();
+    }
+
+    /**
+     * Connection state of the shared stream
+     *
+     * @return The connection state
+     * @see MotionPictureStream#getConnectionState()
+     */
+    public ConnectionState getConnectionState() {
+        return this.camera.getStream().getConnectionState();
+    }
+
+    /**
+     * Indicates if an image has already been received
+     *
+     * @return Loading state
+     */
+    public boolean isLoading() {
+        return this.camera.getStream().isLoading();
+    }
+
+    /**
+     * Get the last decoded frame of the shared stream. Must only be called from the render thread.
+     *
+     * @return Video frame object
+     * @see MotionPictureStream#getCurrentVideoFrame()
+     */
+    public VideoFrame getCurrentVideoFrame() {
+        return this.camera.getStream().getCurrentVideoFrame();
+    }
+
+    /**
+     * Get the last decoded image of the shared stream. Must only be called from the render thread.
+     *
+     * @return Buffered image object
+     */
+    public BufferedImage getCurrentFrame() {
+        return this.camera.getStream().getCurrentFrame();
+    }
+
+    /**
+     * Rolling performance counters of the shared stream
+     *
+     * @return The statistics of the stream
+     */
+    public StreamStatistics getStatistics() {
+        return this.camera.getStream().getStatistics();
+    }
+
+    /**
+     * The shared camera of this view
+     *
+     * @return The camera
+     */
+    public Camera getCamera() {
+        return camera;
+    }
+
+    /**
+     * The view requests the stream
+     *
+     * @return View is open
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Delay between the snapshots this view accepts instead of the stream
+     *
+     * @return Interval in milliseconds or 0 if the view requests the stream
+     */
+    public long getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * The view keeps the connection warm
+     *
+     * @return View is in standby
+     */
+    public boolean isStandby() {
+        return standby;
+    }
+
+    /**
+     * The view is painted on the screen
+     *
+     * @return View is visible
+     */
+    boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * The view requests separate reader and decoder stages
+     *
+     * @return Pipelined mode requested
+     */
+    boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * The rate this view paints the frames with
+     *
+     * @return Frames per second or 0 for every frame
+     */
+    int getTargetFrameRate() {
+        return targetFrameRate;
+    }
+
+    /**
+     * The visible region of this view
+     *
+     * @return The view port
+     */
+    ViewPort getViewPort() {
+        return viewPort;
+    }
+}
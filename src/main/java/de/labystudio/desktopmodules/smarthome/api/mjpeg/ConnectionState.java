@@ -0,0 +1,35 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+/**
+ * Connection state of a supervised motion picture stream
+ *
+ * @author LabyStudio
+ */
+public enum ConnectionState {
+
+    /**
+     * The stream is not opened
+     */
+    CLOSED,
+
+    /**
+     * A connection is being established
+     */
+    CONNECTING,
+
+    /**
+     * Frames are being received
+     */
+    STREAMING,
+
+    /**
+     * The connection dropped or stalled and the stream waits for the next attempt.
+     * The last received frame is kept until the picture is live again.
+     */
+    RECONNECTING,
+
+    /**
+     * The stream is in standby and polls single snapshots instead of streaming to stay within its bandwidth
+     */
+    POLLING
+}
@@ -0,0 +1,136 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reusable buffer holding one compressed JPEG frame.
+ * The buffer is reference counted and returns to its pool when the last reference is released.
+ *
+ * @author LabyStudio
+ */
+public class FrameBuffer {
+
+    private final FrameBufferPool pool;
+    private final AtomicInteger references = new AtomicInteger();
+
+    private byte[] data;
+    private int length;
+    private long receivedTime;
+
+    /**
+     * Create a frame buffer with the given capacity
+     *
+     * @param pool     The pool this buffer belongs to
+     * @param capacity Initial capacity in bytes
+     */
+    FrameBuffer(FrameBufferPool pool, int capacity) {
+        this.pool = pool;
+        this.data = new byte[capacity];
+    }
+
+    /**
+     * Grow the buffer to the given capacity and keep the current content
+     *
+     * @param capacity The required capacity
+     * @return The backing array after growing
+     */
+    byte[] ensureCapacity(int capacity) {
+        if (capacity > this.data.length) {
+            byte[] data = new byte[Math.max(capacity, this.data.length + (this.data.length >> 1))];
+            System.arraycopy(this.data, 0, data, 0, this.length);
+            this.data = data;
+        }
+        return this.data;
+    }
+
+    /**
+     * Replace the backing array with an empty array of the given capacity
+     *
+     * @param capacity The new capacity
+     */
+    void reallocate(int capacity) {
+        this.data = new byte[capacity];
+        this.length = 0;
+    }
+
+    /**
+     * Mark the buffer as acquired by a single owner
+     */
+    void acquire() {
+        this.length = 0;
+        this.references.set(1);
+    }
+
+    /**
+     * Add a reference to this buffer, every call must be paired with {@link #release()}
+     *
+     * @return This buffer
+     */
+    public FrameBuffer retain() {
+        this.references.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Release a reference and return the buffer to its pool if it is no longer used
+     */
+    public void release() {
+        if (this.references.decrementAndGet() == 0) {
+            this.pool.recycle(this);
+        }
+    }
+
+    /**
+     * Set the length of the frame in the buffer
+     *
+     * @param length Length in bytes
+     */
+    void setLength(int length) {
+        this.length = length;
+    }
+
+    /**
+     * Set the time the frame has been completely received
+     *
+     * @param receivedTime Time in {@link System#nanoTime()}
+     */
+    void setReceivedTime(long receivedTime) {
+        this.receivedTime = receivedTime;
+    }
+
+    /**
+     * The time the frame has been completely received
+     *
+     * @return Time in {@link System#nanoTime()}
+     */
+    public long getReceivedTime() {
+        return receivedTime;
+    }
+
+    /**
+     * The backing array, only the first {@link #getLength()} bytes are valid
+     *
+     * @return The backing array
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Length of the compressed frame
+     *
+     * @return Length in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Capacity of the backing array
+     *
+     * @return Capacity in bytes
+     */
+    public int getCapacity() {
+        return this.data.length;
+    }
+}
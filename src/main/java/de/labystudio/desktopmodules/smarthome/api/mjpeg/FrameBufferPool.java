@@ -0,0 +1,73 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A small pool of frame buffers for a single stream.
+ * Buffers are sized to the recently observed frame size so that steady-state streaming doesn't allocate.
+ *
+ * @author LabyStudio
+ */
+public class FrameBufferPool {
+
+    private static final int MIN_CAPACITY = 64 * 1024;
+
+    private final ArrayBlockingQueue<FrameBuffer> buffers;
+
+    private volatile int expectedSize = MIN_CAPACITY;
+
+    /**
+     * Create a pool that keeps up to the given amount of idle buffers
+     *
+     * @param size Maximum amount of idle buffers
+     */
+    public FrameBufferPool(int size) {
+        this.buffers = new ArrayBlockingQueue<>(size);
+    }
+
+    /**
+     * Take a buffer out of the pool or create a new one if the pool is empty.
+     * The returned buffer holds a single reference.
+     *
+     * @return An empty frame buffer
+     */
+    public FrameBuffer acquire() {
+        int capacity = this.expectedSize + (this.expectedSize >> 2);
+
+        FrameBuffer buffer = this.buffers.poll();
+        if (buffer == null) {
+            buffer = new FrameBuffer(this, capacity);
+        } else if (buffer.getCapacity() < this.expectedSize || buffer.getCapacity() > capacity * 4) {
+            // Resize to the current frame size
+            buffer.reallocate(capacity);
+        }
+
+        buffer.acquire();
+        return buffer;
+    }
+
+    /**
+     * Track the size of a completed frame to size new buffers
+     *
+     * @param length Length of the frame in bytes
+     */
+    void updateExpectedSize(int length) {
+        int expectedSize = this.expectedSize;
+
+        // Grow immediately, shrink slowly
+        if (length > expectedSize) {
+            this.expectedSize = length;
+        } else {
+            this.expectedSize = Math.max(MIN_CAPACITY, Math.max(length, expectedSize - (expectedSize >> 6)));
+        }
+    }
+
+    /**
+     * Return a released buffer to the pool, the buffer is dropped if the pool is full
+     *
+     * @param buffer The released buffer
+     */
+    void recycle(FrameBuffer buffer) {
+        this.buffers.offer(buffer);
+    }
+}
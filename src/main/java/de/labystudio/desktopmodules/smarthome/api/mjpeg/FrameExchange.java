@@ -0,0 +1,95 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+/**
+ * Publishes decoded frames from the decoder to the render thread while reusing their images.
+ * The decoder writes into a frame that is neither published nor leased, so readers never see a half-written image.
+ * Three frames are enough for the decoder and the render thread, more are created if listeners hold leases.
+ *
+ * @author LabyStudio
+ */
+public class FrameExchange {
+
+    private static final int MAX_FRAMES = 6;
+
+    private final VideoFrame[] frames = new VideoFrame[MAX_FRAMES];
+    private int frameCount;
+
+    private volatile VideoFrame current;
+
+    /**
+     * Lock a frame that can be written by the decoder.
+     * Must only be called by a single writer at a time.
+     *
+     * @return A locked frame or null if all frames are in use
+     */
+    VideoFrame lock() {
+        VideoFrame current = this.current;
+
+        // Reuse a frame that is neither published nor leased
+        for (int i = 0; i < this.frameCount; i++) {
+            VideoFrame frame = this.frames[i];
+            if (frame != current && frame.lock()) {
+                return frame;
+            }
+        }
+
+        // Create a new frame
+        if (this.frameCount < MAX_FRAMES) {
+            VideoFrame frame = new VideoFrame();
+            this.frames[this.frameCount++] = frame;
+            return frame;
+        }
+
+        return null;
+    }
+
+    /**
+     * Unlock a completely written frame and make it the current frame
+     *
+     * @param frame The written frame
+     */
+    void publish(VideoFrame frame) {
+        frame.unlock();
+        this.current = frame;
+    }
+
+    /**
+     * Unlock a frame without publishing it
+     *
+     * @param frame The locked frame
+     */
+    void discard(VideoFrame frame) {
+        frame.unlock();
+    }
+
+    /**
+     * Take a lease on the current frame. The lease must be released with {@link VideoFrame#release()}.
+     *
+     * @return The current frame or null if no frame has been published yet
+     */
+    public VideoFrame acquire() {
+        while (true) {
+            VideoFrame frame = this.current;
+            if (frame == null) {
+                return null;
+            }
+
+            if (frame.retain()) {
+                // Make sure the frame wasn't replaced and rewritten in the meantime
+                if (frame == this.current) {
+                    return frame;
+                }
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * The most recently published frame without taking a lease
+     *
+     * @return The current frame or null
+     */
+    public VideoFrame peek() {
+        return current;
+    }
+}
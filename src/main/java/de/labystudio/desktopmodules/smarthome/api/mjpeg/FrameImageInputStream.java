@@ -0,0 +1,72 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * Image input stream that reads directly from a frame buffer without copying it.
+ * The stream is reused for every frame of a decoder.
+ *
+ * @author LabyStudio
+ */
+public class FrameImageInputStream extends ImageInputStreamImpl {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] data = EMPTY;
+    private int length;
+
+    /**
+     * Point the stream to the given frame and rewind it
+     *
+     * @param frame The frame to read
+     */
+    public void setFrame(FrameBuffer frame) {
+        this.data = frame.getData();
+        this.length = frame.getLength();
+
+        this.streamPos = 0;
+        this.flushedPos = 0;
+        this.bitOffset = 0;
+    }
+
+    /**
+     * Drop the reference to the frame data
+     */
+    public void clear() {
+        this.data = EMPTY;
+        this.length = 0;
+        this.streamPos = 0;
+        this.flushedPos = 0;
+        this.bitOffset = 0;
+    }
+
+    @Override
+    public int read() {
+        this.bitOffset = 0;
+
+        if (this.streamPos >= this.length) {
+            return -1;
+        }
+        return this.data[(int) this.streamPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        this.bitOffset = 0;
+
+        int available = this.length - (int) this.streamPos;
+        if (available <= 0) {
+            return length == 0 ? 0 : -1;
+        }
+
+        int read = Math.min(length, available);
+        System.arraycopy(this.data, (int) this.streamPos, buffer, offset, read);
+        this.streamPos += read;
+        return read;
+    }
+
+    @Override
+    public long length() {
+        return this.length;
+    }
+}
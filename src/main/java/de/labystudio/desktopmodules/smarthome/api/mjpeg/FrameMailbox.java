@@ -0,0 +1,65 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+/**
+ * Single slot handoff between the reader and the decoder stage.
+ * A new frame always replaces the frame that hasn't been taken yet, so the decoder only sees the newest frame.
+ *
+ * @author LabyStudio
+ */
+public class FrameMailbox {
+
+    private FrameBuffer frame;
+
+    /**
+     * Put a frame into the mailbox and release the stale frame it replaces.
+     * The mailbox takes over the reference of the given frame.
+     *
+     * @param frame The newest compressed frame
+     * @return true if a frame has been replaced
+     */
+    public boolean put(FrameBuffer frame) {
+        FrameBuffer previous;
+        synchronized (this) {
+            previous = this.frame;
+            this.frame = frame;
+        }
+
+        // Drop the stale frame
+        if (previous != null) {
+            previous.release();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Take the newest frame out of the mailbox.
+     * The caller takes over the reference of the returned frame.
+     *
+     * @return The newest frame or null if the mailbox is empty
+     */
+    public synchronized FrameBuffer poll() {
+        FrameBuffer frame = this.frame;
+        this.frame = null;
+        return frame;
+    }
+
+    /**
+     * Check if there is a frame waiting in the mailbox
+     *
+     * @return The mailbox contains a frame
+     */
+    public synchronized boolean hasFrame() {
+        return this.frame != null;
+    }
+
+    /**
+     * Release the frame that is currently in the mailbox
+     */
+    public void clear() {
+        FrameBuffer frame = poll();
+        if (frame != null) {
+            frame.release();
+        }
+    }
+}
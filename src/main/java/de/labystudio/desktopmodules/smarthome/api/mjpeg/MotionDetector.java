@@ -0,0 +1,351 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Detects motion in a camera stream without asking the camera.
+ * Every Nth frame is reduced to a luma grid. While the stream decodes the full camera image for the display anyway,
+ * the grid is sampled from these frames ({@link #acceptDecoded(VideoFrame)}), otherwise the compressed frame is decoded
+ * on its own at a tiny resolution.
+ * Each cell is compared against a running background average, motion is detected
+ * if enough cells inside the configured zones differ from the background.
+ * <p>
+ * All buffers are allocated once, so the detection doesn't allocate while the stream is running.
+ *
+ * @author LabyStudio
+ */
+public class MotionDetector implements Consumer<FrameBuffer> {
+
+    public static final int GRID_WIDTH = 32;
+    public static final int GRID_HEIGHT = 24;
+
+    private static final int CELLS = GRID_WIDTH * GRID_HEIGHT;
+
+    // Background adapts by 1/16 of the difference per processed frame
+    private static final int LEARNING_SHIFT = 4;
+
+    // Most of the cells changed at once, the light has been switched or the camera changed its exposure
+    private static final float LIGHTING_CHANGE = 0.8F;
+
+    // Sampled pixels per cell in each direction, larger images are read with gaps
+    private static final int SAMPLES_PER_CELL = 2;
+
+    // Decode on our own if the stream stopped decoding the full image for this long
+    private static final long SHARED_TIMEOUT = 1000L;
+
+    private final Executor executor;
+    private final Runnable listener;
+
+    private final MotionPictureDecoder decoder = new MotionPictureDecoder();
+    private final VideoFrame frame = new VideoFrame();
+    private final ViewPort viewPort = new ViewPort(GRID_WIDTH * 2, GRID_HEIGHT * 2, 0, 0, 1, 1);
+    private final AtomicBoolean busy = new AtomicBoolean();
+
+    private final int[] sums = new int[CELLS];
+    private final int[] counts = new int[CELLS];
+    private final int[] background = new int[CELLS];
+    private final boolean[] zone = new boolean[CELLS];
+    private int[] columnCells = new int[0];
+
+    private volatile boolean disposed;
+    private boolean initialized;
+    private int threshold;
+    private float minArea;
+    private int frameInterval = 5;
+    private int frameCounter;
+    private volatile boolean due;
+    private volatile long lastSharedFrame;
+
+    private volatile float motion;
+    private volatile long processTime;
+
+    /**
+     * Create a motion detector covering the full camera image
+     *
+     * @param executor The executor to decode and analyze the frames on
+     * @param listener Called on the executor when motion has been detected
+     */
+    public MotionDetector(Executor executor, Runnable listener) {
+        this.executor = executor;
+        this.listener = listener;
+
+        setSensitivity(0.5F);
+        Arrays.fill(this.zone, true);
+    }
+
+    /**
+     * Receive a compressed frame on the reader thread, only every Nth frame is analyzed
+     *
+     * @param buffer The compressed frame
+     */
+    @Override
+    public void accept(FrameBuffer buffer) {
+        if (++this.frameCounter < this.frameInterval) {
+            return;
+        }
+        this.frameCounter = 0;
+
+        // The next frame that is decoded for the display is analyzed instead
+        if (System.currentTimeMillis() - this.lastSharedFrame < SHARED_TIMEOUT) {
+            this.due = true;
+            return;
+        }
+
+        // Skip the frame if the previous frame is still being analyzed
+        if (this.disposed || !this.busy.compareAndSet(false, true)) {
+            return;
+        }
+
+        buffer.retain();
+        this.executor.execute(() -> {
+            try {
+                process(buffer);
+            } catch (IOException e) {
+                // Skip broken frame
+            } finally {
+                buffer.release();
+                this.busy.set(false);
+
+                // Disposed while analyzing
+                if (this.disposed && this.busy.compareAndSet(false, true)) {
+                    this.decoder.dispose();
+                }
+            }
+        });
+    }
+
+    /**
+     * Receive a frame that has been decoded for the display, the stream holds a lease on it during the call.
+     * Frames that cover the full camera image with at least one pixel per cell are analyzed
+     * instead of decoding the compressed frames a second time.
+     *
+     * @param frame The decoded frame
+     */
+    public void acceptDecoded(VideoFrame frame) {
+        BufferedImage image = frame.getImage();
+        if (this.disposed || frame.getX() > 0 || frame.getY() > 0 || frame.getWidth() < 1 || frame.getHeight() < 1
+                || image.getWidth() < GRID_WIDTH || image.getHeight() < GRID_HEIGHT) {
+            return;
+        }
+        this.lastSharedFrame = System.currentTimeMillis();
+
+        // Analyze only if the interval is reached and the previous frame is done
+        if (!this.due || !this.busy.compareAndSet(false, true)) {
+            return;
+        }
+        this.due = false;
+
+        try {
+            long start = System.nanoTime();
+            updateGrid(image);
+            analyze(start);
+        } finally {
+            this.busy.set(false);
+
+            // Disposed while analyzing
+            if (this.disposed && this.busy.compareAndSet(false, true)) {
+                this.decoder.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decode the frame at grid resolution and compare it with the background
+     *
+     * @param buffer The compressed frame
+     * @throws IOException Decode exception
+     */
+    private void process(FrameBuffer buffer) throws IOException {
+        long start = System.nanoTime();
+
+        this.decoder.decode(buffer, this.viewPort, this.frame);
+        updateGrid(this.frame.getImage());
+        analyze(start);
+    }
+
+    /**
+     * Compare the current grid with the background
+     *
+     * @param start Start time of the processing in {@link System#nanoTime()}
+     */
+    private void analyze(long start) {
+
+        if (!this.initialized) {
+            // First frame is the background
+            for (int cell = 0; cell < CELLS; cell++) {
+                this.background[cell] = (this.sums[cell] / Math.max(1, this.counts[cell])) << 8;
+            }
+            this.initialized = true;
+            this.processTime = System.nanoTime() - start;
+            return;
+        }
+
+        int active = 0;
+        int changed = 0;
+        for (int cell = 0; cell < CELLS; cell++) {
+            int luma = (this.sums[cell] / Math.max(1, this.counts[cell])) << 8;
+            int background = this.background[cell];
+
+            // Compare with the background and adapt the background slowly
+            if (this.zone[cell]) {
+                active++;
+                if (Math.abs(luma - background) > this.threshold) {
+                    changed++;
+                }
+            }
+            this.background[cell] = background + ((luma - background) >> LEARNING_SHIFT);
+        }
+
+        float motion = active == 0 ? 0 : (float) changed / active;
+        if (motion > LIGHTING_CHANGE) {
+            // Start over with the new lighting
+            this.initialized = false;
+            motion = 0;
+        }
+
+        this.motion = motion;
+        this.processTime = System.nanoTime() - start;
+
+        if (changed > 0 && motion >= this.minArea) {
+            this.listener.run();
+        }
+    }
+
+    /**
+     * Sum up the luma of the decoded image per grid cell, large images are sampled with gaps
+     *
+     * @param image The decoded image at least at twice the grid resolution
+     */
+    private void updateGrid(BufferedImage image) {
+        Arrays.fill(this.sums, 0);
+        Arrays.fill(this.counts, 0);
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int stepX = Math.max(1, width / (GRID_WIDTH * SAMPLES_PER_CELL));
+        int stepY = Math.max(1, height / (GRID_HEIGHT * SAMPLES_PER_CELL));
+
+        // Grid column of each image column
+        if (this.columnCells.length != width) {
+            this.columnCells = new int[width];
+            for (int x = 0; x < width; x++) {
+                this.columnCells[x] = x * GRID_WIDTH / width;
+            }
+        }
+
+        // The decoder produces BGR or gray images, the display uses integer pixels
+        Raster raster = image.getRaster();
+        int type = image.getType();
+        boolean bgr = type == BufferedImage.TYPE_3BYTE_BGR;
+        boolean gray = type == BufferedImage.TYPE_BYTE_GRAY;
+        boolean packed = type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE;
+        byte[] data = bgr || gray ? ((DataBufferByte) raster.getDataBuffer()).getData() : null;
+        int[] pixels = packed ? ((DataBufferInt) raster.getDataBuffer()).getData() : null;
+
+        for (int y = 0; y < height; y += stepY) {
+            int rowCell = y * GRID_HEIGHT / height * GRID_WIDTH;
+            int row = y * width;
+
+            for (int x = 0; x < width; x += stepX) {
+                int luma;
+                if (bgr) {
+                    int index = (row + x) * 3;
+                    int blue = data[index] & 0xFF;
+                    int green = data[index + 1] & 0xFF;
+                    int red = data[index + 2] & 0xFF;
+                    luma = (red * 77 + green * 150 + blue * 29) >> 8;
+                } else if (gray) {
+                    luma = data[row + x] & 0xFF;
+                } else {
+                    int rgb = packed ? pixels[row + x] : image.getRGB(x, y);
+                    luma = (((rgb >> 16) & 0xFF) * 77 + ((rgb >> 8) & 0xFF) * 150 + (rgb & 0xFF) * 29) >> 8;
+                }
+
+                int cell = rowCell + this.columnCells[x];
+                this.sums[cell] += luma;
+                this.counts[cell]++;
+            }
+        }
+    }
+
+    /**
+     * Set how sensitive the detector reacts to changes
+     *
+     * @param sensitivity Sensitivity between 0.0 (only large and strong changes) and 1.0 (small and weak changes)
+     */
+    public void setSensitivity(float sensitivity) {
+        sensitivity = Math.max(0, Math.min(1, sensitivity));
+
+        // Required luma difference of a cell and the required part of changed cells
+        this.threshold = (int) ((8 + (1 - sensitivity) * 56) * 256);
+        this.minArea = 0.002F + (1 - sensitivity) * 0.05F;
+    }
+
+    /**
+     * Analyze only every Nth frame
+     *
+     * @param frameInterval Amount of frames per analyzed frame
+     */
+    public void setFrameInterval(int frameInterval) {
+        this.frameInterval = Math.max(1, frameInterval);
+    }
+
+    /**
+     * Restrict the detection to the given zones, an empty list of zones covers the full image.
+     * Each zone is a relative rectangle {x, y, width, height} between 0.0 and 1.0.
+     *
+     * @param zones The detection zones
+     */
+    public void setZones(float[][] zones) {
+        Arrays.fill(this.zone, zones.length == 0);
+
+        for (float[] zone : zones) {
+            for (int y = 0; y < GRID_HEIGHT; y++) {
+                for (int x = 0; x < GRID_WIDTH; x++) {
+                    // Center of the cell inside of the zone
+                    float centerX = (x + 0.5F) / GRID_WIDTH;
+                    float centerY = (y + 0.5F) / GRID_HEIGHT;
+                    if (centerX >= zone[0] && centerX < zone[0] + zone[2] && centerY >= zone[1] && centerY < zone[1] + zone[3]) {
+                        this.zone[y * GRID_WIDTH + x] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Part of the zone cells that changed in the last analyzed frame
+     *
+     * @return Changed part between 0.0 and 1.0
+     */
+    public float getMotion() {
+        return motion;
+    }
+
+    /**
+     * Time it took to decode (if not shared with the display) and analyze the last frame
+     *
+     * @return Time in nanoseconds
+     */
+    public long getProcessTime() {
+        return processTime;
+    }
+
+    /**
+     * Stop analyzing frames and release the native resources of the decoder
+     */
+    public void dispose() {
+        this.disposed = true;
+        if (this.busy.compareAndSet(false, true)) {
+            this.decoder.dispose();
+        }
+    }
+}
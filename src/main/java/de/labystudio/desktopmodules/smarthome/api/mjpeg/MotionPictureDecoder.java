@@ -0,0 +1,262 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * JPEG decoder that reuses a single image reader and reads the compressed frames without copying them.
+ * In render-ready mode each frame is converted once into a screen compatible image of the draw size,
+ * so the render thread only has to copy the image instead of converting and scaling it on every repaint.
+ *
+ * @author LabyStudio
+ */
+public class MotionPictureDecoder {
+
+    private final FrameImageInputStream input = new FrameImageInputStream();
+    private final ImageReader reader;
+    private final ImageReadParam param;
+    private final Rectangle region = new Rectangle();
+
+    private final boolean renderReady;
+    private GraphicsConfiguration graphicsConfiguration;
+    private BufferedImage scratch;
+
+    // Image type of the last frame, the stream of a camera keeps its size and color model
+    private ImageTypeSpecifier imageType;
+    private int imageTypeWidth;
+    private int imageTypeHeight;
+    private int imageTypeComponents;
+
+    /**
+     * Create a decoder using the first available JPEG image reader that decodes into the image type of the reader
+     */
+    public MotionPictureDecoder() {
+        this(false);
+    }
+
+    /**
+     * Create a decoder using the first available JPEG image reader
+     *
+     * @param renderReady Convert the decoded frames into screen compatible images of the draw size
+     */
+    public MotionPictureDecoder(boolean renderReady) {
+        this.renderReady = renderReady;
+
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("jpeg");
+        if (!readers.hasNext()) {
+            throw new IllegalStateException("No JPEG image reader available");
+        }
+
+        this.reader = readers.next();
+        this.param = this.reader.getDefaultReadParam();
+    }
+
+    /**
+     * Decode the given compressed frame.
+     * Only the visible region of the view port is decoded and the image is subsampled to the draw size.
+     * The image of the target frame is reused if it still has the required size and type.
+     * In render-ready mode the frame is decoded into a private image first and then scaled into the image of the target.
+     *
+     * @param frame    The compressed JPEG frame
+     * @param viewPort The visible region and its size on the screen
+     * @param target   The video frame to decode into
+     * @throws IOException Decode exception
+     */
+    public void decode(FrameBuffer frame, ViewPort viewPort, VideoFrame target) throws IOException {
+        this.input.setFrame(frame);
+
+        try {
+            this.reader.setInput(this.input, true, true);
+
+            // Image size from the frame header
+            int imageWidth = this.reader.getWidth(0);
+            int imageHeight = this.reader.getHeight(0);
+
+            // Visible region of the image
+            int x = clamp((int) (viewPort.getX() * imageWidth), 0, imageWidth - 1);
+            int y = clamp((int) (viewPort.getY() * imageHeight), 0, imageHeight - 1);
+            int width = clamp((int) Math.ceil(viewPort.getWidth() * imageWidth), 1, imageWidth - x);
+            int height = clamp((int) Math.ceil(viewPort.getHeight() * imageHeight), 1, imageHeight - y);
+            this.region.setBounds(x, y, width, height);
+            this.param.setSourceRegion(this.region);
+
+            // Skip pixels that wouldn't be visible at the draw size
+            int subsamplingX = viewPort.getDrawWidth() <= 0 ? 1 : Math.max(1, width / viewPort.getDrawWidth());
+            int subsamplingY = viewPort.getDrawHeight() <= 0 ? 1 : Math.max(1, height / viewPort.getDrawHeight());
+            this.param.setSourceSubsampling(subsamplingX, subsamplingY, 0, 0);
+
+            // Decode into the image of the target frame or into the private image before the conversion
+            int destinationWidth = (width + subsamplingX - 1) / subsamplingX;
+            int destinationHeight = (height + subsamplingY - 1) / subsamplingY;
+            BufferedImage destination = this.renderReady ? this.scratch : target.getImage();
+            ImageTypeSpecifier type = getImageType(frame, imageWidth, imageHeight);
+            this.param.setDestination(getDestination(destination, type, destinationWidth, destinationHeight));
+
+            BufferedImage image = this.reader.read(0, this.param);
+            if (this.renderReady) {
+                this.scratch = image;
+
+                // Scale to the draw size in the pixel format of the screen
+                int drawWidth = viewPort.getDrawWidth() <= 0 ? destinationWidth : viewPort.getDrawWidth();
+                int drawHeight = viewPort.getDrawHeight() <= 0 ? destinationHeight : viewPort.getDrawHeight();
+                image = convert(image, target.getImage(), drawWidth, drawHeight);
+            }
+
+            target.update(image,
+                    (float) x / imageWidth, (float) y / imageHeight,
+                    (float) width / imageWidth, (float) height / imageHeight);
+        } finally {
+            this.param.setDestination(null);
+            this.input.clear();
+        }
+    }
+
+    /**
+     * Get the image type the reader decodes the current frame into.
+     * The type is only requested from the reader if the size or the color components of the frame changed.
+     *
+     * @param frame  The compressed JPEG frame
+     * @param width  Width of the frame
+     * @param height Height of the frame
+     * @return The image type of the reader
+     * @throws IOException Read exception
+     */
+    private ImageTypeSpecifier getImageType(FrameBuffer frame, int width, int height) throws IOException {
+        int components = getComponents(frame);
+        if (this.imageType == null || components < 0
+                || width != this.imageTypeWidth || height != this.imageTypeHeight || components != this.imageTypeComponents) {
+            this.imageType = this.reader.getImageTypes(0).next();
+            this.imageTypeWidth = width;
+            this.imageTypeHeight = height;
+            this.imageTypeComponents = components;
+        }
+        return this.imageType;
+    }
+
+    /**
+     * Get a destination image for the current frame, the given image is reused if it is compatible
+     *
+     * @param image  The previous image of the target frame or null
+     * @param type   The image type of the reader
+     * @param width  Required width
+     * @param height Required height
+     * @return A compatible destination image
+     */
+    private BufferedImage getDestination(BufferedImage image, ImageTypeSpecifier type, int width, int height) {
+        boolean compatible = image != null
+                && image.getWidth() == width
+                && image.getHeight() == height
+                && image.getType() == type.getBufferedImageType()
+                && image.getRaster().getNumBands() == type.getNumBands();
+        return compatible ? image : type.createBufferedImage(width, height);
+    }
+
+    /**
+     * Read the amount of color components from the start of frame segment of the JPEG header
+     *
+     * @param frame The compressed JPEG frame
+     * @return The amount of components or -1 if the header has no start of frame segment
+     */
+    static int getComponents(FrameBuffer frame) {
+        byte[] data = frame.getData();
+        int length = frame.getLength();
+
+        // Walk the segments after the start of image marker
+        int position = 2;
+        while (position + 9 < length && (data[position] & 0xFF) == 0xFF) {
+            int marker = data[position + 1] & 0xFF;
+
+            // Start of frame, except for the huffman, arithmetic coding and JPEG extension markers
+            if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                return data[position + 9] & 0xFF;
+            }
+
+            // Skip the segment
+            int segmentLength = (data[position + 2] & 0xFF) << 8 | data[position + 3] & 0xFF;
+            position += 2 + segmentLength;
+        }
+        return -1;
+    }
+
+    /**
+     * Draw the decoded image into a screen compatible image of the given size
+     *
+     * @param source The decoded image
+     * @param image  The previous image of the target frame or null
+     * @param width  The draw width
+     * @param height The draw height
+     * @return The converted image
+     */
+    private BufferedImage convert(BufferedImage source, BufferedImage image, int width, int height) {
+        BufferedImage destination = getCompatibleImage(image, width, height);
+
+        Graphics2D graphics = destination.createGraphics();
+        try {
+            if (source.getWidth() != width || source.getHeight() != height) {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            }
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return destination;
+    }
+
+    /**
+     * Get an image in the pixel format of the screen, the given image is reused if it has the same size and format
+     *
+     * @param image  The previous image of the target frame or null
+     * @param width  Required width
+     * @param height Required height
+     * @return A screen compatible image
+     */
+    private BufferedImage getCompatibleImage(BufferedImage image, int width, int height) {
+        if (this.graphicsConfiguration == null && !GraphicsEnvironment.isHeadless()) {
+            this.graphicsConfiguration = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+        }
+
+        boolean compatible = image != null
+                && image.getWidth() == width
+                && image.getHeight() == height
+                && (this.graphicsConfiguration == null
+                ? image.getType() == BufferedImage.TYPE_INT_RGB
+                : image.getColorModel().equals(this.graphicsConfiguration.getColorModel()));
+        if (compatible) {
+            return image;
+        }
+
+        // Without a screen the default pixel format of Java2D is used
+        return this.graphicsConfiguration == null
+                ? new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+                : this.graphicsConfiguration.createCompatibleImage(width, height);
+    }
+
+    /**
+     * Release the native resources of the image reader
+     */
+    public void dispose() {
+        this.reader.dispose();
+    }
+
+    /**
+     * Clamp a value to the given range
+     *
+     * @param value The value
+     * @param min   Minimum value
+     * @param max   Maximum value
+     * @return The clamped value
+     */
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,506 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Bulk parser that extracts compressed JPEG frames out of a multipart MJPEG transmission.
+ * The input is consumed in large chunks and scanned for the SOI (0xFFD8) and EOI (0xFFD9) markers in a tight loop.
+ * If the camera sends a Content-Length header for each part, the frame is read in one piece without scanning it.
+ * Bytes of the announced length after the end marker are not taken into the frame, the parser resynchronizes on the next start marker.
+ * Frames are written into buffers of a {@link FrameBufferPool} and handed over to the frame handler.
+ *
+ * @author LabyStudio
+ */
+public class MotionPictureParser {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int HEADER_SIZE = 4 * 1024;
+    private static final int MAX_FRAME_SIZE = 32 * 1024 * 1024;
+
+    private static final byte MARKER = (byte) 0xFF;
+    private static final byte START_OF_IMAGE = (byte) 0xD8;
+    private static final byte END_OF_IMAGE = (byte) 0xD9;
+
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes();
+
+    private static final int STATE_HEADER = 0;
+    private static final int STATE_SCAN = 1;
+    private static final int STATE_LENGTH = 2;
+
+    private final FrameBufferPool pool;
+    private final FrameHandler handler;
+
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+
+    private final byte[] header = new byte[HEADER_SIZE];
+    private int headerLength;
+
+    private FrameBuffer buffer;
+    private byte[] frame;
+    private int frameLength;
+
+    private byte[] trailer = new byte[0];
+    private int trailerLength;
+
+    private int state = STATE_HEADER;
+    private int remaining;
+    private boolean pendingMarker;
+    private boolean trustContentLength = true;
+
+    /**
+     * Create a parser that passes every completed frame to the given handler
+     *
+     * @param pool    The pool to take the frame buffers from
+     * @param handler The frame handler
+     */
+    public MotionPictureParser(FrameBufferPool pool, FrameHandler handler) {
+        this.pool = pool;
+        this.handler = handler;
+    }
+
+    /**
+     * Read the next chunk of the given stream and process it.
+     * If the parser expects a frame with a known length, the frame is read directly into the frame buffer.
+     *
+     * @param stream The stream to read from
+     * @return false if the end of the stream has been reached
+     * @throws IOException Read exception
+     */
+    public boolean read(InputStream stream) throws IOException {
+        // Read the remaining frame of known length directly into the frame buffer
+        if (this.state == STATE_LENGTH) {
+            int read = stream.read(this.frame, this.frameLength, this.remaining);
+            if (read < 0) {
+                return false;
+            }
+
+            this.frameLength += read;
+            this.remaining -= read;
+
+            if (this.remaining == 0) {
+                completeLengthFrame(0);
+                consumeTrailer();
+            }
+            return true;
+        }
+
+        // Read next chunk
+        int read = stream.read(this.chunk, 0, this.chunk.length);
+        if (read < 0) {
+            return false;
+        }
+
+        feed(this.chunk, 0, read);
+        return true;
+    }
+
+    /**
+     * Process the given bytes of the transmission
+     *
+     * @param data   The buffer containing the transmission bytes
+     * @param offset Offset in the buffer
+     * @param length Amount of bytes to process
+     * @throws IOException Frame handler exception
+     */
+    public void feed(byte[] data, int offset, int length) throws IOException {
+        int position = offset;
+        int end = offset + length;
+
+        while (position < end) {
+            position = consume(data, position, end);
+
+            // The trailer of a frame that was read with previous chunks comes before the rest of this chunk
+            consumeTrailer();
+        }
+    }
+
+    /**
+     * Process the bytes after the end marker of the previous frame that have been kept in the trailer buffer
+     *
+     * @throws IOException Frame handler exception
+     */
+    private void consumeTrailer() throws IOException {
+        int length = this.trailerLength;
+        this.trailerLength = 0;
+
+        // A frame that completes inside of the trailer rewinds its own trailer, so the buffer is never overwritten here
+        int position = 0;
+        while (position < length) {
+            position = consume(this.trailer, position, length);
+        }
+    }
+
+    /**
+     * Process the given bytes depending on the current state
+     *
+     * @param data     The transmission bytes
+     * @param position Start position
+     * @param end      End position
+     * @return The new position
+     * @throws IOException Frame handler exception
+     */
+    private int consume(byte[] data, int position, int end) throws IOException {
+        switch (this.state) {
+            case STATE_HEADER:
+                return consumeHeader(data, position, end);
+            case STATE_SCAN:
+                return consumeScan(data, position, end);
+            default:
+                return consumeLength(data, position, end);
+        }
+    }
+
+    /**
+     * Search for the start of the next frame and keep the part header to find the content length
+     *
+     * @param data     The transmission bytes
+     * @param position Start position
+     * @param end      End position
+     * @return The new position
+     */
+    private int consumeHeader(byte[] data, int position, int end) {
+        // Start marker is split across two chunks
+        if (this.pendingMarker && data[position] == START_OF_IMAGE) {
+            startFrame();
+            return position + 1;
+        }
+
+        int index = indexOfMarker(data, position, end, START_OF_IMAGE);
+        if (index < 0) {
+            appendHeader(data, position, end - position);
+            this.pendingMarker = data[end - 1] == MARKER;
+            return end;
+        }
+
+        appendHeader(data, position, index - position);
+        startFrame();
+        return index + 2;
+    }
+
+    /**
+     * Copy frame bytes until the end of image marker is found
+     *
+     * @param data     The transmission bytes
+     * @param position Start position
+     * @param end      End position
+     * @return The new position
+     * @throws IOException Frame handler exception
+     */
+    private int consumeScan(byte[] data, int position, int end) throws IOException {
+        // End marker is split across two chunks
+        if (this.pendingMarker && data[position] == END_OF_IMAGE) {
+            if (appendFrame(data, position, 1)) {
+                completeFrame();
+            }
+            return position + 1;
+        }
+
+        int index = indexOfMarker(data, position, end, END_OF_IMAGE);
+        if (index < 0) {
+            if (appendFrame(data, position, end - position)) {
+                this.pendingMarker = data[end - 1] == MARKER;
+            }
+            return end;
+        }
+
+        if (appendFrame(data, position, index + 2 - position)) {
+            completeFrame();
+        }
+        return index + 2;
+    }
+
+    /**
+     * Copy frame bytes until the announced content length is reached
+     *
+     * @param data     The transmission bytes
+     * @param position Start position
+     * @param end      End position
+     * @return The new position
+     * @throws IOException Frame handler exception
+     */
+    private int consumeLength(byte[] data, int position, int end) throws IOException {
+        int length = Math.min(this.remaining, end - position);
+        System.arraycopy(data, position, this.frame, this.frameLength, length);
+        this.frameLength += length;
+        this.remaining -= length;
+
+        if (this.remaining == 0) {
+            // Parse the bytes after the end marker again
+            return position + length - completeLengthFrame(length);
+        }
+        return position + length;
+    }
+
+    /**
+     * Begin a new frame after the start of image marker
+     */
+    private void startFrame() {
+        int contentLength = this.trustContentLength ? parseContentLength() : -1;
+        this.headerLength = 0;
+        this.pendingMarker = false;
+
+        // Take a buffer for the new frame
+        if (this.buffer == null) {
+            this.buffer = this.pool.acquire();
+            this.frame = this.buffer.getData();
+        }
+
+        // Write start of image marker
+        this.frame[0] = MARKER;
+        this.frame[1] = START_OF_IMAGE;
+        this.frameLength = 2;
+
+        if (contentLength > 4 && contentLength <= MAX_FRAME_SIZE) {
+            // Frame size is known
+            ensureCapacity(contentLength);
+            this.remaining = contentLength - 2;
+            this.state = STATE_LENGTH;
+        } else {
+            // Scan for the end of image marker
+            this.state = STATE_SCAN;
+        }
+    }
+
+    /**
+     * Complete a frame that was read using the content length header.
+     * Bytes after the end marker that are still available in the current input are rewound,
+     * all others are copied into the trailer buffer.
+     *
+     * @param available Amount of the last bytes of the frame that are still available in the current input
+     * @return Amount of bytes at the end of the current input that have to be processed again
+     * @throws IOException Frame handler exception
+     */
+    private int completeLengthFrame(int available) throws IOException {
+        boolean valid = this.frame[this.frameLength - 2] == MARKER && this.frame[this.frameLength - 1] == END_OF_IMAGE;
+        if (valid) {
+            completeFrame();
+            return 0;
+        }
+
+        // The announced length includes bytes after the end marker, like the part delimiter or even the next frame
+        // End markers followed by image data belong to a thumbnail of this or the next frame
+        int endOfImage = indexOfMarker(this.frame, 2, this.frameLength, END_OF_IMAGE);
+        while (endOfImage >= 0 && !isPartTrailer(this.frame, endOfImage + 2, this.frameLength)) {
+            endOfImage = indexOfMarker(this.frame, endOfImage + 2, this.frameLength, END_OF_IMAGE);
+        }
+        if (endOfImage >= 0) {
+            int trailerStart = endOfImage + 2;
+            int trailerLength = this.frameLength - trailerStart;
+
+            // The trailer has been read with previous inputs, keep it until the frame buffer is handed over
+            if (trailerLength > available) {
+                if (trailerLength > this.trailer.length) {
+                    this.trailer = new byte[Math.max(trailerLength, this.trailer.length * 2)];
+                }
+                System.arraycopy(this.frame, trailerStart, this.trailer, 0, trailerLength);
+                this.trailerLength = trailerLength;
+                trailerLength = 0;
+            }
+
+            // Resynchronize on the start marker of the next frame
+            this.frameLength = trailerStart;
+            completeFrame();
+            return trailerLength;
+        }
+
+        // The camera doesn't announce the correct length, scan for the end marker from now on
+        this.trustContentLength = false;
+        this.pendingMarker = this.frame[this.frameLength - 1] == MARKER;
+        this.state = STATE_SCAN;
+        return 0;
+    }
+
+    /**
+     * Pass the completed frame to the handler and wait for the next frame
+     *
+     * @throws IOException Frame handler exception
+     */
+    private void completeFrame() throws IOException {
+        this.state = STATE_HEADER;
+        this.pendingMarker = false;
+
+        FrameBuffer buffer = this.buffer;
+        buffer.setLength(this.frameLength);
+        buffer.setReceivedTime(System.nanoTime());
+        this.pool.updateExpectedSize(this.frameLength);
+
+        // Hand the buffer over to the handler
+        this.buffer = null;
+        this.frame = null;
+        this.handler.handleFrame(buffer);
+    }
+
+    /**
+     * Return the buffer of an incomplete frame to the pool
+     */
+    public void release() {
+        if (this.buffer != null) {
+            this.buffer.release();
+            this.buffer = null;
+            this.frame = null;
+        }
+    }
+
+    /**
+     * Append bytes to the current frame
+     *
+     * @param data   The source bytes
+     * @param offset Source offset
+     * @param length Amount of bytes
+     * @return false if the frame exceeded the maximum size and has been discarded
+     */
+    private boolean appendFrame(byte[] data, int offset, int length) {
+        int required = this.frameLength + length;
+        if (required > MAX_FRAME_SIZE) {
+            // Corrupted transmission, wait for the next frame
+            this.state = STATE_HEADER;
+            this.pendingMarker = false;
+            return false;
+        }
+
+        ensureCapacity(required);
+        System.arraycopy(data, offset, this.frame, this.frameLength, length);
+        this.frameLength = required;
+        return true;
+    }
+
+    /**
+     * Append bytes to the part header, only the most recent bytes are kept
+     *
+     * @param data   The source bytes
+     * @param offset Source offset
+     * @param length Amount of bytes
+     */
+    private void appendHeader(byte[] data, int offset, int length) {
+        if (this.headerLength + length > HEADER_SIZE) {
+            // Keep the tail of the header
+            int keep = Math.min(length, HEADER_SIZE);
+            offset += length - keep;
+            length = keep;
+            this.headerLength = 0;
+        }
+
+        System.arraycopy(data, offset, this.header, this.headerLength, length);
+        this.headerLength += length;
+    }
+
+    /**
+     * Grow the frame buffer to the given capacity
+     *
+     * @param capacity The required capacity
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > this.frame.length) {
+            this.buffer.setLength(this.frameLength);
+            this.frame = this.buffer.ensureCapacity(capacity);
+        }
+    }
+
+    /**
+     * Find the Content-Length value in the collected part header
+     *
+     * @return The content length or -1 if not present
+     */
+    private int parseContentLength() {
+        int index = indexOfIgnoreCase(this.header, this.headerLength, CONTENT_LENGTH);
+        if (index < 0) {
+            return -1;
+        }
+
+        // Skip separator
+        int position = index + CONTENT_LENGTH.length;
+        while (position < this.headerLength && (this.header[position] == ':' || this.header[position] == ' ')) {
+            position++;
+        }
+
+        // Parse digits
+        int value = 0;
+        int digits = 0;
+        while (position < this.headerLength && this.header[position] >= '0' && this.header[position] <= '9' && digits < 9) {
+            value = value * 10 + (this.header[position] - '0');
+            position++;
+            digits++;
+        }
+        return digits == 0 ? -1 : value;
+    }
+
+    /**
+     * Find a two byte marker (0xFF followed by the given byte) in the given range
+     *
+     * @param data   The bytes to search in
+     * @param from   Start position (inclusive)
+     * @param to     End position (exclusive)
+     * @param second The second byte of the marker
+     * @return Position of the 0xFF byte or -1 if not found
+     */
+    static int indexOfMarker(byte[] data, int from, int to, byte second) {
+        int last = to - 1;
+        for (int i = from; i < last; i++) {
+            if (data[i] == MARKER && data[i + 1] == second) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check if the bytes after an end marker are multipart framing and not compressed image data.
+     * A frame embedding a thumbnail has an end marker inside of it, followed by binary data of the actual image.
+     *
+     * @param data The bytes to check
+     * @param from Start position (inclusive)
+     * @param to   End position (exclusive)
+     * @return The bytes are text until the end or text until the start marker of the next frame
+     */
+    static boolean isPartTrailer(byte[] data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte value = data[i];
+            if (value == MARKER && (i + 1 == to || data[i + 1] == START_OF_IMAGE)) {
+                // At least the part delimiter is between two frames
+                return i > from;
+            }
+            if ((value < 0x20 || value > 0x7E) && value != '\r' && value != '\n' && value != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the given lower case ASCII sequence in the data, ignoring the case of the data
+     *
+     * @param data     The bytes to search in
+     * @param length   Amount of bytes to search in
+     * @param sequence The lower case sequence
+     * @return Position of the sequence or -1 if not found
+     */
+    private static int indexOfIgnoreCase(byte[] data, int length, byte[] sequence) {
+        int last = length - sequence.length;
+        for (int i = last; i >= 0; i--) {
+            int matched = 0;
+            while (matched < sequence.length && (data[i + matched] | 0x20) == sequence[matched]) {
+                matched++;
+            }
+            if (matched == sequence.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Receives completed JPEG frames of the transmission
+     */
+    @FunctionalInterface
+    public interface FrameHandler {
+
+        /**
+         * Handle a completed frame. The handler takes over the reference and has to release the buffer.
+         *
+         * @param frame The buffer containing the compressed JPEG
+         * @throws IOException Processing exception
+         */
+        void handleFrame(FrameBuffer frame) throws IOException;
+    }
+}
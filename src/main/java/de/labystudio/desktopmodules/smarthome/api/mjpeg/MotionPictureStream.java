@@ -1,39 +1,76 @@
 package de.labystudio.desktopmodules.smarthome.api.mjpeg;
 
-import javax.imageio.ImageIO;
+import de.labystudio.desktopmodules.smarthome.api.event.DispatchPolicy;
+import de.labystudio.desktopmodules.smarthome.api.event.EventDispatcher;
+import de.labystudio.desktopmodules.smarthome.api.event.Subscription;
+
 import java.awt.image.BufferedImage;
-import java.io.*;
-import java.net.SocketException;
+import java.io.IOException;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 /**
- * Motion picture stream decoder
+ * Motion picture stream decoder.
+ * The compressed frames are read by a {@link StreamTransport}, either a blocking reader thread or a non-blocking connection
+ * on the shared {@link StreamSelector}. Single snapshots are polled by the {@link SnapshotPoller}.
  *
  * @author LabyStudio
  */
 public class MotionPictureStream {
 
-    private static final int BUFFER_SIZE = 8192;
+    private static final long MIN_RECONNECT_DELAY = 500L;
+    private static final long MAX_RECONNECT_DELAY = 30000L;
+
+    private final Executor decodeExecutor;
+
+    private final FrameBufferPool bufferPool = new FrameBufferPool(3);
+    private final MotionPictureDecoder decoder = new MotionPictureDecoder(true);
 
-    private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(2);
+    private final FrameMailbox mailbox = new FrameMailbox();
+    private final FrameExchange frameExchange = new FrameExchange();
+    private final AtomicBoolean decodeScheduled = new AtomicBoolean();
+    private final StreamStatistics statistics = new StreamStatistics();
 
     private final URL url;
+    private final StreamTransport blockingTransport;
+    private final StreamTransport selectorTransport;
+    private final SnapshotPoller snapshotPoller = new SnapshotPoller(this);
+
+    private volatile StreamSelector streamSelector;
+    private VideoFrame renderFrame;
+    private volatile ViewPort viewPort = ViewPort.FULL;
+
+    private volatile boolean alive = false;
+    private volatile boolean loading = true;
+    private volatile int session;
 
-    private InputStream stream;
-    private ByteArrayOutputStream buffer;
-    private BufferedImage currentFrame;
+    private volatile ConnectionState state = ConnectionState.CLOSED;
+    private volatile boolean reconnect = true;
+    private volatile int stallTimeout = 5000;
 
-    private boolean alive = false;
-    private boolean loading = true;
+    private boolean pipelined = false;
 
-    private boolean isInsideOfFrame = false;
+    private volatile boolean visible = true;
+    private volatile int targetFrameRate = 0;
+    private volatile long lastDecoded;
 
-    private final List<Consumer<BufferedImage>> frameListeners = new ArrayList<>();
+    private volatile boolean standby;
+    private volatile long standbyBandwidth;
+    private volatile URL snapshotUrl;
+    private volatile boolean snapshotStandby;
+    private volatile long snapshotInterval;
+
+    private final EventDispatcher<VideoFrame> frameDispatcher;
+    private final List<Consumer<StreamStatistics>> statisticsListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<ConnectionState>> stateListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<FrameBuffer>> compressedFrameListeners = new CopyOnWriteArrayList<>();
 
     /**
      * A motion picture stream reader (MJPEG decoder)
@@ -41,121 +78,690 @@ public class MotionPictureStream {
      * @param url The remote url to read an decode
      */
     public MotionPictureStream(URL url) {
+        this(url, Executors.newFixedThreadPool(2));
+    }
+
+    /**
+     * A motion picture stream reader (MJPEG decoder) using a private executor for both stages
+     *
+     * @param url      The remote url to read an decode
+     * @param executor The executor for the reader and the decoder stage
+     */
+    private MotionPictureStream(URL url, ExecutorService executor) {
+        this(url, executor, executor);
+    }
+
+    /**
+     * A motion picture stream reader (MJPEG decoder) using shared executors
+     *
+     * @param url            The remote url to read an decode
+     * @param readerExecutor The executor running the blocking reader stage and the frame listeners
+     * @param decodeExecutor The executor running the decoder stage in pipelined mode
+     */
+    public MotionPictureStream(URL url, ExecutorService readerExecutor, Executor decodeExecutor) {
+        this(url, readerExecutor, readerExecutor, decodeExecutor);
+    }
+
+    /**
+     * A motion picture stream reader (MJPEG decoder) using shared executors.
+     * The short tasks run on their own executor, so they don't wait behind the long running readers of a bounded reader pool.
+     *
+     * @param url            The remote url to read an decode
+     * @param readerExecutor The executor running the blocking reader stage and the snapshot polling
+     * @param taskExecutor   The executor running the frame listeners and the name lookups of non-blocking connections
+     * @param decodeExecutor The executor running the decoder stage in pipelined mode
+     */
+    public MotionPictureStream(URL url, Executor readerExecutor, Executor taskExecutor, Executor decodeExecutor) {
         this.url = url;
+        this.decodeExecutor = decodeExecutor;
+        this.blockingTransport = new BlockingTransport(this, url, readerExecutor);
+        this.selectorTransport = new SelectorTransport(this, url, readerExecutor, taskExecutor);
+
+        // Frame listeners run on the task executor, each subscriber holds a lease on its queued frames
+        this.frameDispatcher = new EventDispatcher<>(taskExecutor, VideoFrame::retain, VideoFrame::release);
+    }
+
+    /**
+     * Open the stream and start reading frames asynchronously.
+     * The connection is supervised: if it drops or stalls, it is opened again until the stream is closed.
+     */
+    public synchronized void openAsync() {
+        if (this.alive) {
+            return;
+        }
+
+        this.alive = true;
+        this.loading = true;
+        resume(++this.session);
     }
 
     /**
-     * Open the stream and start reading frames asynchronously
+     * Continue the given session with the transport of the current settings
+     *
+     * @param session The session of the stream
      */
-    public void openAsync() {
-        this.executorService.execute(() -> {
+    void resume(int session) {
+        if (this.streamSelector != null && this.url.getProtocol().equals("http")) {
+            // Read on the shared event loop instead of an own thread
+            this.selectorTransport.open(session);
+        } else {
+            this.blockingTransport.open(session);
+        }
+    }
+
+    /**
+     * Give up the connection of the given session if it is still the open session
+     *
+     * @param session The session of the stream
+     */
+    void closeSession(int session) {
+        synchronized (this) {
+            if (this.session == session && this.alive) {
+                closeQuietly();
+            }
+        }
+    }
+
+    /**
+     * Check if a connection of the given session should keep reading the stream
+     *
+     * @param session The session of the connection
+     * @return The session is alive and the stream is not switched to snapshots
+     */
+    boolean isReading(int session) {
+        return isSession(session) && !isPollingSnapshots();
+    }
+
+    /**
+     * Check if snapshots should be polled instead of streaming
+     *
+     * @return Snapshot mode or snapshot standby is active and a snapshot url is set
+     */
+    boolean isPollingSnapshots() {
+        return (this.snapshotStandby || this.snapshotInterval > 0) && this.snapshotUrl != null;
+    }
+
+    /**
+     * Poll single snapshots until the stream is requested again
+     *
+     * @param session The session of the connection
+     */
+    void pollSnapshots(int session) {
+        updateState(session, ConnectionState.POLLING);
+        this.snapshotPoller.poll(session);
+    }
+
+    /**
+     * Wait until the given delay has passed or the stream has been closed
+     *
+     * @param session  The session of the connection
+     * @param delay    Delay in milliseconds
+     * @param snapshot Stop waiting as soon as the snapshot standby ends
+     * @return false if the session has been closed meanwhile
+     */
+    synchronized boolean await(int session, long delay, boolean snapshot) {
+        long deadline = System.currentTimeMillis() + delay;
+        long remaining = delay;
+
+        while (remaining > 0 && isSession(session) && (!snapshot || isPollingSnapshots())) {
             try {
-                open();
-            } catch (SocketException e) {
-                // Ignore socket closed exception
-            } catch (IOException e) {
-                e.printStackTrace();
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
             }
-        });
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return isSession(session);
     }
 
     /**
-     * Open the stream and start reading frames
+     * Exponential backoff with full jitter, so multiple cameras behind the same access point don't reconnect at once
      *
-     * @throws IOException Read exception
+     * @param attempt Amount of failed attempts in a row
+     * @return Delay in milliseconds
      */
-    private void open() throws IOException {
-        this.alive = true;
-        this.loading = true;
+    static long getReconnectDelay(int attempt) {
+        long delay = Math.min(MAX_RECONNECT_DELAY, MIN_RECONNECT_DELAY << Math.min(attempt, 16));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Check if the given session is still the open session of this stream
+     *
+     * @param session The session of the connection
+     * @return The session is alive
+     */
+    boolean isSession(int session) {
+        return this.alive && this.session == session;
+    }
 
-        // Open stream
-        this.stream = new BufferedInputStream(this.url.openStream(), BUFFER_SIZE);
+    /**
+     * Change the connection state if the given session is still alive and notify the listeners
+     *
+     * @param session The session of the connection
+     * @param state   The new state
+     */
+    void updateState(int session, ConnectionState state) {
+        synchronized (this) {
+            if (!isSession(session) || this.state == state) {
+                return;
+            }
+            this.state = state;
+        }
 
-        int previousByte = 0;
-        int currentByte;
+        for (Consumer<ConnectionState> listener : this.stateListeners) {
+            listener.accept(state);
+        }
+    }
 
-        // Read jpeg images
-        while (this.alive && (currentByte = this.stream.read()) >= 0) {
-            // Read next packet frame
-            BufferedImage frame = read(previousByte, currentByte);
+    /**
+     * Handle a fully received packet frame of the reader stage
+     *
+     * @param session The session of the connection
+     * @param buffer  The buffer containing the compressed frame
+     * @throws IOException Decode exception
+     */
+    void handleFrame(int session, FrameBuffer buffer) throws IOException {
+        this.statistics.recordReceived(buffer.getLength());
+        if (this.state != ConnectionState.STREAMING && !isPollingSnapshots()) {
+            updateState(session, ConnectionState.STREAMING);
+        }
 
-            if (frame != null) {
-                // Frame is completed
-                this.loading = false;
-                this.currentFrame = frame;
+        // Pass the compressed frame to the listeners before it is handed over to the decoder
+        for (Consumer<FrameBuffer> listener : this.compressedFrameListeners) {
+            listener.accept(buffer);
+        }
 
-                // Call listeners
-                for (Consumer<BufferedImage> listener : this.frameListeners) {
-                    listener.accept(frame);
+        if (this.pipelined || this.streamSelector != null) {
+            // Hand the frame over to the decoder stage, the event loop of the selector must never decode
+            if (this.mailbox.put(buffer)) {
+                if (getDecodeDelay() == 0) {
+                    this.statistics.recordDropped();
+                } else {
+                    this.statistics.recordSkipped();
                 }
             }
+            scheduleDecode();
+        } else if (getDecodeDelay() == 0) {
+            // Decode on the reader thread
+            this.mailbox.clear();
+            try {
+                decode(buffer);
+            } catch (IOException | RuntimeException e) {
+                // Skip broken frame, the connection is still intact
+                e.printStackTrace();
+            }
+        } else {
+            // Frame wouldn't be painted, keep only the newest one to show it as soon as the stream is visible again
+            this.statistics.recordSkipped();
+            this.mailbox.put(buffer);
+        }
+
+        // Update rates
+        if (this.statistics.sample(System.currentTimeMillis())) {
+            for (Consumer<StreamStatistics> listener : this.statisticsListeners) {
+                listener.accept(this.statistics);
+            }
 
-            previousByte = currentByte;
+            // Switch to snapshots if the standby stream exceeds its bandwidth
+            long bandwidth = this.standbyBandwidth;
+            if (this.standby && bandwidth > 0 && this.snapshotUrl != null && this.statistics.getBytesPerSecond() > bandwidth) {
+                this.snapshotStandby = true;
+            }
         }
+    }
 
-        // Close stream
-        close();
+    /**
+     * Submit a decoder task if the newest frame should be painted.
+     * There is at most one pending task per stream, so streams are decoded in turns on a shared executor.
+     */
+    private void scheduleDecode() {
+        if (this.mailbox.hasFrame() && getDecodeDelay() == 0 && this.decodeScheduled.compareAndSet(false, true)) {
+            this.decodeExecutor.execute(this::decodeNext);
+        }
+    }
+
+    /**
+     * Decoder stage that decodes the newest frame of the mailbox.
+     * Frames that arrive before the decoder is due stay in the mailbox and are replaced by newer ones.
+     */
+    private void decodeNext() {
+        try {
+            FrameBuffer buffer = this.alive && getDecodeDelay() == 0 ? this.mailbox.poll() : null;
+            if (buffer != null) {
+                decode(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Skip broken frame
+            e.printStackTrace();
+        } finally {
+            this.decodeScheduled.set(false);
+
+            // A new frame arrived while decoding
+            scheduleDecode();
+        }
     }
 
     /**
-     * Read a packet frame and return a video frame when the packet is fully received
+     * Decode a compressed frame and pass it to the listeners
      *
-     * @param previousByte The previous byte of the video transmission
-     * @param currentByte  The current byte of the video transmission
-     * @return The fully received packet as picture
-     * @throws IOException Buffer write exception
+     * @param buffer The buffer containing the compressed frame, the reference is released
+     * @throws IOException Decode exception
      */
-    private BufferedImage read(int previousByte, int currentByte) throws IOException {
-        boolean isStartOfFrame = previousByte == 0xFF && currentByte == 0xD8;
-        boolean isEndOfFrame = previousByte == 0xFF && currentByte == 0xD9;
+    private void decode(FrameBuffer buffer) throws IOException {
+        VideoFrame frame;
+        try {
+            synchronized (this.decoder) {
+                // Take a frame that is not visible right now
+                frame = this.frameExchange.lock();
+                if (frame == null) {
+                    return;
+                }
 
-        // Frame start
-        if (isStartOfFrame) {
-            this.isInsideOfFrame = true;
+                // Decode into the reused image
+                long start = System.nanoTime();
+                try {
+                    this.decoder.decode(buffer, this.viewPort, frame);
+                    frame.setReceivedTime(buffer.getReceivedTime());
+                } catch (IOException | RuntimeException e) {
+                    this.frameExchange.discard(frame);
+                    throw e;
+                }
+                this.frameExchange.publish(frame);
+                this.lastDecoded = System.currentTimeMillis();
+                this.statistics.recordDecoded(System.nanoTime() - start);
 
-            // Close buffer
-            if (this.buffer != null) {
-                this.buffer.close();
+                // Queue the frame for the listeners before the decoder can lock it again
+                if (this.frameDispatcher.hasSubscribers()) {
+                    this.frameDispatcher.dispatch(frame);
+                }
             }
+        } finally {
+            buffer.release();
+        }
+
+        // Frame is completed
+        this.loading = false;
+    }
 
-            // New buffer
-            this.buffer = new ByteArrayOutputStream(BUFFER_SIZE);
-            this.buffer.write((byte) previousByte);
+    /**
+     * Time until the next frame has to be decoded to satisfy the visibility and the target frame rate
+     *
+     * @return Delay in milliseconds, 0 if the next frame should be decoded and {@link Long#MAX_VALUE} if no frame is needed
+     */
+    private long getDecodeDelay() {
+        if (!this.visible) {
+            return Long.MAX_VALUE;
         }
 
-        // Write frame
-        if (this.isInsideOfFrame) {
-            this.buffer.write((byte) currentByte);
+        int frameRate = this.targetFrameRate;
+        if (frameRate <= 0) {
+            return 0;
+        }
+
+        long nextDecode = this.lastDecoded + 1000L / frameRate;
+        return Math.max(0, nextDecode - System.currentTimeMillis());
+    }
+
+    /**
+     * Decode the frame that was kept in the mailbox after the demand has changed
+     */
+    private void updateDemand() {
+        scheduleDecode();
+    }
+
+    /**
+     * Close the stream and stop reconnecting
+     */
+    public void close() throws IOException {
+        boolean changed;
+        synchronized (this) {
+            this.alive = false;
+            this.snapshotStandby = false;
+            this.mailbox.clear();
 
-            // Frame end
-            if (isEndOfFrame) {
-                this.isInsideOfFrame = false;
+            // Wake up a pending reconnect
+            notifyAll();
 
-                // Return full image
-                return toBufferedImage(buffer);
+            changed = this.state != ConnectionState.CLOSED;
+            this.state = ConnectionState.CLOSED;
+        }
+
+        this.selectorTransport.close();
+        this.blockingTransport.close();
+
+        if (changed) {
+            for (Consumer<ConnectionState> listener : this.stateListeners) {
+                listener.accept(ConnectionState.CLOSED);
             }
         }
+    }
 
-        // No image in this step
-        return null;
+    /**
+     * Close the stream and ignore the exception of the underlying connection
+     */
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            // Connection is gone anyway
+        }
     }
 
     /**
-     * Close the stream
+     * Split reading and decoding into two stages.
+     * The reader stage only extracts compressed frames and the decoder stage always decodes the newest one,
+     * so the picture stays live even if decoding is slower than the camera.
+     * Has to be set before the stream is opened.
+     *
+     * @param pipelined Use separate reader and decoder stages
      */
-    public void close() throws IOException {
-        this.alive = false;
-        this.stream.close();
-        this.buffer.close();
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Read the stream with a non-blocking connection on the given event loop instead of an own reader thread.
+     * Only plain http urls are supported, other urls keep using the blocking reader.
+     * Applies to the next opening of the stream.
+     *
+     * @param streamSelector The shared event loop or null to use the blocking reader
+     */
+    public void setStreamSelector(StreamSelector streamSelector) {
+        this.streamSelector = streamSelector;
+    }
+
+    /**
+     * Keep the connection warm without decoding any frame.
+     * Only the newest compressed frame is kept, so the stream shows a current image as soon as it is visible again.
+     * If the stream exceeds the standby bandwidth and a snapshot url is set, single snapshots are polled instead.
+     *
+     * @param standby The stream is in standby
+     */
+    public void setStandby(boolean standby) {
+        if (this.standby == standby) {
+            return;
+        }
+
+        this.standby = standby;
+        if (!standby) {
+            // Switch back to the stream
+            synchronized (this) {
+                this.snapshotStandby = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Poll single snapshots of the snapshot url instead of streaming, for example for overview tiles.
+     * Unchanged snapshots are not decoded again. Switching back to 0 resumes the stream immediately.
+     * Has no effect without a snapshot url.
+     *
+     * @param snapshotInterval Delay between the snapshots in milliseconds or 0 to stream
+     * @see #setSnapshotUrl(URL)
+     */
+    public void setSnapshotInterval(long snapshotInterval) {
+        if (this.snapshotInterval == snapshotInterval) {
+            return;
+        }
+
+        this.snapshotInterval = snapshotInterval;
+        if (snapshotInterval == 0) {
+            // Wake up the polling thread to switch back to the stream
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Set the bandwidth the stream may use in standby
+     *
+     * @param standbyBandwidth Bytes per second or 0 for no limit
+     */
+    public void setStandbyBandwidth(long standbyBandwidth) {
+        this.standbyBandwidth = standbyBandwidth;
+    }
+
+    /**
+     * Set the url of a single JPEG snapshot that is polled in standby if the stream exceeds the standby bandwidth
+     *
+     * @param snapshotUrl The snapshot url or null to keep streaming in standby
+     */
+    public void setSnapshotUrl(URL snapshotUrl) {
+        this.snapshotUrl = snapshotUrl;
+    }
+
+    /**
+     * Reopen the connection automatically if it drops or stalls
+     *
+     * @param reconnect Reconnect until the stream is closed
+     */
+    public void setReconnect(boolean reconnect) {
+        this.reconnect = reconnect;
+    }
+
+    /**
+     * Set the time without any received bytes after which the connection is considered stalled and reopened.
+     * Applies to the next connection.
+     *
+     * @param stallTimeout Timeout in milliseconds
+     */
+    public void setStallTimeout(int stallTimeout) {
+        this.stallTimeout = stallTimeout;
     }
 
     /**
-     * Register a frame listener that will be called when receiving a full image frame
+     * Set the visible region of the camera image and the size it is drawn with.
+     * Following frames are only decoded in the resolution required for the view port.
+     *
+     * @param viewPort The view port or {@link ViewPort#FULL} to decode the full image
+     */
+    public void setViewPort(ViewPort viewPort) {
+        this.viewPort = viewPort;
+    }
+
+    /**
+     * Set whether the stream is currently painted on the screen.
+     * The stream keeps reading while invisible but frames are only decoded when they will be painted.
+     *
+     * @param visible The stream is visible
+     */
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+        updateDemand();
+    }
+
+    /**
+     * Set the rate the frames are painted with. Frames that arrive faster are not decoded.
+     *
+     * @param targetFrameRate Frames per second or 0 to decode every frame
+     */
+    public void setTargetFrameRate(int targetFrameRate) {
+        this.targetFrameRate = targetFrameRate;
+        updateDemand();
+    }
+
+    /**
+     * Amount of stale frames the decoder stage skipped in pipelined mode
+     *
+     * @return Dropped frame count
+     */
+    public long getDroppedFrames() {
+        return this.statistics.getDroppedFrames();
+    }
+
+    /**
+     * Rolling performance counters of this stream
+     *
+     * @return The statistics of this stream
+     */
+    public StreamStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Register a listener that will be called with the updated statistics once per second while frames are received
+     *
+     * @param listener The statistics listener
+     */
+    public void registerStatisticsListener(Consumer<StreamStatistics> listener) {
+        this.statisticsListeners.add(listener);
+    }
+
+    /**
+     * Register a frame listener that will be called with the newest decoded image.
+     * The listener runs on the task executor and misses images while it is busy.
      *
      * @param listener The frame listener
+     * @return The subscription handle to unregister the listener
+     */
+    public Subscription<VideoFrame> registerListener(Consumer<BufferedImage> listener) {
+        return this.frameDispatcher.subscribe(frame -> listener.accept(frame.getImage()));
+    }
+
+    /**
+     * Subscribe to the decoded frames with an own queue.
+     * The stream holds a lease on every queued frame, so its image doesn't change until the listener returned.
+     * Frames are only decoded while the exchange has a free frame, keep the capacity small.
+     *
+     * @param listener The frame listener called on the task executor
+     * @param policy   What happens if the listener falls behind
+     * @param capacity Maximum amount of pending frames
+     * @return The subscription handle to unsubscribe and to read the lag counters
+     */
+    public Subscription<VideoFrame> subscribeFrames(Consumer<VideoFrame> listener, DispatchPolicy policy, int capacity) {
+        return this.frameDispatcher.subscribe(listener, policy, capacity);
+    }
+
+    /**
+     * Register a listener that will be called on the reader thread with every received compressed frame.
+     * The buffer is only valid during the call, the listener has to copy it or call {@link FrameBuffer#retain()}.
+     * The listener must not block, otherwise the reader falls behind the camera.
+     *
+     * @param listener The compressed frame listener
+     */
+    public void registerCompressedFrameListener(Consumer<FrameBuffer> listener) {
+        this.compressedFrameListeners.add(listener);
+    }
+
+    /**
+     * Remove a compressed frame listener
+     *
+     * @param listener The compressed frame listener
+     */
+    public void unregisterCompressedFrameListener(Consumer<FrameBuffer> listener) {
+        this.compressedFrameListeners.remove(listener);
+    }
+
+    /**
+     * Register a listener that will be called when the connection state changes
+     *
+     * @param listener The state listener
+     */
+    public void registerStateListener(Consumer<ConnectionState> listener) {
+        this.stateListeners.add(listener);
+    }
+
+    /**
+     * Current state of the supervised connection
+     *
+     * @return The connection state
+     */
+    public ConnectionState getConnectionState() {
+        return state;
+    }
+
+    /**
+     * The event loop for non-blocking connections
+     *
+     * @return The stream selector or null to use the blocking reader
+     */
+    StreamSelector getStreamSelector() {
+        return streamSelector;
+    }
+
+    /**
+     * The pool of the compressed frame buffers of this stream
+     *
+     * @return The frame buffer pool
+     */
+    FrameBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Time without any received bytes after which the connection is considered stalled
+     *
+     * @return Timeout in milliseconds
      */
-    public void registerListener(Consumer<BufferedImage> listener) {
-        this.frameListeners.add(listener);
+    int getStallTimeout() {
+        return stallTimeout;
+    }
+
+    /**
+     * Indicates if the connection is reopened after it dropped or stalled
+     *
+     * @return Reconnect until the stream is closed
+     */
+    boolean isReconnect() {
+        return reconnect;
+    }
+
+    /**
+     * The url of the single JPEG snapshots
+     *
+     * @return The snapshot url or null
+     */
+    URL getSnapshotUrl() {
+        return snapshotUrl;
+    }
+
+    /**
+     * Delay between the snapshots in snapshot mode
+     *
+     * @return Delay in milliseconds or 0 to stream
+     */
+    long getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * Indicates if snapshots are polled because the standby stream exceeded its bandwidth
+     *
+     * @return Snapshot standby state
+     */
+    boolean isSnapshotStandby() {
+        return snapshotStandby;
+    }
+
+    /**
+     * The bandwidth the stream may use in standby
+     *
+     * @return Bytes per second or 0 for no limit
+     */
+    long getStandbyBandwidth() {
+        return standbyBandwidth;
+    }
+
+    /**
+     * Indicates if the stream is currently painted on the screen
+     *
+     * @return The stream is visible
+     */
+    boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Indicates if the stream is kept warm without decoding
+     *
+     * @return Standby state
+     */
+    public boolean isStandby() {
+        return standby;
     }
 
     /**
@@ -177,26 +783,40 @@ public class MotionPictureStream {
     }
 
     /**
-     * Get the last fully received frame
+     * Get the last fully received frame.
+     * Must only be called from the render thread, see {@link #getCurrentVideoFrame()}.
      *
      * @return Buffered image object
      */
     public BufferedImage getCurrentFrame() {
-        return currentFrame;
+        VideoFrame frame = getCurrentVideoFrame();
+        return frame == null ? null : frame.getImage();
     }
 
     /**
-     * Convert byte array input to buffered image
+     * Get the last fully received frame and the region of the camera image it covers.
+     * Must only be called from the render thread. The frame stays untouched by the decoder until the next call.
      *
-     * @param buffer The byte array
-     * @return Buffered image from the byte array
-     * @throws IOException Read exception
+     * @return Video frame object
      */
-    private BufferedImage toBufferedImage(ByteArrayOutputStream buffer) throws IOException {
-        ByteArrayInputStream imageBuffer = new ByteArrayInputStream(buffer.toByteArray());
-        BufferedImage bufferedImage = ImageIO.read(imageBuffer);
-        imageBuffer.close();
-        return bufferedImage;
+    public VideoFrame getCurrentVideoFrame() {
+        VideoFrame frame = this.renderFrame;
+
+        // Switch to the newest frame
+        if (frame != this.frameExchange.peek()) {
+            VideoFrame current = this.frameExchange.acquire();
+            if (frame != null) {
+                frame.release();
+            }
+            this.renderFrame = frame = current;
+
+            // Time from receiving the frame until it is painted
+            if (current != null) {
+                this.statistics.recordRendered(current.getReceivedTime());
+            }
+        }
+
+        return frame;
     }
 
 }
@@ -0,0 +1,185 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * Transport that reads the stream with a non-blocking {@link SelectorConnection} on the shared {@link StreamSelector}.
+ * Only plain http urls are supported.
+ *
+ * @author LabyStudio
+ */
+class SelectorTransport implements StreamTransport {
+
+    private static final int RECEIVE_BUFFER_SIZE = 64 * 1024;
+
+    private final MotionPictureStream stream;
+    private final URL url;
+    private final Executor pollExecutor;
+    private final Executor taskExecutor;
+
+    private SelectorConnection connection;
+    private ByteBuffer receiveBuffer;
+
+    /**
+     * Create the selector transport of a stream
+     *
+     * @param stream       The stream receiving the frames
+     * @param url          The remote http url
+     * @param pollExecutor The executor for the snapshot polling
+     * @param taskExecutor The executor for the blocking name lookup
+     */
+    SelectorTransport(MotionPictureStream stream, URL url, Executor pollExecutor, Executor taskExecutor) {
+        this.stream = stream;
+        this.url = url;
+        this.pollExecutor = pollExecutor;
+        this.taskExecutor = taskExecutor;
+    }
+
+    @Override
+    public void open(int session) {
+        connect(session, 0);
+    }
+
+    /**
+     * Start a non-blocking connection attempt on the stream selector.
+     * Ending connections are reported to {@link #onConnectionClosed(SelectorConnection, IOException)},
+     * which reconnects with the same backoff as the blocking transport.
+     *
+     * @param session The session of this connection
+     * @param attempt Amount of failed attempts in a row
+     */
+    private void connect(int session, int attempt) {
+        StreamSelector selector = this.stream.getStreamSelector();
+        if (selector == null) {
+            // Transport changed, continue with the blocking reader
+            this.stream.resume(session);
+            return;
+        }
+
+        // Don't connect the stream while snapshots are polled
+        if (this.stream.isPollingSnapshots()) {
+            pollSnapshots(session);
+            return;
+        }
+
+        SelectorConnection connection;
+        synchronized (this.stream) {
+            if (!this.stream.isSession(session)) {
+                return;
+            }
+
+            // The receive buffer is reused by all connections of this stream
+            if (this.receiveBuffer == null) {
+                this.receiveBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+            }
+
+            connection = new SelectorConnection(selector, this, session, attempt, this.url,
+                    this.stream.getBufferPool(), this.receiveBuffer, this.stream.getStallTimeout());
+            this.connection = connection;
+        }
+
+        this.stream.updateState(session, attempt == 0 ? ConnectionState.CONNECTING : ConnectionState.RECONNECTING);
+
+        // Resolve the host on the task executor, a name lookup would block the event loop
+        this.taskExecutor.execute(() -> {
+            connection.resolve();
+            selector.register(connection);
+        });
+    }
+
+    /**
+     * Called on the stream selector when a non-blocking connection ended
+     *
+     * @param connection The closed connection
+     * @param cause      The exception that ended the connection or null if it ended regularly
+     */
+    void onConnectionClosed(SelectorConnection connection, IOException cause) {
+        int session = connection.getSession();
+        synchronized (this.stream) {
+            if (this.connection == connection) {
+                this.connection = null;
+            }
+        }
+
+        if (!this.stream.isSession(session)) {
+            return;
+        }
+
+        if (cause != null && !(cause instanceof SocketTimeoutException) && !(cause instanceof SocketException)) {
+            cause.printStackTrace();
+        }
+
+        if (this.stream.getStreamSelector() == null) {
+            // Transport changed, continue with the blocking reader
+            this.stream.resume(session);
+            return;
+        }
+
+        if (this.stream.isPollingSnapshots()) {
+            pollSnapshots(session);
+            return;
+        }
+
+        if (!this.stream.isReconnect()) {
+            this.stream.closeSession(session);
+            return;
+        }
+
+        // Start with the shortest delay again after a working connection
+        int attempt = connection.hasReceivedFrames() ? 0 : connection.getAttempt();
+
+        this.stream.updateState(session, ConnectionState.RECONNECTING);
+        connection.getLoop().schedule(() -> connect(session, attempt + 1), MotionPictureStream.getReconnectDelay(attempt));
+    }
+
+    /**
+     * Poll snapshots with blocking requests on the poll executor and connect again once the stream is requested again
+     *
+     * @param session The session of the stream
+     */
+    private void pollSnapshots(int session) {
+        this.pollExecutor.execute(() -> {
+            this.stream.pollSnapshots(session);
+            connect(session, 0);
+        });
+    }
+
+    /**
+     * Pass a received frame of a connection to the stream
+     *
+     * @param session The session of the connection
+     * @param buffer  The buffer containing the compressed frame
+     * @throws IOException Decode exception
+     */
+    void handleFrame(int session, FrameBuffer buffer) throws IOException {
+        this.stream.handleFrame(session, buffer);
+    }
+
+    /**
+     * Check if a connection of the given session should keep reading the stream
+     *
+     * @param session The session of the connection
+     * @return The session is alive and the stream is not switched to snapshots
+     */
+    boolean isReading(int session) {
+        return this.stream.isReading(session);
+    }
+
+    @Override
+    public void close() {
+        SelectorConnection connection;
+        synchronized (this.stream) {
+            connection = this.connection;
+            this.connection = null;
+        }
+
+        if (connection != null) {
+            connection.cancel();
+        }
+    }
+}
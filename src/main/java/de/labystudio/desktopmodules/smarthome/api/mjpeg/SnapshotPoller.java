@@ -0,0 +1,171 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.zip.CRC32;
+
+/**
+ * Polls single JPEG snapshots of a {@link MotionPictureStream} instead of streaming.
+ * The requests are conditional if the camera sends validators and unchanged snapshots are detected by checksum,
+ * so an unchanged image is not decoded again.
+ *
+ * @author LabyStudio
+ */
+class SnapshotPoller {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final long MIN_SNAPSHOT_INTERVAL = 1000L;
+    private static final int MAX_SNAPSHOT_SIZE = 32 * 1024 * 1024;
+
+    private final MotionPictureStream stream;
+
+    // Validators of the last snapshot, only used by the polling thread
+    private String snapshotETag;
+    private String snapshotLastModified;
+    private long snapshotChecksum = -1;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Create the snapshot poller of a stream
+     *
+     * @param stream The stream receiving the snapshots
+     */
+    SnapshotPoller(MotionPictureStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Poll single snapshots until the stream is requested again.
+     * In standby the newest snapshot is kept in the mailbox and the interval is chosen so the snapshots stay within the standby bandwidth.
+     * In snapshot mode the snapshots are decoded and shown, unchanged snapshots are skipped without decoding.
+     *
+     * @param session The session of the connection
+     */
+    void poll(int session) {
+        // The first snapshot is always shown
+        this.snapshotETag = null;
+        this.snapshotLastModified = null;
+        this.snapshotChecksum = -1;
+
+        while (this.stream.isSession(session) && this.stream.isPollingSnapshots()) {
+            long delay = Math.max(MIN_SNAPSHOT_INTERVAL, this.stream.getSnapshotInterval());
+            boolean standby = this.stream.isSnapshotStandby();
+            URL url = this.stream.getSnapshotUrl();
+
+            // Snapshots of an invisible tile wouldn't be painted
+            if (url != null && (this.stream.isVisible() || standby)) {
+                try {
+                    FrameBuffer buffer = fetch(url);
+                    if (buffer == null) {
+                        // Image didn't change since the last snapshot
+                        this.stream.getStatistics().recordSkipped();
+                    } else {
+                        long bandwidth = this.stream.getStandbyBandwidth();
+                        if (standby && bandwidth > 0) {
+                            delay = Math.max(delay, buffer.getLength() * 1000L / bandwidth);
+                        }
+
+                        this.stream.handleFrame(session, buffer);
+                    }
+                } catch (IOException e) {
+                    // Camera not reachable, try again with the next snapshot
+                }
+            }
+
+            if (!this.stream.await(session, delay, true)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Download a single JPEG image of the snapshot url into a frame buffer.
+     * The request is conditional if the camera sent validators for the last snapshot and the response body is compared by checksum,
+     * so an unchanged image is not decoded again. The response is read completely to keep the connection alive for the next poll.
+     *
+     * @param url The snapshot url
+     * @return The buffer containing the compressed image or null if the image didn't change
+     * @throws IOException Read exception
+     */
+    private FrameBuffer fetch(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(this.stream.getStallTimeout());
+        connection.setUseCaches(false);
+
+        if (this.snapshotETag != null) {
+            connection.setRequestProperty("If-None-Match", this.snapshotETag);
+        }
+        if (this.snapshotLastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", this.snapshotLastModified);
+        }
+
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+
+            int responseCode;
+            try {
+                responseCode = httpConnection.getResponseCode();
+            } catch (IOException e) {
+                // Consume the error response to keep the connection alive
+                InputStream errorStream = httpConnection.getErrorStream();
+                if (errorStream != null) {
+                    errorStream.close();
+                }
+                throw e;
+            }
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                connection.getInputStream().close();
+                return null;
+            }
+
+            this.snapshotETag = connection.getHeaderField("ETag");
+            this.snapshotLastModified = connection.getHeaderField("Last-Modified");
+        }
+
+        FrameBuffer buffer = this.stream.getBufferPool().acquire();
+        try (InputStream stream = connection.getInputStream()) {
+            byte[] data = buffer.ensureCapacity(Math.max(0, connection.getContentLength()));
+
+            int length = 0;
+            int read;
+            while (true) {
+                // Grow for snapshots without content length
+                if (length == data.length) {
+                    if (length >= MAX_SNAPSHOT_SIZE) {
+                        throw new IOException("Snapshot exceeds " + MAX_SNAPSHOT_SIZE + " bytes");
+                    }
+                    buffer.setLength(length);
+                    data = buffer.ensureCapacity(length * 2);
+                }
+
+                read = stream.read(data, length, data.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+
+            buffer.setLength(length);
+            buffer.setReceivedTime(System.nanoTime());
+
+            // Skip the image if the camera doesn't support conditional requests but sent the same image again
+            this.crc.reset();
+            this.crc.update(data, 0, length);
+            long checksum = this.crc.getValue() ^ ((long) length << 32);
+            if (checksum == this.snapshotChecksum) {
+                buffer.release();
+                return null;
+            }
+            this.snapshotChecksum = checksum;
+            return buffer;
+        } catch (IOException e) {
+            buffer.release();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Event loop that reads the connections of many motion picture streams on a single thread.
+ * The connections are non-blocking sockets registered on one selector, so the thread count doesn't grow with the cameras.
+ * Reconnect delays and stall timeouts are handled by the loop as well.
+ * <p>
+ * Everything running on the loop must not block: streams using the selector always decode on the decoder stage
+ * and resolve the host names of their connections on the reader executor.
+ *
+ * @author LabyStudio
+ */
+public class StreamSelector {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long TIMEOUT_CHECK_INTERVAL = 250L;
+
+    private final Selector selector;
+    private final Thread thread;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private final List<SelectorConnection> connections = new ArrayList<>();
+
+    // Shared by all connections, the received bytes are copied into it before they are parsed
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+
+    private long lastTimeoutCheck;
+    private volatile int connectionCount;
+    private volatile boolean running = true;
+
+    /**
+     * Open the selector and start the event loop thread
+     *
+     * @throws IOException The selector could not be opened
+     */
+    public StreamSelector() throws IOException {
+        this.selector = Selector.open();
+
+        this.thread = new Thread(this::run, "MJPEG Selector");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Run a task on the event loop
+     *
+     * @param task The task
+     */
+    void execute(Runnable task) {
+        this.tasks.add(task);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Run a task on the event loop after the given delay
+     *
+     * @param task  The task
+     * @param delay Delay in milliseconds
+     */
+    void schedule(Runnable task, long delay) {
+        long deadline = System.currentTimeMillis() + delay;
+        execute(() -> this.timers.add(new Timer(deadline, task)));
+    }
+
+    /**
+     * Start a connection on the event loop
+     *
+     * @param connection The new connection
+     */
+    void register(SelectorConnection connection) {
+        execute(() -> {
+            this.connections.add(connection);
+            this.connectionCount = this.connections.size();
+            connection.start(this.selector);
+        });
+    }
+
+    /**
+     * Remove a closed connection, called on the event loop
+     *
+     * @param connection The closed connection
+     */
+    void remove(SelectorConnection connection) {
+        this.connections.remove(connection);
+        this.connectionCount = this.connections.size();
+    }
+
+    /**
+     * Close all connections and stop the event loop.
+     * Tasks that have been submitted before, like the cancellation of a closed stream, still run.
+     */
+    public void close() {
+        execute(() -> this.running = false);
+
+        if (Thread.currentThread() != this.thread) {
+            try {
+                this.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The event loop
+     */
+    private void run() {
+        try {
+            loop();
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Handle tasks, socket events and timers until the loop is closed
+     */
+    private void loop() {
+        while (this.running) {
+            try {
+                this.selector.select(getSelectTimeout());
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+
+            // Tasks of other threads
+            Runnable task;
+            while ((task = this.tasks.poll()) != null) {
+                runSafely(task);
+            }
+
+            // Socket events
+            Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+
+                SelectorConnection connection = (SelectorConnection) key.attachment();
+                runSafely(() -> connection.handle(key, this.chunk));
+            }
+
+            long now = System.currentTimeMillis();
+
+            // Due timers
+            while (!this.timers.isEmpty() && this.timers.peek().deadline <= now) {
+                runSafely(this.timers.poll().task);
+            }
+
+            // Connect and stall timeouts
+            if (now - this.lastTimeoutCheck >= TIMEOUT_CHECK_INTERVAL) {
+                this.lastTimeoutCheck = now;
+                for (SelectorConnection connection : new ArrayList<>(this.connections)) {
+                    runSafely(() -> connection.checkTimeout(now));
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the remaining connections and the selector
+     */
+    private void shutdown() {
+        this.running = false;
+
+        for (SelectorConnection connection : new ArrayList<>(this.connections)) {
+            runSafely(() -> connection.close(null));
+        }
+        this.tasks.clear();
+        this.timers.clear();
+
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Time the selector may wait for socket events until the next timer or timeout check is due
+     *
+     * @return Timeout in milliseconds, never 0 since that would wait forever
+     */
+    private long getSelectTimeout() {
+        long timeout = TIMEOUT_CHECK_INTERVAL;
+        if (!this.timers.isEmpty()) {
+            timeout = Math.min(timeout, this.timers.peek().deadline - System.currentTimeMillis());
+        }
+        return Math.max(1, timeout);
+    }
+
+    /**
+     * Run a task without letting an exception end the event loop
+     *
+     * @param task The task
+     */
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Amount of open connections
+     *
+     * @return Connection count
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * A delayed task of the event loop
+     */
+    private static class Timer implements Comparable<Timer> {
+
+        private final long deadline;
+        private final Runnable task;
+
+        /**
+         * Create a delayed task
+         *
+         * @param deadline Time to run the task in {@link System#currentTimeMillis()}
+         * @param task     The task
+         */
+        private Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(this.deadline, other.deadline);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+/**
+ * Rolling performance counters of a motion picture stream.
+ * All values are primitive counters and fixed histograms, so collecting them doesn't allocate.
+ * Every counter has a single writer: the reader stage, the decoder stage or the render thread.
+ *
+ * @author LabyStudio
+ */
+public class StreamStatistics {
+
+    private static final long SAMPLE_INTERVAL = 1000L;
+
+    private final TimeHistogram decodeTime = new TimeHistogram(SAMPLE_INTERVAL * 5);
+    private final TimeHistogram latency = new TimeHistogram(SAMPLE_INTERVAL * 5);
+
+    // Written by the reader stage
+    private volatile long receivedFrames;
+    private volatile long receivedBytes;
+    private volatile long droppedFrames;
+    private volatile long skippedFrames;
+
+    // Written by the decoder stage
+    private volatile long decodedFrames;
+
+    // Rates of the last sample
+    private volatile float receivedFrameRate;
+    private volatile float decodedFrameRate;
+    private volatile float droppedFrameRate;
+    private volatile long bytesPerSecond;
+    private volatile long lastSample;
+
+    private long sampledReceivedFrames;
+    private long sampledDecodedFrames;
+    private long sampledDroppedFrames;
+    private long sampledReceivedBytes;
+
+    /**
+     * Record a received compressed frame. Called by the reader stage.
+     *
+     * @param length Length of the frame in bytes
+     */
+    void recordReceived(int length) {
+        this.receivedFrames++;
+        this.receivedBytes += length;
+    }
+
+    /**
+     * Record a stale frame that was replaced before it could be decoded. Called by the reader stage.
+     */
+    void recordDropped() {
+        this.droppedFrames++;
+    }
+
+    /**
+     * Record a frame that wasn't decoded because it wouldn't be painted. Called by the reader stage.
+     */
+    void recordSkipped() {
+        this.skippedFrames++;
+    }
+
+    /**
+     * Record a decoded frame. Called by the decoder stage.
+     *
+     * @param nanos Decode duration in nanoseconds
+     */
+    void recordDecoded(long nanos) {
+        this.decodedFrames++;
+        this.decodeTime.record(nanos / 1000L);
+    }
+
+    /**
+     * Record a frame that has been picked up by the render thread
+     *
+     * @param receivedTime The {@link System#nanoTime()} the frame was received at
+     */
+    void recordRendered(long receivedTime) {
+        this.latency.record((System.nanoTime() - receivedTime) / 1000L);
+    }
+
+    /**
+     * Update the rates if the sample interval has passed. Called by the reader stage.
+     *
+     * @param now Current time in milliseconds
+     * @return true if a new sample has been taken
+     */
+    boolean sample(long now) {
+        long elapsed = now - this.lastSample;
+        if (elapsed < SAMPLE_INTERVAL) {
+            return false;
+        }
+
+        long receivedFrames = this.receivedFrames;
+        long decodedFrames = this.decodedFrames;
+        long droppedFrames = this.droppedFrames;
+        long receivedBytes = this.receivedBytes;
+
+        // Skip the first sample after a pause
+        if (elapsed < SAMPLE_INTERVAL * 2) {
+            this.receivedFrameRate = (receivedFrames - this.sampledReceivedFrames) * 1000F / elapsed;
+            this.decodedFrameRate = (decodedFrames - this.sampledDecodedFrames) * 1000F / elapsed;
+            this.droppedFrameRate = (droppedFrames - this.sampledDroppedFrames) * 1000F / elapsed;
+            this.bytesPerSecond = (receivedBytes - this.sampledReceivedBytes) * 1000L / elapsed;
+        }
+
+        this.sampledReceivedFrames = receivedFrames;
+        this.sampledDecodedFrames = decodedFrames;
+        this.sampledDroppedFrames = droppedFrames;
+        this.sampledReceivedBytes = receivedBytes;
+        this.lastSample = now;
+        return true;
+    }
+
+    /**
+     * Check if the rates are still up to date
+     *
+     * @return The last sample is recent
+     */
+    private boolean isCurrent() {
+        return this.lastSample + SAMPLE_INTERVAL * 2 >= System.currentTimeMillis();
+    }
+
+    /**
+     * Received frames per second
+     *
+     * @return Frame rate
+     */
+    public float getReceivedFrameRate() {
+        return isCurrent() ? this.receivedFrameRate : 0;
+    }
+
+    /**
+     * Decoded frames per second
+     *
+     * @return Frame rate
+     */
+    public float getDecodedFrameRate() {
+        return isCurrent() ? this.decodedFrameRate : 0;
+    }
+
+    /**
+     * Stale frames per second that were replaced before they could be decoded
+     *
+     * @return Frame rate
+     */
+    public float getDroppedFrameRate() {
+        return isCurrent() ? this.droppedFrameRate : 0;
+    }
+
+    /**
+     * Received compressed frame bytes per second
+     *
+     * @return Bytes per second
+     */
+    public long getBytesPerSecond() {
+        return isCurrent() ? this.bytesPerSecond : 0;
+    }
+
+    /**
+     * Average time to decode a frame
+     *
+     * @return Duration in microseconds
+     */
+    public long getAverageDecodeTime() {
+        return this.decodeTime.getAverage();
+    }
+
+    /**
+     * 99th percentile of the time to decode a frame
+     *
+     * @return Duration in microseconds
+     */
+    public long getDecodeTimeP99() {
+        return this.decodeTime.getPercentile(0.99);
+    }
+
+    /**
+     * Average time from receiving a frame until the render thread picks it up
+     *
+     * @return Duration in microseconds
+     */
+    public long getAverageLatency() {
+        return this.latency.getAverage();
+    }
+
+    /**
+     * 99th percentile of the time from receiving a frame until the render thread picks it up
+     *
+     * @return Duration in microseconds
+     */
+    public long getLatencyP99() {
+        return this.latency.getPercentile(0.99);
+    }
+
+    /**
+     * Total amount of received frames
+     *
+     * @return Frame count
+     */
+    public long getReceivedFrames() {
+        return receivedFrames;
+    }
+
+    /**
+     * Total amount of decoded frames
+     *
+     * @return Frame count
+     */
+    public long getDecodedFrames() {
+        return decodedFrames;
+    }
+
+    /**
+     * Total amount of stale frames that were replaced before they could be decoded
+     *
+     * @return Frame count
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Total amount of frames that weren't decoded because they wouldn't be painted
+     *
+     * @return Frame count
+     */
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * Total amount of received compressed frame bytes
+     *
+     * @return Byte count
+     */
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+}
@@ -0,0 +1,26 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import java.io.IOException;
+
+/**
+ * Reads the compressed frames of a {@link MotionPictureStream} and passes them to {@link MotionPictureStream#handleFrame(int, FrameBuffer)}.
+ * A transport keeps the stream connected for the given session until the session ends or the stream switches to snapshots.
+ *
+ * @author LabyStudio
+ */
+interface StreamTransport {
+
+    /**
+     * Start reading asynchronously for the given session
+     *
+     * @param session The session of the stream, a new session is started for each opening
+     */
+    void open(int session);
+
+    /**
+     * Close the current connection of the transport, called after the session of the stream has ended
+     *
+     * @throws IOException Exception of the underlying connection
+     */
+    void close() throws IOException;
+}
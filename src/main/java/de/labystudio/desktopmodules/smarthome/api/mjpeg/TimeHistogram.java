@@ -0,0 +1,145 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+/**
+ * Fixed size histogram of durations in microseconds with four buckets per power of two.
+ * Values are recorded into the current window, the last completed window is used for the reported values.
+ * Must only be written by a single thread, readers may see slightly outdated values.
+ *
+ * @author LabyStudio
+ */
+public class TimeHistogram {
+
+    private static final int BUCKETS = 108;
+
+    private final long windowLength;
+
+    private final long[] current = new long[BUCKETS];
+    private final long[] completed = new long[BUCKETS];
+
+    private long currentSum;
+    private volatile long completedSum;
+    private volatile long completedCount;
+
+    private long windowEnd;
+    private volatile long completedAt;
+
+    /**
+     * Create a histogram
+     *
+     * @param windowLength Length of a window in milliseconds
+     */
+    public TimeHistogram(long windowLength) {
+        this.windowLength = windowLength;
+    }
+
+    /**
+     * Record a duration
+     *
+     * @param micros Duration in microseconds
+     */
+    public void record(long micros) {
+        long now = System.currentTimeMillis();
+        if (now >= this.windowEnd) {
+            roll(now);
+        }
+
+        this.current[bucketOf(Math.max(0, micros))]++;
+        this.currentSum += micros;
+    }
+
+    /**
+     * Complete the current window
+     *
+     * @param now Current time in milliseconds
+     */
+    private void roll(long now) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            this.completed[i] = this.current[i];
+            count += this.current[i];
+            this.current[i] = 0;
+        }
+
+        this.completedSum = this.currentSum;
+        this.completedCount = count;
+        this.completedAt = now;
+
+        this.currentSum = 0;
+        this.windowEnd = now + this.windowLength;
+    }
+
+    /**
+     * Average duration of the last completed window
+     *
+     * @return Average in microseconds or 0 if nothing was recorded recently
+     */
+    public long getAverage() {
+        long count = getCount();
+        return count == 0 ? 0 : this.completedSum / count;
+    }
+
+    /**
+     * Percentile of the last completed window
+     *
+     * @param percentile Percentile between 0.0 and 1.0
+     * @return Upper bound of the bucket containing the percentile in microseconds or 0 if nothing was recorded recently
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+
+        long threshold = (long) Math.ceil(count * percentile);
+        long sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            sum += this.completed[i];
+            if (sum >= threshold) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    /**
+     * Amount of values in the last completed window
+     *
+     * @return Value count or 0 if the window is outdated
+     */
+    public long getCount() {
+        boolean outdated = this.completedAt + this.windowLength * 2 < System.currentTimeMillis();
+        return outdated ? 0 : this.completedCount;
+    }
+
+    /**
+     * Bucket index of a value
+     *
+     * @param value The value
+     * @return The bucket index
+     */
+    private static int bucketOf(long value) {
+        if (value < 4) {
+            return (int) value;
+        }
+
+        int log = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (log - 2)) & 3;
+        return Math.min(BUCKETS - 1, (log - 1) * 4 + sub);
+    }
+
+    /**
+     * Largest value of a bucket
+     *
+     * @param bucket The bucket index
+     * @return The upper bound
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+
+        int log = bucket / 4 + 1;
+        int sub = bucket % 4;
+        return ((5L + sub) << (log - 2)) - 1;
+    }
+}
@@ -0,0 +1,155 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A decoded frame and the region of the camera image it covers.
+ * The region is relative to the full camera image (0.0 to 1.0).
+ * <p>
+ * Video frames are reused by the {@link FrameExchange} of a stream. A frame is only written while nobody holds a lease on it,
+ * so the image doesn't change between {@link #retain()} and {@link #release()}.
+ *
+ * @author LabyStudio
+ */
+public class VideoFrame {
+
+    private static final int WRITING = -1;
+
+    private final AtomicInteger leases = new AtomicInteger(WRITING);
+
+    private BufferedImage image;
+
+    private float x;
+    private float y;
+    private float width;
+    private float height;
+
+    private long receivedTime;
+
+    /**
+     * Create an empty video frame that is locked for writing
+     */
+    VideoFrame() {
+    }
+
+    /**
+     * Lock the frame for writing if nobody holds a lease on it
+     *
+     * @return true if the frame has been locked
+     */
+    boolean lock() {
+        return this.leases.compareAndSet(0, WRITING);
+    }
+
+    /**
+     * Unlock the frame after writing
+     */
+    void unlock() {
+        this.leases.set(0);
+    }
+
+    /**
+     * Take a lease on the frame so it won't be overwritten until it is released
+     *
+     * @return false if the frame is currently being written
+     */
+    public boolean retain() {
+        while (true) {
+            int leases = this.leases.get();
+            if (leases == WRITING) {
+                return false;
+            }
+            if (this.leases.compareAndSet(leases, leases + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release a lease that was taken with {@link #retain()}
+     */
+    public void release() {
+        this.leases.decrementAndGet();
+    }
+
+    /**
+     * Set the decoded image and the region it covers
+     *
+     * @param image  The decoded image
+     * @param x      Relative x position of the decoded region
+     * @param y      Relative y position of the decoded region
+     * @param width  Relative width of the decoded region
+     * @param height Relative height of the decoded region
+     */
+    void update(BufferedImage image, float x, float y, float width, float height) {
+        this.image = image;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Set the time the compressed frame has been received
+     *
+     * @param receivedTime Time in {@link System#nanoTime()}
+     */
+    void setReceivedTime(long receivedTime) {
+        this.receivedTime = receivedTime;
+    }
+
+    /**
+     * The time the compressed frame has been received
+     *
+     * @return Time in {@link System#nanoTime()}
+     */
+    public long getReceivedTime() {
+        return receivedTime;
+    }
+
+    /**
+     * The decoded image
+     *
+     * @return Buffered image object
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Relative x position of the decoded region
+     *
+     * @return Position between 0.0 and 1.0
+     */
+    public float getX() {
+        return x;
+    }
+
+    /**
+     * Relative y position of the decoded region
+     *
+     * @return Position between 0.0 and 1.0
+     */
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * Relative width of the decoded region
+     *
+     * @return Width between 0.0 and 1.0
+     */
+    public float getWidth() {
+        return width;
+    }
+
+    /**
+     * Relative height of the decoded region
+     *
+     * @return Height between 0.0 and 1.0
+     */
+    public float getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,96 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+/**
+ * The part of the camera image that is visible on the screen and the size it is drawn with.
+ * The region is relative to the full camera image (0.0 to 1.0).
+ *
+ * @author LabyStudio
+ */
+public class ViewPort {
+
+    /**
+     * Decode the full image in its original resolution
+     */
+    public static final ViewPort FULL = new ViewPort(0, 0, 0, 0, 1, 1);
+
+    private final int drawWidth;
+    private final int drawHeight;
+
+    private final float x;
+    private final float y;
+    private final float width;
+    private final float height;
+
+    /**
+     * Create a view port
+     *
+     * @param drawWidth  Width of the visible region on the screen in pixels, 0 to keep the original resolution
+     * @param drawHeight Height of the visible region on the screen in pixels, 0 to keep the original resolution
+     * @param x          Relative x position of the visible region
+     * @param y          Relative y position of the visible region
+     * @param width      Relative width of the visible region
+     * @param height     Relative height of the visible region
+     */
+    public ViewPort(int drawWidth, int drawHeight, float x, float y, float width, float height) {
+        this.drawWidth = drawWidth;
+        this.drawHeight = drawHeight;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Width of the visible region on the screen
+     *
+     * @return Width in pixels or 0 to keep the original resolution
+     */
+    public int getDrawWidth() {
+        return drawWidth;
+    }
+
+    /**
+     * Height of the visible region on the screen
+     *
+     * @return Height in pixels or 0 to keep the original resolution
+     */
+    public int getDrawHeight() {
+        return drawHeight;
+    }
+
+    /**
+     * Relative x position of the visible region
+     *
+     * @return Position between 0.0 and 1.0
+     */
+    public float getX() {
+        return x;
+    }
+
+    /**
+     * Relative y position of the visible region
+     *
+     * @return Position between 0.0 and 1.0
+     */
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * Relative width of the visible region
+     *
+     * @return Width between 0.0 and 1.0
+     */
+    public float getWidth() {
+        return width;
+    }
+
+    /**
+     * Relative height of the visible region
+     *
+     * @return Height between 0.0 and 1.0
+     */
+    public float getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,272 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg.record;
+
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.FrameBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Records motion events of a stream into clip files.
+ * The received frames are continuously kept in a {@link PreRollBuffer}.
+ * When motion is triggered, a recorder thread writes the frames from before the trigger
+ * and all following frames into a new clip until no motion has been triggered for the post-roll time.
+ * The reader thread of the stream only copies the frame into the ring and never waits for the file.
+ *
+ * @author LabyStudio
+ */
+public class ClipRecorder implements Consumer<FrameBuffer> {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final PreRollBuffer buffer;
+    private final File directory;
+    private final long preRoll;
+    private final long postRoll;
+
+    private volatile Thread thread;
+    private volatile boolean running;
+
+    private long triggeredAt;
+    private volatile long recordUntil;
+
+    private volatile long lostFrames;
+
+    /**
+     * Create a recorder
+     *
+     * @param directory  The directory to write the clips to
+     * @param bufferSize Byte budget of the pre-roll buffer
+     * @param preRoll    Time to record before the trigger in milliseconds
+     * @param postRoll   Time to keep recording after the last trigger in milliseconds
+     */
+    public ClipRecorder(File directory, int bufferSize, long preRoll, long postRoll) {
+        // Assume at least 8 KB per frame for the index
+        this.buffer = new PreRollBuffer(bufferSize, Math.max(64, bufferSize / (8 * 1024)));
+        this.directory = directory;
+        this.preRoll = preRoll;
+        this.postRoll = postRoll;
+    }
+
+    /**
+     * Start the recorder thread
+     */
+    public synchronized void start() {
+        if (this.running) {
+            return;
+        }
+
+        this.running = true;
+        this.thread = new Thread(this::run, "Clip Recorder");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stop the recorder thread and wait until a running clip is completed
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            this.running = false;
+            thread = this.thread;
+            this.thread = null;
+        }
+
+        if (thread != null) {
+            LockSupport.unpark(thread);
+
+            // The recorder thread needs the lock to complete the clip
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Keep a received frame in the pre-roll buffer. Called on the reader thread of the stream.
+     *
+     * @param frame The compressed frame
+     */
+    @Override
+    public void accept(FrameBuffer frame) {
+        this.buffer.write(frame, System.currentTimeMillis());
+
+        // Wake up the recorder if a clip is running
+        Thread thread = this.thread;
+        if (thread != null && isRecording()) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Start a new clip or extend the running clip
+     */
+    public void trigger() {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (this.recordUntil == 0) {
+                this.triggeredAt = now;
+            }
+            this.recordUntil = now + this.postRoll;
+        }
+
+        Thread thread = this.thread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Recorder thread that transfers the frames of a triggered event into a clip
+     */
+    private void run() {
+        ClipWriter writer = null;
+        long sequence = 0;
+        boolean resume = false;
+
+        while (this.running && this.thread == Thread.currentThread()) {
+            try {
+                if (writer == null) {
+                    long triggeredAt = getTriggeredAt();
+                    if (triggeredAt == 0) {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                        continue;
+                    }
+
+                    // Start with the frames before the trigger or continue after a failed clip
+                    writer = createClip(triggeredAt);
+                    if (!resume) {
+                        sequence = this.buffer.findSequence(triggeredAt - this.preRoll);
+                    }
+                    resume = false;
+                }
+
+                switch (this.buffer.transfer(sequence, writer)) {
+                    case PreRollBuffer.TRANSFERRED:
+                        sequence++;
+                        break;
+                    case PreRollBuffer.LOST:
+                        // The recorder fell behind the ring, continue with the oldest frame
+                        long first = this.buffer.getFirstSequence();
+                        this.lostFrames += first - sequence;
+                        sequence = first;
+                        break;
+                    default:
+                        // Wait for the next frame or complete the clip
+                        if (complete()) {
+                            writer.close();
+                            writer = null;
+                        } else {
+                            LockSupport.parkNanos(IDLE_PARK_NANOS);
+                        }
+                        break;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                writer = closeQuietly(writer);
+
+                // Continue the event in a new clip after a short delay
+                resume = !complete();
+                if (resume) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        }
+
+        closeQuietly(writer);
+    }
+
+    /**
+     * Create a new clip file named after the trigger time, existing clips of the same second get a counter suffix
+     *
+     * @param triggeredAt Trigger time in milliseconds
+     * @return The clip writer
+     * @throws IOException File exception
+     */
+    private ClipWriter createClip(long triggeredAt) throws IOException {
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            throw new IOException("Could not create directory " + this.directory);
+        }
+
+        String name = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date(triggeredAt));
+        File file = new File(this.directory, name + ".mjpeg");
+        for (int i = 1; file.exists(); i++) {
+            file = new File(this.directory, name + "_" + i + ".mjpeg");
+        }
+        return new ClipWriter(file);
+    }
+
+    /**
+     * Time of the first trigger of the current event
+     *
+     * @return Time in milliseconds or 0 if there is no event
+     */
+    private synchronized long getTriggeredAt() {
+        return this.recordUntil == 0 ? 0 : this.triggeredAt;
+    }
+
+    /**
+     * Complete the current event if the post-roll time has passed
+     *
+     * @return true if the event is completed
+     */
+    private synchronized boolean complete() {
+        if (System.currentTimeMillis() < this.recordUntil) {
+            return false;
+        }
+
+        this.recordUntil = 0;
+        return true;
+    }
+
+    /**
+     * Close a clip and ignore the exception
+     *
+     * @param writer The clip writer or null
+     * @return Always null
+     */
+    private static ClipWriter closeQuietly(ClipWriter writer) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Indicates if a clip is being recorded right now
+     *
+     * @return Recording state
+     */
+    public boolean isRecording() {
+        return this.recordUntil != 0;
+    }
+
+    /**
+     * Amount of frames that were evicted from the pre-roll buffer before the recorder could write them
+     *
+     * @return Lost frame count
+     */
+    public long getLostFrames() {
+        return lostFrames;
+    }
+
+    /**
+     * The ring buffer of the recent frames
+     *
+     * @return The pre-roll buffer
+     */
+    public PreRollBuffer getBuffer() {
+        return buffer;
+    }
+}
@@ -0,0 +1,179 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg.record;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only MJPEG clip file that is written through its file channel.
+ * Small writes are collected in a direct buffer, so the channel writes large blocks without copying them again.
+ * Each frame is stored as a multipart part with its receive time, so the clip can be played like the original stream.
+ * A small index file next to the clip stores the timestamp, the offset and the length of every frame for seeking:
+ * <pre>
+ * long timestamp (milliseconds), long offset of the JPEG data, int length of the JPEG data
+ * </pre>
+ *
+ * @author LabyStudio
+ */
+public class ClipWriter implements Closeable {
+
+    public static final String BOUNDARY = "frame";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final byte[] LINE_BREAK = "\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final File file;
+    private final FileChannel channel;
+    private final DataOutputStream index;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long position;
+
+    private long frameCount;
+
+    /**
+     * Create a new clip and its index file
+     *
+     * @param file The clip file, the index is written to the same path with the extension ".idx"
+     * @throws IOException File exception
+     */
+    public ClipWriter(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            this.index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(file.getPath() + ".idx"))));
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Start a new frame by writing its part header
+     *
+     * @param timestamp The time the frame has been received in milliseconds
+     * @param length    Length of the compressed frame
+     * @throws IOException Write exception
+     */
+    public void beginFrame(long timestamp, int length) throws IOException {
+        byte[] header = ("--" + BOUNDARY + "\r\n"
+                + "Content-Type: image/jpeg\r\n"
+                + "Content-Length: " + length + "\r\n"
+                + "X-Timestamp: " + timestamp + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        put(ByteBuffer.wrap(header));
+
+        // Index entry of the frame data
+        this.index.writeLong(timestamp);
+        this.index.writeLong(this.position);
+        this.index.writeInt(length);
+    }
+
+    /**
+     * Append the remaining bytes of the given buffer to the current frame
+     *
+     * @param data The frame data
+     * @throws IOException Write exception
+     */
+    public void append(ByteBuffer data) throws IOException {
+        put(data);
+    }
+
+    /**
+     * Complete the current frame
+     *
+     * @throws IOException Write exception
+     */
+    public void endFrame() throws IOException {
+        put(ByteBuffer.wrap(LINE_BREAK));
+        this.frameCount++;
+    }
+
+    /**
+     * Collect the data in the buffer, data that doesn't fit into an empty buffer is written directly
+     *
+     * @param data The data to write
+     * @throws IOException Write exception
+     */
+    private void put(ByteBuffer data) throws IOException {
+        this.position += data.remaining();
+
+        if (data.remaining() > this.buffer.remaining()) {
+            flush();
+        }
+
+        if (data.remaining() > this.buffer.remaining()) {
+            // Larger than the whole buffer
+            while (data.hasRemaining()) {
+                this.channel.write(data);
+            }
+        } else {
+            this.buffer.put(data);
+        }
+    }
+
+    /**
+     * Write the collected data to the file
+     *
+     * @throws IOException Write exception
+     */
+    private void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * Write the collected data and close the clip and its index
+     *
+     * @throws IOException Write exception
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.index.close();
+        } finally {
+            try {
+                flush();
+            } finally {
+                this.channel.close();
+            }
+        }
+    }
+
+    /**
+     * The clip file
+     *
+     * @return The file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Amount of frames in the clip
+     *
+     * @return Frame count
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Size of the clip
+     *
+     * @return Size in bytes
+     */
+    public long getLength() {
+        return position;
+    }
+}
@@ -0,0 +1,231 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg.record;
+
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.FrameBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ring buffer of the most recent compressed JPEG frames with a fixed byte budget.
+ * The frame bytes are stored off-heap in a direct buffer and indexed by primitive arrays,
+ * so keeping several seconds of video doesn't put any pressure on the garbage collector.
+ * <p>
+ * There is a single writer (the reader thread of the stream) that never waits for the lock.
+ * If the recorder is copying a frame at the same moment, the new frame is skipped instead.
+ * The recorder only copies the frame out of the ring while holding the lock and writes it to the clip afterwards,
+ * so the lock is never held during file I/O.
+ *
+ * @author LabyStudio
+ */
+public class PreRollBuffer {
+
+    public static final int TRANSFERRED = 0;
+    public static final int PENDING = 1;
+    public static final int LOST = 2;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final int capacity;
+    private final ByteBuffer writeBuffer;
+    private final ByteBuffer readBuffer;
+    private ByteBuffer transferBuffer = ByteBuffer.allocateDirect(0);
+
+    private final int indexCapacity;
+    private final long[] timestamps;
+    private final long[] positions;
+    private final int[] lengths;
+
+    private long firstSequence;
+    private long nextSequence;
+    private long position;
+
+    private volatile long skippedFrames;
+
+    /**
+     * Create a ring buffer with the given budget
+     *
+     * @param capacity      Byte budget for the compressed frames
+     * @param indexCapacity Maximum amount of frames in the buffer
+     */
+    public PreRollBuffer(int capacity, int indexCapacity) {
+        this.capacity = capacity;
+        this.writeBuffer = ByteBuffer.allocateDirect(capacity);
+        this.readBuffer = this.writeBuffer.duplicate();
+
+        this.indexCapacity = indexCapacity;
+        this.timestamps = new long[indexCapacity];
+        this.positions = new long[indexCapacity];
+        this.lengths = new int[indexCapacity];
+    }
+
+    /**
+     * Copy a compressed frame into the ring, the oldest frames are evicted to make room for it.
+     * Must only be called from a single thread.
+     *
+     * @param frame     The compressed frame
+     * @param timestamp The time the frame has been received in milliseconds
+     * @return false if the frame has been skipped
+     */
+    public boolean write(FrameBuffer frame, long timestamp) {
+        int length = frame.getLength();
+        if (length > this.capacity || !this.lock.tryLock()) {
+            // Frame doesn't fit or the recorder is copying right now
+            this.skippedFrames++;
+            return false;
+        }
+
+        try {
+            long position = this.position;
+
+            // Evict the oldest frames until the new frame fits
+            while (this.firstSequence < this.nextSequence
+                    && (this.nextSequence - this.firstSequence >= this.indexCapacity
+                    || position + length - this.positions[slot(this.firstSequence)] > this.capacity)) {
+                this.firstSequence++;
+            }
+
+            // Copy the frame, it wraps around the end of the ring if required
+            int offset = (int) (position % this.capacity);
+            int head = Math.min(length, this.capacity - offset);
+            this.writeBuffer.clear();
+            this.writeBuffer.position(offset);
+            this.writeBuffer.put(frame.getData(), 0, head);
+            if (head < length) {
+                this.writeBuffer.position(0);
+                this.writeBuffer.put(frame.getData(), head, length - head);
+            }
+
+            // Index the frame
+            int slot = slot(this.nextSequence);
+            this.timestamps[slot] = timestamp;
+            this.positions[slot] = position;
+            this.lengths[slot] = length;
+
+            this.position = position + length;
+            this.nextSequence++;
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Find the first frame that has been received at or after the given time
+     *
+     * @param timestamp Time in milliseconds
+     * @return Sequence number of the frame or the next sequence number if there is no such frame yet
+     */
+    public long findSequence(long timestamp) {
+        this.lock.lock();
+        try {
+            for (long sequence = this.firstSequence; sequence < this.nextSequence; sequence++) {
+                if (this.timestamps[slot(sequence)] >= timestamp) {
+                    return sequence;
+                }
+            }
+            return this.nextSequence;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Oldest frame that is still in the buffer
+     *
+     * @return Sequence number of the oldest frame
+     */
+    public long getFirstSequence() {
+        this.lock.lock();
+        try {
+            return this.firstSequence;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Append the frame with the given sequence number to a clip.
+     * Must only be called from a single thread.
+     *
+     * @param sequence The sequence number of the frame
+     * @param writer   The clip to append the frame to
+     * @return {@link #TRANSFERRED}, {@link #PENDING} if the frame hasn't been received yet
+     * or {@link #LOST} if the frame has already been evicted
+     * @throws IOException Write exception of the clip
+     */
+    public int transfer(long sequence, ClipWriter writer) throws IOException {
+        long timestamp;
+
+        this.lock.lock();
+        try {
+            if (sequence >= this.nextSequence) {
+                return PENDING;
+            }
+            if (sequence < this.firstSequence) {
+                return LOST;
+            }
+
+            int slot = slot(sequence);
+            int length = this.lengths[slot];
+            int offset = (int) (this.positions[slot] % this.capacity);
+            int head = Math.min(length, this.capacity - offset);
+            timestamp = this.timestamps[slot];
+
+            // Copy the frame out of the ring, the writer could evict it as soon as the lock is released
+            ByteBuffer target = ensureTransferCapacity(length);
+            this.readBuffer.clear();
+            this.readBuffer.position(offset);
+            this.readBuffer.limit(offset + head);
+            target.put(this.readBuffer);
+            if (head < length) {
+                this.readBuffer.clear();
+                this.readBuffer.limit(length - head);
+                target.put(this.readBuffer);
+            }
+            target.flip();
+        } finally {
+            this.lock.unlock();
+        }
+
+        // Write to the clip without blocking the reader thread
+        writer.beginFrame(timestamp, this.transferBuffer.remaining());
+        writer.append(this.transferBuffer);
+        writer.endFrame();
+        return TRANSFERRED;
+    }
+
+    /**
+     * Provide the cleared transfer buffer with at least the given capacity
+     *
+     * @param length The required capacity
+     * @return The transfer buffer
+     */
+    private ByteBuffer ensureTransferCapacity(int length) {
+        if (this.transferBuffer.capacity() < length) {
+            int capacity = Math.max(length, this.transferBuffer.capacity() * 2);
+            this.transferBuffer = ByteBuffer.allocateDirect(Math.min(capacity, this.capacity));
+        }
+        this.transferBuffer.clear();
+        return this.transferBuffer;
+    }
+
+    /**
+     * Amount of frames that couldn't be stored
+     *
+     * @return Skipped frame count
+     */
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * Position of a sequence number in the index arrays
+     *
+     * @param sequence The sequence number
+     * @return The slot in the index arrays
+     */
+    private int slot(long sequence) {
+        return (int) (sequence % this.indexCapacity);
+    }
+}
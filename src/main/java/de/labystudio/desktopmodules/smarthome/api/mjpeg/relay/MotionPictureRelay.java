@@ -0,0 +1,296 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg.relay;
+
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.CameraView;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.FrameBuffer;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.MotionPictureStream;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Serves the upstream connection of a camera as multipart/x-mixed-replace stream to any number of local HTTP clients,
+ * so cheap cameras that only handle one or two connections can be watched by several dashboards.
+ * <p>
+ * All clients are handled by a single non-blocking selector thread.
+ * The compressed frames of the reader are shared between the clients without a copy per client and slow clients skip frames.
+ * The camera is only connected while at least one client is streaming.
+ *
+ * @author LabyStudio
+ */
+public class MotionPictureRelay implements Consumer<FrameBuffer> {
+
+    static final String BOUNDARY = "relayframe";
+    static final byte[] RESPONSE = ("HTTP/1.0 200 OK\r\n"
+            + "Content-Type: multipart/x-mixed-replace; boundary=" + BOUNDARY + "\r\n"
+            + "Cache-Control: no-cache, no-store\r\n"
+            + "Pragma: no-cache\r\n"
+            + "Connection: close\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final CameraView view;
+    private final MotionPictureStream stream;
+    private final InetSocketAddress address;
+
+    private final AtomicReference<FrameBuffer> latest = new AtomicReference<>();
+    private final List<RelayClient> clients = new ArrayList<>();
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread thread;
+
+    private volatile boolean running;
+    private volatile int clientCount;
+    private volatile long droppedFrames;
+
+    /**
+     * Create a relay for the camera of the given view
+     *
+     * @param view    A view of the camera that is opened while clients are connected
+     * @param address The local address to listen on
+     */
+    public MotionPictureRelay(CameraView view, InetSocketAddress address) {
+        this.view = view;
+        this.stream = view.getCamera().getStream();
+        this.address = address;
+
+        // The relay doesn't need decoded frames
+        this.view.setVisible(false);
+    }
+
+    /**
+     * Bind the server socket and start the selector thread
+     *
+     * @throws IOException Bind exception
+     */
+    public synchronized void start() throws IOException {
+        if (this.running) {
+            return;
+        }
+
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            this.server.bind(this.address);
+            this.server.configureBlocking(false);
+            this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            this.server.close();
+            this.selector.close();
+            throw e;
+        }
+
+        this.running = true;
+        this.stream.registerCompressedFrameListener(this);
+
+        this.thread = new Thread(this::run, "MJPEG Relay " + this.address.getPort());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stop the server, disconnect all clients and release the camera.
+     * Returns after the server socket has been closed, so the address can be bound again right away.
+     */
+    public synchronized void stop() {
+        if (!this.running) {
+            return;
+        }
+
+        this.running = false;
+        this.stream.unregisterCompressedFrameListener(this);
+        this.selector.wakeup();
+
+        // The selector thread closes the server socket on exit
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called on the reader thread with every received frame.
+     * Only the newest frame is handed over to the selector thread.
+     *
+     * @param buffer The compressed frame
+     */
+    @Override
+    public void accept(FrameBuffer buffer) {
+        if (this.clientCount == 0) {
+            return;
+        }
+
+        FrameBuffer previous = this.latest.getAndSet(buffer.retain());
+        if (previous != null) {
+            previous.release();
+        }
+        this.selector.wakeup();
+    }
+
+    /**
+     * The selector loop
+     */
+    private void run() {
+        try {
+            while (this.running) {
+                this.selector.select();
+
+                // Pass the newest frame to all clients
+                FrameBuffer frame = this.latest.getAndSet(null);
+                if (frame != null) {
+                    for (RelayClient client : this.clients) {
+                        if (client.offer(frame)) {
+                            this.droppedFrames++;
+                        }
+                    }
+                    frame.release();
+                }
+
+                Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    RelayClient client = (RelayClient) key.attachment();
+                    try {
+                        if (key.isReadable() && !client.read()) {
+                            disconnect(client);
+                            continue;
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            client.write();
+                        }
+                    } catch (IOException e) {
+                        disconnect(client);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Accept all pending connections
+     *
+     * @throws IOException Accept exception of the server socket
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = this.server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+            RelayClient client = new RelayClient(channel, key);
+            key.attach(client);
+            this.clients.add(client);
+
+            // Connect the camera for the first client
+            if (this.clientCount++ == 0) {
+                this.view.open();
+            }
+        }
+    }
+
+    /**
+     * Close the connection of a client
+     *
+     * @param client The client to disconnect
+     */
+    private void disconnect(RelayClient client) {
+        if (!this.clients.remove(client)) {
+            return;
+        }
+
+        client.close();
+
+        // Release the camera after the last client
+        if (--this.clientCount == 0) {
+            this.view.close();
+        }
+    }
+
+    /**
+     * Disconnect all clients and close the server
+     */
+    private void shutdown() {
+        this.running = false;
+        this.stream.unregisterCompressedFrameListener(this);
+
+        for (RelayClient client : new ArrayList<>(this.clients)) {
+            disconnect(client);
+        }
+
+        FrameBuffer frame = this.latest.getAndSet(null);
+        if (frame != null) {
+            frame.release();
+        }
+
+        try {
+            this.server.close();
+            this.selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        this.view.dispose();
+    }
+
+    /**
+     * Indicates if the relay is accepting clients
+     *
+     * @return The relay is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * The local address the relay listens on
+     *
+     * @return The socket address
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Amount of connected clients
+     *
+     * @return Client count
+     */
+    public int getClientCount() {
+        return clientCount;
+    }
+
+    /**
+     * Amount of frames skipped by clients because they were too slow
+     *
+     * @return Dropped frame count
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+}
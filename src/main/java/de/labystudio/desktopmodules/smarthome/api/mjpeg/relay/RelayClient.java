@@ -0,0 +1,233 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg.relay;
+
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.FrameBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A local HTTP client of the relay.
+ * The client holds at most the frame that is being written and the next frame, newer frames replace the next frame,
+ * so a slow client skips frames instead of buffering them.
+ *
+ * @author LabyStudio
+ */
+class RelayClient {
+
+    private static final int MAX_REQUEST_SIZE = 8192;
+
+    private static final byte[] PART_HEADER = ("--" + MotionPictureRelay.BOUNDARY + "\r\n"
+            + "Content-Type: image/jpeg\r\n"
+            + "Content-Length: ").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+
+    private final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+    private boolean streaming;
+
+    // Response header, part header, frame and part trailer are written with a single gathering write
+    private final ByteBuffer[] buffers = new ByteBuffer[4];
+    private final ByteBuffer header = ByteBuffer.allocate(PART_HEADER.length + 16);
+    private final ByteBuffer trailer = ByteBuffer.wrap(CRLF);
+
+    private FrameBuffer writing;
+    private FrameBuffer next;
+
+    /**
+     * Create a client of an accepted connection
+     *
+     * @param channel The accepted non-blocking channel
+     * @param key     The selection key of the channel
+     */
+    RelayClient(SocketChannel channel, SelectionKey key) {
+        this.channel = channel;
+        this.key = key;
+
+        this.header.limit(0);
+        this.trailer.position(this.trailer.limit());
+
+        this.buffers[0] = EMPTY;
+        this.buffers[1] = this.header;
+        this.buffers[2] = EMPTY;
+        this.buffers[3] = this.trailer;
+    }
+
+    /**
+     * Read the request of the client. The request line and headers are ignored, any path serves the stream.
+     *
+     * @return false if the client disconnected or sent an invalid request
+     * @throws IOException Read exception
+     */
+    boolean read() throws IOException {
+        if (this.streaming) {
+            // Discard everything the client sends while streaming, only the end of the stream matters
+            this.request.clear();
+            return this.channel.read(this.request) != -1;
+        }
+
+        if (this.channel.read(this.request) == -1) {
+            return false;
+        }
+
+        // Wait for the end of the request headers
+        if (!hasRequestEnd()) {
+            return this.request.hasRemaining();
+        }
+
+        // Only GET requests are streamed
+        byte[] data = this.request.array();
+        if (data[0] != 'G' || data[1] != 'E' || data[2] != 'T' || data[3] != ' ') {
+            return false;
+        }
+
+        this.streaming = true;
+        this.buffers[0] = ByteBuffer.wrap(MotionPictureRelay.RESPONSE);
+        this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return true;
+    }
+
+    /**
+     * Check if the received request contains the empty line after the headers
+     *
+     * @return The request is complete
+     */
+    private boolean hasRequestEnd() {
+        byte[] data = this.request.array();
+        for (int i = 3; i < this.request.position(); i++) {
+            if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n' && data[i - 3] == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pass a new frame to the client. The frame is retained until it has been written or replaced.
+     *
+     * @param frame The compressed frame
+     * @return true if a waiting frame has been dropped because the client is too slow
+     */
+    boolean offer(FrameBuffer frame) {
+        if (!this.streaming) {
+            return false;
+        }
+
+        frame.retain();
+
+        if (this.writing == null) {
+            begin(frame);
+            return false;
+        }
+
+        // The client is still writing, replace the waiting frame
+        FrameBuffer dropped = this.next;
+        this.next = frame;
+        if (dropped != null) {
+            dropped.release();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Start writing a frame as multipart part
+     *
+     * @param frame The retained frame
+     */
+    private void begin(FrameBuffer frame) {
+        this.writing = frame;
+
+        // Part header with the content length
+        this.header.clear();
+        this.header.put(PART_HEADER);
+        putNumber(this.header, frame.getLength());
+        this.header.put(CRLF);
+        this.header.put(CRLF);
+        this.header.flip();
+
+        // The frame bytes are written from the shared buffer, the channel copies the heap array into its temporary direct buffer
+        this.buffers[2] = ByteBuffer.wrap(frame.getData(), 0, frame.getLength());
+        this.trailer.rewind();
+
+        this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Continue writing the current frame as far as the socket accepts it
+     *
+     * @throws IOException Write exception
+     */
+    void write() throws IOException {
+        this.channel.write(this.buffers);
+
+        for (ByteBuffer buffer : this.buffers) {
+            if (buffer.hasRemaining()) {
+                // Socket is full, continue when it's writable again
+                return;
+            }
+        }
+
+        // Frame is completed
+        if (this.writing != null) {
+            this.writing.release();
+            this.writing = null;
+            this.buffers[2] = EMPTY;
+        }
+
+        if (this.next != null) {
+            FrameBuffer next = this.next;
+            this.next = null;
+            begin(next);
+        } else {
+            this.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Close the connection and release the retained frames
+     */
+    void close() {
+        if (this.writing != null) {
+            this.writing.release();
+            this.writing = null;
+        }
+        if (this.next != null) {
+            this.next.release();
+            this.next = null;
+        }
+
+        this.key.cancel();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // Connection is gone anyway
+        }
+    }
+
+    /**
+     * Write a positive number as ASCII digits
+     *
+     * @param buffer The target buffer
+     * @param number The number
+     */
+    private static void putNumber(ByteBuffer buffer, int number) {
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + number % 10));
+            number /= 10;
+        } while (number > 0);
+
+        // Digits were written in reverse order
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte digit = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, digit);
+        }
+    }
+}
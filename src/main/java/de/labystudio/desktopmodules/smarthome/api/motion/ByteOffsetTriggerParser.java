@@ -0,0 +1,52 @@
+package de.labystudio.desktopmodules.smarthome.api.motion;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Compares a single byte at a fixed offset of the response
+ *
+ * @author LabyStudio
+ */
+public class ByteOffsetTriggerParser implements TriggerParser {
+
+    private final int offset;
+    private final byte value;
+
+    /**
+     * Create a byte offset trigger
+     *
+     * @param offset The offset of the byte in the response
+     * @param value  Required byte to detect a motion
+     */
+    public ByteOffsetTriggerParser(int offset, byte value) {
+        this.offset = offset;
+        this.value = value;
+    }
+
+    @Override
+    public boolean parse(InputStream stream) throws IOException {
+        // Skip to record state
+        long remaining = this.offset;
+        while (remaining > 0) {
+            long skipped = stream.skip(remaining);
+            if (skipped <= 0) {
+                // Skip might return 0 before the end, read a single byte to check
+                if (stream.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+
+        // Find byte at offset
+        int read = stream.read();
+        if (read < 0) {
+            // File just changed
+            throw new EOFException();
+        }
+        return (byte) read == this.value;
+    }
+}
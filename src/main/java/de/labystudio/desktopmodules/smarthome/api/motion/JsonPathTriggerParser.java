@@ -0,0 +1,110 @@
+package de.labystudio.desktopmodules.smarthome.api.motion;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Compares the value at a path of a JSON response, for example "status.motion" or "channels.0.alarm".
+ * The document is read as a stream, values outside of the path are skipped and the reading stops at the value.
+ *
+ * @author LabyStudio
+ */
+public class JsonPathTriggerParser implements TriggerParser {
+
+    private final String[] path;
+    private final String value;
+
+    /**
+     * Create a JSON path trigger
+     *
+     * @param path  Object keys and array indices separated by dots
+     * @param value Required value (as string) to detect a motion
+     */
+    public JsonPathTriggerParser(String path, String value) {
+        this.path = path.split("\\.");
+        this.value = value;
+    }
+
+    @Override
+    public boolean parse(InputStream stream) throws IOException {
+        JsonReader reader = new JsonReader(new Latin1Reader(stream, 512));
+
+        String value = find(reader, 0);
+        if (value == null) {
+            // Document just changed or the path doesn't exist
+            throw new EOFException("Path " + String.join(".", this.path) + " not found");
+        }
+        return value.equals(this.value);
+    }
+
+    /**
+     * Walk down the path starting at the current token
+     *
+     * @param reader The JSON reader
+     * @param depth  Index of the current path element
+     * @return The value at the path as string or null if the path doesn't exist
+     * @throws IOException Read exception
+     */
+    private String find(JsonReader reader, int depth) throws IOException {
+        JsonToken token = reader.peek();
+
+        // Value of the path
+        if (depth == this.path.length) {
+            switch (token) {
+                case STRING:
+                case NUMBER:
+                    return reader.nextString();
+                case BOOLEAN:
+                    return String.valueOf(reader.nextBoolean());
+                case NULL:
+                    reader.nextNull();
+                    return "null";
+                default:
+                    return null;
+            }
+        }
+
+        String element = this.path[depth];
+
+        if (token == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals(element)) {
+                    return find(reader, depth + 1);
+                }
+                reader.skipValue();
+            }
+            return null;
+        }
+
+        if (token == JsonToken.BEGIN_ARRAY) {
+            int index = parseIndex(element);
+            reader.beginArray();
+            for (int i = 0; reader.hasNext(); i++) {
+                if (i == index) {
+                    return find(reader, depth + 1);
+                }
+                reader.skipValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse an array index of the path
+     *
+     * @param element The path element
+     * @return The index or -1 if the element is no index
+     */
+    private static int parseIndex(String element) {
+        try {
+            return Integer.parseInt(element);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package de.labystudio.desktopmodules.smarthome.api.motion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Unbuffered reader that maps each byte to a character (ISO-8859-1).
+ * Unlike an {@link java.io.InputStreamReader} it doesn't read ahead, so the parsers on top of it
+ * only consume the bytes they actually asked for. Status responses of cameras are plain ASCII.
+ *
+ * @author LabyStudio
+ */
+class Latin1Reader extends Reader {
+
+    private final InputStream stream;
+    private final byte[] buffer;
+
+    /**
+     * Create a reader on top of the given stream
+     *
+     * @param stream     The response body
+     * @param bufferSize Maximum amount of bytes per read
+     */
+    Latin1Reader(InputStream stream, int bufferSize) {
+        this.stream = stream;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+        int read = this.stream.read(this.buffer, 0, Math.min(length, this.buffer.length));
+        for (int i = 0; i < read; i++) {
+            chars[offset + i] = (char) (this.buffer[i] & 0xFF);
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.stream.close();
+    }
+}
@@ -0,0 +1,154 @@
+package de.labystudio.desktopmodules.smarthome.api.motion;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * The scheduled motion status poll of a single camera
+ *
+ * @author LabyStudio
+ */
+public class MotionTrigger {
+
+    private static final int TIMEOUT = 5000;
+
+    private final MotionTriggerScheduler scheduler;
+    private final URL url;
+    private final TriggerParser parser;
+    private final Consumer<Boolean> listener;
+
+    private final AtomicBoolean inFlight = new AtomicBoolean();
+
+    private volatile ScheduledFuture<?> future;
+    private volatile boolean cancelled;
+
+    /**
+     * Create a motion trigger
+     *
+     * @param scheduler The scheduler running the polls
+     * @param url       The motion status url of the camera
+     * @param parser    The trigger condition of the response
+     * @param listener  The motion state listener
+     */
+    MotionTrigger(MotionTriggerScheduler scheduler, URL url, TriggerParser parser, Consumer<Boolean> listener) {
+        this.scheduler = scheduler;
+        this.url = url;
+        this.parser = parser;
+        this.listener = listener;
+    }
+
+    /**
+     * Set the scheduled task of this trigger
+     *
+     * @param future The scheduled task
+     */
+    void setFuture(ScheduledFuture<?> future) {
+        this.future = future;
+        if (this.cancelled) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Poll the motion status once, the poll is skipped if the previous poll of this camera is still running
+     */
+    void poll() {
+        if (this.cancelled || !this.inFlight.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            boolean motion = request();
+            if (!this.cancelled) {
+                this.listener.accept(motion);
+            }
+        } catch (EOFException e) {
+            // Status file just changed
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            this.inFlight.set(false);
+        }
+    }
+
+    /**
+     * Request the motion status and check the trigger condition.
+     * The response stream is closed instead of disconnected, so the connection returns to the keep-alive cache.
+     *
+     * @return The camera reports motion
+     * @throws IOException Request exception
+     */
+    private boolean request() throws IOException {
+        URLConnection connection = this.url.openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setUseCaches(false);
+
+        InputStream stream;
+        try {
+            stream = connection.getInputStream();
+        } catch (IOException e) {
+            // Consume the error response to keep the connection alive
+            if (connection instanceof HttpURLConnection) {
+                InputStream errorStream = ((HttpURLConnection) connection).getErrorStream();
+                if (errorStream != null) {
+                    errorStream.close();
+                }
+            }
+            throw e;
+        }
+
+        try {
+            return this.parser.parse(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Poll the motion status right now in addition to the scheduled polls
+     */
+    public void pollNow() {
+        if (!this.cancelled) {
+            this.scheduler.execute(this);
+        }
+    }
+
+    /**
+     * Stop polling the motion status
+     */
+    public void cancel() {
+        this.cancelled = true;
+
+        ScheduledFuture<?> future = this.future;
+        if (future != null) {
+            future.cancel(false);
+        }
+        this.scheduler.remove(this);
+    }
+
+    /**
+     * The motion status url of the camera
+     *
+     * @return The url
+     */
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Indicates if a poll of this camera is running right now
+     *
+     * @return Poll is in flight
+     */
+    public boolean isInFlight() {
+        return this.inFlight.get();
+    }
+}
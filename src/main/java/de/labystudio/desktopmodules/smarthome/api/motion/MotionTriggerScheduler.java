@@ -0,0 +1,88 @@
+package de.labystudio.desktopmodules.smarthome.api.motion;
+
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Polls the motion status endpoints of all cameras on one small thread pool.
+ * The HTTP connections are kept alive between the polls of a camera and polls of the same trigger never overlap.
+ *
+ * @author LabyStudio
+ */
+public class MotionTriggerScheduler {
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final Set<MotionTrigger> triggers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create a scheduler with the given amount of polling threads
+     *
+     * @param threads Amount of threads
+     */
+    public MotionTriggerScheduler(int threads) {
+        this.executor = new ScheduledThreadPoolExecutor(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Motion Trigger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Start polling the motion status of a camera
+     *
+     * @param url      The motion status url of the camera
+     * @param parser   The trigger condition of the response
+     * @param interval Delay between the end of a poll and the start of the next poll in milliseconds
+     * @param listener Called on a polling thread with the motion state after each successful poll
+     * @return The trigger handle to cancel polling
+     */
+    public MotionTrigger schedule(URL url, TriggerParser parser, long interval, Consumer<Boolean> listener) {
+        MotionTrigger trigger = new MotionTrigger(this, url, parser, listener);
+        this.triggers.add(trigger);
+
+        // A fixed delay never starts the next poll before the previous one is finished
+        trigger.setFuture(this.executor.scheduleWithFixedDelay(trigger::poll, 0, interval, TimeUnit.MILLISECONDS));
+        return trigger;
+    }
+
+    /**
+     * Run a single poll of the given trigger as soon as possible
+     *
+     * @param trigger The trigger to poll
+     */
+    void execute(MotionTrigger trigger) {
+        this.executor.execute(trigger::poll);
+    }
+
+    /**
+     * Remove a cancelled trigger
+     *
+     * @param trigger The cancelled trigger
+     */
+    void remove(MotionTrigger trigger) {
+        this.triggers.remove(trigger);
+    }
+
+    /**
+     * Stop polling all cameras
+     */
+    public void cancelAll() {
+        for (MotionTrigger trigger : this.triggers) {
+            trigger.cancel();
+        }
+    }
+
+    /**
+     * Amount of scheduled triggers
+     *
+     * @return Trigger count
+     */
+    public int getTriggerCount() {
+        return this.triggers.size();
+    }
+}
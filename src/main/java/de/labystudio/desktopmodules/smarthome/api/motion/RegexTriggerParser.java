@@ -0,0 +1,65 @@
+package de.labystudio.desktopmodules.smarthome.api.motion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Detects motion if the response contains a match of the given pattern.
+ * The response is read in small chunks and the reading stops at the first match.
+ * Each chunk only searches the text that can still contain a match, so the search is not repeated for the whole response.
+ *
+ * @author LabyStudio
+ */
+public class RegexTriggerParser implements TriggerParser {
+
+    private static final int CHUNK_SIZE = 256;
+
+    private final Pattern pattern;
+    private final int maxLength;
+
+    /**
+     * Create a regex trigger
+     *
+     * @param pattern   The pattern that indicates a motion
+     * @param maxLength Maximum amount of bytes to search in
+     */
+    public RegexTriggerParser(Pattern pattern, int maxLength) {
+        this.pattern = pattern;
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public boolean parse(InputStream stream) throws IOException {
+        Latin1Reader reader = new Latin1Reader(stream, CHUNK_SIZE);
+        StringBuilder text = new StringBuilder();
+        Matcher matcher = this.pattern.matcher(text);
+        char[] chunk = new char[CHUNK_SIZE];
+
+        // Text before this position can't start a match anymore
+        int from = 0;
+
+        int read;
+        while (text.length() < this.maxLength && (read = reader.read(chunk, 0, chunk.length)) > 0) {
+            text.append(chunk, 0, read);
+
+            // Search only the part that can still contain a match, anchors and lookbehinds still see the whole text
+            matcher.reset(text);
+            matcher.useTransparentBounds(true);
+            matcher.useAnchoringBounds(false);
+            matcher.region(from, text.length());
+
+            // Stop at the first match
+            if (matcher.find()) {
+                return true;
+            }
+
+            // No attempt reached the end of the text, so more text can only match after it
+            if (!matcher.hitEnd()) {
+                from = text.length();
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,23 @@
+package de.labystudio.desktopmodules.smarthome.api.motion;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decides whether the motion status response of a camera reports motion.
+ * Implementations should stop reading as soon as the decision is made, the rest of the response is skipped.
+ *
+ * @author LabyStudio
+ */
+@FunctionalInterface
+public interface TriggerParser {
+
+    /**
+     * Read the status response and check the trigger condition
+     *
+     * @param stream The response body
+     * @return true if the camera reports motion
+     * @throws IOException Read exception or the response ended before the condition could be checked
+     */
+    boolean parse(InputStream stream) throws IOException;
+}
@@ -0,0 +1,61 @@
+package de.labystudio.desktopmodules.smarthome.api.motion;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Compares the text of the first element with the given name in an XML response.
+ * The document is parsed as a stream and the reading stops at the element.
+ *
+ * @author LabyStudio
+ */
+public class XmlTagTriggerParser implements TriggerParser {
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        // Status documents don't need any entities
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final String tag;
+    private final String value;
+
+    /**
+     * Create a XML tag trigger
+     *
+     * @param tag   The local name of the element
+     * @param value Required text of the element to detect a motion
+     */
+    public XmlTagTriggerParser(String tag, String value) {
+        this.tag = tag;
+        this.value = value;
+    }
+
+    @Override
+    public boolean parse(InputStream stream) throws IOException {
+        try {
+            XMLStreamReader reader = FACTORY.createXMLStreamReader(new Latin1Reader(stream, 512));
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals(this.tag)) {
+                        return reader.getElementText().trim().equals(this.value);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+
+        // Document just changed or the element doesn't exist
+        throw new EOFException("Element " + this.tag + " not found");
+    }
+}
@@ -0,0 +1,469 @@
+package de.labystudio.desktopmodules.smarthome.modules;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import de.labystudio.desktopmodules.core.addon.Addon;
+import de.labystudio.desktopmodules.smarthome.SmartHomeAddon;
+import de.labystudio.desktopmodules.smarthome.api.event.DispatchPolicy;
+import de.labystudio.desktopmodules.smarthome.api.event.Subscription;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.CameraView;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.MotionDetector;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.MotionPictureStream;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.VideoFrame;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.record.ClipRecorder;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.relay.MotionPictureRelay;
+import de.labystudio.desktopmodules.smarthome.api.motion.ByteOffsetTriggerParser;
+import de.labystudio.desktopmodules.smarthome.api.motion.JsonPathTriggerParser;
+import de.labystudio.desktopmodules.smarthome.api.motion.MotionTrigger;
+import de.labystudio.desktopmodules.smarthome.api.motion.RegexTriggerParser;
+import de.labystudio.desktopmodules.smarthome.api.motion.TriggerParser;
+import de.labystudio.desktopmodules.smarthome.api.motion.XmlTagTriggerParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.regex.Pattern;
+
+/**
+ * A single camera of the {@link IPCameraModule}.
+ * Opens the stream on motion, keeps it warm in standby and runs the recording, the relay and the local motion detection of the camera.
+ *
+ * @author LabyStudio
+ */
+class CameraFeed {
+
+    private static final long MOTION_TIMEOUT = 1000L * 60;
+
+    private final IPCameraModule module;
+    private final SmartHomeAddon addon;
+
+    private CameraView cameraView;
+
+    private CameraView backgroundView;
+    private ClipRecorder recorder;
+    private MotionPictureRelay relay;
+    private MotionDetector motionDetector;
+    private Subscription<VideoFrame> motionSubscription;
+
+    private MotionTrigger motionTrigger;
+    private volatile long lastMotionDetected;
+    private long lastMotionChecked;
+    private long motionInterval;
+    private boolean motionDetectionEnabled;
+    private boolean localMotionDetection;
+    private volatile long lastLocalMotion;
+
+    private boolean triggerOnStart;
+    private boolean standbyEnabled;
+    private long standbyTimeout;
+    private long standbySince;
+    private boolean snapshotEnabled;
+    private long snapshotInterval;
+    private volatile long liveUntil;
+
+    private int targetFrameRate;
+    private boolean visible = true;
+
+    /**
+     * Create a camera of the module
+     *
+     * @param module The module that displays the camera
+     * @param addon  The addon providing the shared camera registry and schedulers
+     */
+    CameraFeed(IPCameraModule module, SmartHomeAddon addon) {
+        this.module = module;
+        this.addon = addon;
+    }
+
+    /**
+     * Connect the camera with the given configuration
+     *
+     * @param config The configuration of this camera
+     */
+    void load(JsonObject config) {
+        // Get stream configuration
+        try {
+            String streamUrl = Addon.getConfigValue(config, "mjpeg_url", "http://127.0.0.1/cgi-bin/CGIStream.cgi?cmd=GetMJStream");
+            URL url = new URL(streamUrl);
+
+            // Share the stream with other views of the same camera
+            this.cameraView = this.addon.getCameraRegistry().createView(url);
+
+            // Decode on a separate stage to keep the picture live
+            this.cameraView.setPipelined(Addon.getConfigValue(config, "pipelined", true));
+
+            // Keep the connection warm after the motion ended
+            JsonObject standby = Addon.getConfigObject(config, "standby");
+            this.standbyEnabled = Addon.getConfigValue(standby, "enabled", true);
+            this.standbyTimeout = Addon.getConfigValue(standby, "timeout_minutes", 10) * 60 * 1000L;
+
+            MotionPictureStream stream = this.cameraView.getCamera().getStream();
+
+            // Read on the shared selector thread instead of an own thread per camera
+            try {
+                boolean selector = Addon.getConfigValue(config, "transport", "selector").equals("selector");
+                stream.setStreamSelector(selector ? this.addon.getCameraRegistry().getStreamSelector() : null);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            stream.setStandbyBandwidth(Addon.getConfigValue(standby, "bandwidth_kbit", 0) * 1000L / 8);
+            // Show single snapshots as overview tile until motion or mouse-over
+            JsonObject snapshot = Addon.getConfigObject(config, "snapshot");
+            this.snapshotEnabled = Addon.getConfigValue(snapshot, "enabled", false);
+            this.snapshotInterval = Addon.getConfigValue(snapshot, "interval_seconds", 3) * 1000L;
+            this.cameraView.setSnapshotInterval(this.snapshotEnabled ? this.snapshotInterval : 0);
+
+            String snapshotUrl = Addon.getConfigValue(snapshot, "url", Addon.getConfigValue(standby, "snapshot_url", ""));
+            stream.setSnapshotUrl(snapshotUrl.isEmpty() ? null : new URL(snapshotUrl));
+
+            // Serve the camera to other local clients over the same upstream connection
+            JsonObject relay = Addon.getConfigObject(config, "relay");
+            if (Addon.getConfigValue(relay, "enabled", false)) {
+                String address = Addon.getConfigValue(relay, "address", "127.0.0.1");
+                int port = Addon.getConfigValue(relay, "port", 8090);
+                try {
+                    this.relay = this.addon.getCameraRegistry().startRelay(url, new InetSocketAddress(address, port));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            this.lastMotionDetected = System.currentTimeMillis();
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+        }
+
+        this.triggerOnStart = Addon.getConfigValue(config, "trigger_on_start", false);
+
+        // Get motion configuration
+        try {
+            JsonObject motionDetection = Addon.getConfigObject(config, "motion_detection");
+            this.motionDetectionEnabled = Addon.getConfigValue(motionDetection, "enabled", false);
+
+            if (this.motionDetectionEnabled) {
+                this.localMotionDetection = Addon.getConfigValue(motionDetection, "type", "cgi").equals("local");
+                this.motionInterval = Addon.getConfigValue(motionDetection, "intervalInSeconds", 3) * 1000L;
+
+                if (!this.localMotionDetection && this.cameraView != null) {
+                    URL motionUrl = new URL(Addon.getConfigValue(motionDetection, "url", "http://127.0.0.1/cgi-bin/CGIProxy.fcgi?cmd=getDevState"));
+
+                    // Trigger condition of the document to detect the motion
+                    TriggerParser parser = createTriggerParser(Addon.getConfigObject(motionDetection, "trigger_condition"));
+
+                    // Poll the motion state on the shared scheduler
+                    this.motionTrigger = this.addon.getMotionTriggerScheduler().schedule(motionUrl, parser, this.motionInterval, this::updateMotion);
+                }
+            } else if (this.cameraView != null) {
+                // Open stream directly
+                this.lastMotionDetected = System.currentTimeMillis();
+                this.cameraView.open();
+            }
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+        }
+
+        // The snapshot tile is always shown
+        if (this.snapshotEnabled && this.cameraView != null && !this.cameraView.isOpen()) {
+            this.lastMotionDetected = System.currentTimeMillis();
+            this.cameraView.open();
+        }
+
+        // Keep the camera connected in the background for recording and local motion detection
+        if (this.cameraView != null) {
+            startBackground(Addon.getConfigObject(config, "recording"), Addon.getConfigObject(config, "motion_detection"));
+        }
+    }
+
+    /**
+     * Open the stream if it should be shown on start
+     */
+    void enable() {
+        if (this.triggerOnStart && this.cameraView != null && !this.cameraView.isOpen()) {
+            this.lastMotionDetected = System.currentTimeMillis();
+            this.cameraView.open();
+        }
+    }
+
+    /**
+     * Release the camera, its background connection, the relay and the motion trigger
+     */
+    void dispose() {
+        if (this.cameraView != null) {
+            this.cameraView.dispose();
+            this.cameraView = null;
+        }
+        if (this.motionTrigger != null) {
+            this.motionTrigger.cancel();
+            this.motionTrigger = null;
+        }
+        stopBackground();
+        if (this.relay != null) {
+            this.relay.stop();
+            this.relay = null;
+        }
+    }
+
+    /**
+     * Update the standby, the snapshot tile and the local motion state
+     */
+    void tick() {
+        if (this.cameraView == null) {
+            return;
+        }
+
+        // Stream the snapshot tile live during motion and while the mouse is over it
+        if (this.snapshotEnabled) {
+            boolean live = this.module.isHovered(this) || this.liveUntil > System.currentTimeMillis();
+            this.cameraView.setSnapshotInterval(live ? 0 : this.snapshotInterval);
+        }
+
+        // Close the warm connection after the standby timeout
+        if (this.cameraView.isStandby() && this.standbyTimeout > 0
+                && this.standbySince + this.standbyTimeout < System.currentTimeMillis()) {
+            this.cameraView.close();
+        }
+
+        // Motion is reported by the local detector, close the stream once it is quiet
+        if (!this.motionDetectionEnabled || !this.localMotionDetection || this.lastMotionChecked + this.motionInterval > System.currentTimeMillis()) {
+            return;
+        }
+
+        this.lastMotionChecked = System.currentTimeMillis();
+
+        if (this.lastLocalMotion + this.motionInterval < System.currentTimeMillis()) {
+            updateMotion(false);
+        }
+    }
+
+    /**
+     * Open the stream on motion and close it or put it into standby if there was no motion for a minute.
+     * A snapshot tile stays open and only switches between snapshots and the stream.
+     *
+     * @param motion Motion has been detected
+     */
+    private void updateMotion(boolean motion) {
+        CameraView cameraView = this.cameraView;
+        if (cameraView == null) {
+            return;
+        }
+
+        if (motion) {
+            // Record the motion event
+            if (this.recorder != null) {
+                this.recorder.trigger();
+            }
+
+            // Switch the snapshot tile to the stream right away
+            if (this.snapshotEnabled) {
+                this.liveUntil = System.currentTimeMillis() + MOTION_TIMEOUT;
+                cameraView.setSnapshotInterval(0);
+            }
+
+            // Start stream, the camera with the latest motion is displayed
+            if (!cameraView.isOpen()) {
+                this.lastMotionDetected = System.currentTimeMillis();
+                cameraView.open();
+            }
+        } else if (!this.snapshotEnabled && cameraView.isOpen() && this.lastMotionDetected + MOTION_TIMEOUT < System.currentTimeMillis()
+                && !this.module.isHovered(this)) {
+
+            // Close the stream or keep it warm for the next motion
+            if (this.standbyEnabled) {
+                this.standbySince = System.currentTimeMillis();
+                cameraView.standby();
+            } else {
+                cameraView.close();
+            }
+        }
+    }
+
+    /**
+     * Create the parser of the motion state response
+     *
+     * @param triggerCondition The trigger condition configuration
+     * @return The trigger parser
+     */
+    private TriggerParser createTriggerParser(JsonObject triggerCondition) {
+        switch (Addon.getConfigValue(triggerCondition, "type", "byte_offset")) {
+            case "regex":
+                return new RegexTriggerParser(Pattern.compile(Addon.getConfigValue(triggerCondition, "pattern", "motionDetectAlarm>2<")),
+                        Addon.getConfigValue(triggerCondition, "max_length", 4096));
+            case "xml":
+                return new XmlTagTriggerParser(Addon.getConfigValue(triggerCondition, "tag", "motionDetectAlarm"),
+                        Addon.getConfigValue(triggerCondition, "value", "2"));
+            case "json":
+                return new JsonPathTriggerParser(Addon.getConfigValue(triggerCondition, "path", "motion"),
+                        Addon.getConfigValue(triggerCondition, "value", "true"));
+            default:
+                // Offset of the response document
+                int characterOffset = Addon.getConfigValue(triggerCondition, "character_offset", 0);
+
+                // Required character as byte to flag as motion
+                byte characterByte = (byte) Addon.getConfigValue(triggerCondition, "character_byte", 0);
+                return new ByteOffsetTriggerParser(characterOffset, characterByte);
+        }
+    }
+
+    /**
+     * Called by the local detector on the decoder pool when motion has been detected
+     */
+    private void onLocalMotion() {
+        this.lastLocalMotion = System.currentTimeMillis();
+        updateMotion(true);
+    }
+
+    /**
+     * Keep the stream connected in the background without decoding it for the display.
+     * The recent frames are buffered for clip recording and analyzed by the local motion detector.
+     *
+     * @param recording       The recording configuration
+     * @param motionDetection The motion detection configuration
+     */
+    private void startBackground(JsonObject recording, JsonObject motionDetection) {
+        boolean record = Addon.getConfigValue(recording, "enabled", false);
+        boolean detect = this.motionDetectionEnabled && this.localMotionDetection;
+        if (!record && !detect) {
+            return;
+        }
+
+        // Invisible view that only keeps the connection open, frames are not decoded for it
+        this.backgroundView = this.addon.getCameraRegistry().createView(this.cameraView.getCamera().getUrl());
+        MotionPictureStream stream = this.backgroundView.getCamera().getStream();
+
+        if (record) {
+            String directory = Addon.getConfigValue(recording, "directory", "recordings");
+            int bufferSize = Addon.getConfigValue(recording, "buffer_size_mb", 16) * 1024 * 1024;
+            long preRoll = Addon.getConfigValue(recording, "pre_roll_seconds", 5) * 1000L;
+            long postRoll = Addon.getConfigValue(recording, "post_roll_seconds", 30) * 1000L;
+
+            this.recorder = new ClipRecorder(new File(directory), bufferSize, preRoll, postRoll);
+            this.recorder.start();
+            stream.registerCompressedFrameListener(this.recorder);
+        }
+
+        if (detect) {
+            this.motionDetector = new MotionDetector(this.addon.getCameraRegistry().getDecodeExecutor(), this::onLocalMotion);
+            double sensitivity = Addon.getConfigValue(motionDetection, "sensitivity", 0.5D);
+            this.motionDetector.setSensitivity((float) sensitivity);
+            this.motionDetector.setFrameInterval(Addon.getConfigValue(motionDetection, "frame_interval", 5));
+            this.motionDetector.setZones(getZones(motionDetection));
+            stream.registerCompressedFrameListener(this.motionDetector);
+
+            // Reuse the frames that are decoded for the display
+            this.motionSubscription = stream.subscribeFrames(this.motionDetector::acceptDecoded, DispatchPolicy.LATEST_ONLY, 1);
+        }
+
+        this.backgroundView.setVisible(false);
+        this.backgroundView.open();
+    }
+
+    /**
+     * Complete a running clip, stop the local motion detector and release the background connection
+     */
+    private void stopBackground() {
+        if (this.backgroundView != null) {
+            MotionPictureStream stream = this.backgroundView.getCamera().getStream();
+            if (this.recorder != null) {
+                stream.unregisterCompressedFrameListener(this.recorder);
+            }
+            if (this.motionDetector != null) {
+                stream.unregisterCompressedFrameListener(this.motionDetector);
+            }
+            if (this.motionSubscription != null) {
+                this.motionSubscription.unsubscribe();
+                this.motionSubscription = null;
+            }
+
+            this.backgroundView.dispose();
+            this.backgroundView = null;
+        }
+
+        if (this.recorder != null) {
+            this.recorder.stop();
+            this.recorder = null;
+        }
+
+        if (this.motionDetector != null) {
+            this.motionDetector.dispose();
+            this.motionDetector = null;
+        }
+    }
+
+    /**
+     * Read the detection zones of the local motion detector
+     *
+     * @param motionDetection The motion detection configuration
+     * @return Relative rectangles {x, y, width, height}
+     */
+    private float[][] getZones(JsonObject motionDetection) {
+        if (!motionDetection.has("zones")) {
+            motionDetection.add("zones", new JsonArray());
+        }
+
+        JsonArray array = motionDetection.get("zones").getAsJsonArray();
+        float[][] zones = new float[array.size()][];
+        for (int i = 0; i < array.size(); i++) {
+            JsonArray zone = array.get(i).getAsJsonArray();
+            zones[i] = new float[]{
+                    zone.get(0).getAsFloat(), zone.get(1).getAsFloat(),
+                    zone.get(2).getAsFloat(), zone.get(3).getAsFloat()
+            };
+        }
+        return zones;
+    }
+
+    /**
+     * Start or stop decoding for the display, the view is only decoded while the module paints this camera
+     *
+     * @param visible The camera is painted
+     */
+    void setVisible(boolean visible) {
+        if (this.visible != visible && this.cameraView != null) {
+            this.visible = visible;
+            this.cameraView.setVisible(visible);
+        }
+    }
+
+    /**
+     * Decode as many frames as the module paints
+     *
+     * @param frameRate The target frame rate, 0 for every frame
+     */
+    void setTargetFrameRate(int frameRate) {
+        if (Math.abs(frameRate - this.targetFrameRate) > 1) {
+            this.targetFrameRate = frameRate;
+            this.cameraView.setTargetFrameRate(frameRate);
+        }
+    }
+
+    /**
+     * Indicates if the camera has a video feed to display right now
+     *
+     * @return The stream is open and connected
+     */
+    boolean isDisplayable() {
+        CameraView cameraView = this.cameraView;
+        return cameraView != null && cameraView.isOpen() && cameraView.isAlive();
+    }
+
+    /**
+     * The display view of the camera
+     *
+     * @return The camera view or null if the configuration is wrong
+     */
+    CameraView getCameraView() {
+        return cameraView;
+    }
+
+    /**
+     * Time the stream has been opened by the last motion
+     *
+     * @return Unix time in milliseconds
+     */
+    long getLastMotionDetected() {
+        return lastMotionDetected;
+    }
+}
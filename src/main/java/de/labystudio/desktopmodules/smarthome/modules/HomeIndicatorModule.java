@@ -12,8 +12,9 @@ import de.labystudio.desktopmodules.core.renderer.font.StringAlignment;
 import de.labystudio.desktopmodules.core.renderer.font.StringEffect;
 import de.labystudio.desktopmodules.smarthome.SmartHomeAddon;
 import de.labystudio.desktopmodules.smarthome.api.fritzbox.AsyncFritzBoxAPI;
-import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.Client;
-import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.Network;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.filter.DeviceFilterIndex;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.NetworkChange;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.NetworkDiff;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -30,19 +31,31 @@ import java.util.function.Consumer;
  *
  * @author LabyStudio
  */
-public class HomeIndicatorModule extends Module<SmartHomeAddon> implements Consumer<Network> {
+public class HomeIndicatorModule extends Module<SmartHomeAddon> implements Consumer<NetworkDiff> {
 
     private static final Font FONT = new Font("Dialog", FontStyle.PLAIN, 12);
+    private static final long INVISIBLE_TIMEOUT = 1000L;
 
     private BufferedImage textureFritz;
     private BufferedImage textureOnline;
     private BufferedImage textureOffline;
 
+    private static final String FIELD_MAC = "mac";
+    private static final String FIELD_IP = "ip";
+
     private final List<Filter> filter = new CopyOnWriteArrayList<>();
-    private Map<String, Boolean> visibleClients = new HashMap<>();
+    private volatile DeviceFilterIndex<Filter> filterIndex = new DeviceFilterIndex<>();
+    private volatile Map<String, Boolean> visibleClients = new HashMap<>();
+
+    // Guarded by the module, updated with each network change
+    private final Map<String, Device> devices = new HashMap<>();
+    private final Map<String, Presence> presences = new HashMap<>();
     private int lastFilterMatchedResult = -1;
 
-    private boolean networkValid = false;
+    private volatile boolean networkValid = false;
+
+    private volatile long lastRendered;
+    private volatile boolean visible = false;
 
     public HomeIndicatorModule() {
         super(230, 24); // Changed dynamically
@@ -52,7 +65,7 @@ public class HomeIndicatorModule extends Module<SmartHomeAddon> implements Consu
     public void onInitialize(SmartHomeAddon addon, JsonObject config) {
         super.onInitialize(addon, config);
 
-        addon.getFritzBox().registerNetworkListener(this);
+        addon.getFritzBox().registerChangeListener(this);
     }
 
     @Override
@@ -67,6 +80,33 @@ public class HomeIndicatorModule extends Module<SmartHomeAddon> implements Consu
             for (JsonElement entry : array) {
                 this.filter.add(new Filter(entry.getAsJsonObject()));
             }
+
+            // Compile the device names of all filters into a single lookup
+            DeviceFilterIndex<Filter> filterIndex = new DeviceFilterIndex<>();
+            for (Filter filter : this.filter) {
+                for (String deviceName : filter.deviceNames) {
+                    try {
+                        filterIndex.add(deviceName, filter);
+                    } catch (IllegalArgumentException exception) {
+                        exception.printStackTrace();
+                    }
+                }
+            }
+            filterIndex.compile();
+            this.filterIndex = filterIndex;
+
+            // Request the device addresses if a filter needs them
+            List<String> fields = new ArrayList<>();
+            if (filterIndex.requiresMac()) {
+                fields.add(FIELD_MAC);
+            }
+            if (filterIndex.requiresIp()) {
+                fields.add(FIELD_IP);
+            }
+            this.addon.getFritzBox().setNetworkFields(fields.toArray(new String[0]));
+
+            // Match the known devices against the new filters
+            rematch();
         } else {
             // Create default list
             JsonArray array = new JsonArray();
@@ -89,45 +129,153 @@ public class HomeIndicatorModule extends Module<SmartHomeAddon> implements Consu
     }
 
     @Override
-    public void accept(Network network) {
-        Map<String, Boolean> visibleClients = new HashMap<>();
-
-        // Render all clients
-        for (Client client : network.network) {
-            // Filter clients
-            Filter filter = getByDeviceName(client.name);
-            if (filter == null)
-                continue;
+    public synchronized void accept(NetworkDiff diff) {
+        if (diff.isReset()) {
+            this.devices.clear();
+            this.presences.clear();
+        }
 
-            Boolean alreadyRegisteredAsOnline = visibleClients.get(filter.nickname);
-            if (alreadyRegisteredAsOnline == null || !alreadyRegisteredAsOnline) {
-                visibleClients.put(filter.nickname, client.isActive());
+        // Apply only the changed devices
+        boolean changed = diff.isReset();
+        for (NetworkChange change : diff.getChanges()) {
+            Device device = this.devices.get(change.getId());
+
+            switch (change.getType()) {
+                case JOINED:
+                    device = new Device(change.isActive());
+                    device.update(change);
+                    device.filter = findFilter(device);
+                    this.devices.put(change.getId(), device);
+                    changed |= updatePresence(device, 1);
+                    break;
+                case LEFT:
+                    if (device != null) {
+                        this.devices.remove(change.getId());
+                        changed |= updatePresence(device, -1);
+                    }
+                    break;
+                case ACTIVE:
+                case INACTIVE:
+                    if (device != null) {
+                        changed |= updatePresence(device, -1);
+                        device.active = change.isActive();
+                        changed |= updatePresence(device, 1);
+                    }
+                    break;
+                case RENAMED:
+                case UPDATED:
+                    // The filter can match the name, the mac or the ip address
+                    if (device != null) {
+                        changed |= updatePresence(device, -1);
+                        device.update(change);
+                        device.filter = findFilter(device);
+                        changed |= updatePresence(device, 1);
+                    }
+                    break;
             }
         }
 
+        if (changed) {
+            publishVisibleClients();
+        }
+        this.networkValid = true;
+    }
+
+    /**
+     * Add or remove a device from the presence of its nickname
+     *
+     * @param device The device
+     * @param amount 1 to add the device, -1 to remove it
+     * @return The device matches a filter
+     */
+    private boolean updatePresence(Device device, int amount) {
+        if (device.filter == null) {
+            return false;
+        }
+
+        Presence presence = this.presences.get(device.filter.nickname);
+        if (presence == null) {
+            presence = new Presence();
+            this.presences.put(device.filter.nickname, presence);
+        }
+
+        presence.devices += amount;
+        if (device.active) {
+            presence.active += amount;
+        }
+
+        if (presence.devices == 0) {
+            this.presences.remove(device.filter.nickname);
+        }
+        return true;
+    }
+
+    /**
+     * Match all known devices against the current filters
+     */
+    private synchronized void rematch() {
+        this.presences.clear();
+        for (Device device : this.devices.values()) {
+            device.filter = findFilter(device);
+            updatePresence(device, 1);
+        }
+
+        if (this.networkValid) {
+            publishVisibleClients();
+        }
+    }
+
+    /**
+     * Replace the rendered clients with the current presences
+     */
+    private void publishVisibleClients() {
+        Map<String, Boolean> visibleClients = new HashMap<>();
+        for (Map.Entry<String, Presence> entry : this.presences.entrySet()) {
+            visibleClients.put(entry.getKey(), entry.getValue().active > 0);
+        }
+
         // Update list
         this.visibleClients = visibleClients;
 
         // Update module size
-        int size = this.visibleClients.size();
+        int size = visibleClients.size();
         if (this.lastFilterMatchedResult != size) {
             this.lastFilterMatchedResult = size;
 
             // Change size
             updateSize(230, Math.max(24, 12 * (size + 1)));
         }
+    }
 
-        this.networkValid = true;
+    @Override
+    public void onDisable() {
+        super.onDisable();
+
+        // The module is hidden right away, don't wait for the paint timeout
+        this.visible = false;
+        this.addon.getFritzBox().setObserved(this, false);
     }
 
     @Override
     public void onTick() {
+        // Poll the network slower if the module is no longer painted
+        if (this.visible && this.lastRendered + INVISIBLE_TIMEOUT < System.currentTimeMillis()) {
+            this.visible = false;
+            this.addon.getFritzBox().setObserved(this, false);
+        }
     }
 
     @Override
     public void onRender(IRenderContext context, int width, int height) {
         AsyncFritzBoxAPI fritzBoxAPI = this.addon.getFritzBox();
 
+        // Module is painted again
+        this.lastRendered = System.currentTimeMillis();
+        if (!this.visible) {
+            this.visible = true;
+            fritzBoxAPI.setObserved(this, true);
+        }
+
         // Not connected to fritz box
         if (!this.networkValid || this.addon.getFritzBox() == null || fritzBoxAPI.isAuthenticationError() || this.filter.isEmpty()) {
             // Get error message
@@ -158,20 +306,13 @@ public class HomeIndicatorModule extends Module<SmartHomeAddon> implements Consu
     }
 
     /**
-     * Find a matching filter to the device name
+     * Find a matching filter to the device
      *
-     * @param deviceName The device name to filter
-     * @return Matching filter
+     * @param device The device to filter
+     * @return Matching filter or null
      */
-    private Filter getByDeviceName(String deviceName) {
-        for (Filter filter : this.filter) {
-            for (String filterDeviceName : filter.deviceNames) {
-                if (filterDeviceName.equalsIgnoreCase(deviceName)) {
-                    return filter;
-                }
-            }
-        }
-        return null;
+    private Filter findFilter(Device device) {
+        return this.filterIndex.match(device.name, device.mac, device.ip);
     }
 
     @Override
@@ -192,6 +333,49 @@ public class HomeIndicatorModule extends Module<SmartHomeAddon> implements Consu
     }
 
 
+    /**
+     * A known network device and its matching filter
+     *
+     * @author LabyStudio
+     */
+    private static class Device {
+        protected String name;
+        protected String mac;
+        protected String ip;
+        protected boolean active;
+        protected Filter filter;
+
+        /**
+         * Create a device
+         *
+         * @param active Device is active
+         */
+        public Device(boolean active) {
+            this.active = active;
+        }
+
+        /**
+         * Take the name and the addresses of a change
+         *
+         * @param change The change of this device
+         */
+        public void update(NetworkChange change) {
+            this.name = change.getName();
+            this.mac = change.getExtra(FIELD_MAC);
+            this.ip = change.getExtra(FIELD_IP);
+        }
+    }
+
+    /**
+     * Amount of matched devices of a nickname
+     *
+     * @author LabyStudio
+     */
+    private static class Presence {
+        protected int devices;
+        protected int active;
+    }
+
     /**
      * A list of devices names for a client to filter and a replacement nickname
      *
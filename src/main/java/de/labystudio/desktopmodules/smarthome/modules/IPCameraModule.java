@@ -1,5 +1,7 @@
 package de.labystudio.desktopmodules.smarthome.modules;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import de.labystudio.desktopmodules.core.addon.Addon;
 import de.labystudio.desktopmodules.core.loader.TextureLoader;
@@ -10,40 +12,51 @@ import de.labystudio.desktopmodules.core.renderer.font.FontStyle;
 import de.labystudio.desktopmodules.core.renderer.font.StringAlignment;
 import de.labystudio.desktopmodules.core.renderer.font.StringEffect;
 import de.labystudio.desktopmodules.smarthome.SmartHomeAddon;
-import de.labystudio.desktopmodules.smarthome.api.mjpeg.MotionPictureStream;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.CameraView;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.ConnectionState;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.StreamStatistics;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.VideoFrame;
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.ViewPort;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.io.DataInputStream;
-import java.io.EOFException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * Module to display a motion picture stream
+ * Module to display motion picture streams.
+ * Multiple cameras are configured in the "cameras" array, the module shows the camera with the latest motion.
  *
  * @author LabyStudio
  */
 public class IPCameraModule extends FreeViewModule<SmartHomeAddon> {
 
     private static final Font FONT = new Font("Dialog", FontStyle.PLAIN, 12);
+    private static final Font STATISTICS_FONT = new Font("Dialog", FontStyle.PLAIN, 10);
 
-    private MotionPictureStream motionPictureStream;
+    private static final long INVISIBLE_TIMEOUT = 1000L;
 
-    private URL motionUrl;
-    private long lastMotionDetected;
-    private long lastMotionChecked;
-    private long motionInterval;
-    private boolean motionDetectionEnabled;
+    private volatile List<CameraFeed> feeds = Collections.emptyList();
+    private List<JsonObject> cameras = Collections.emptyList();
+    private volatile CameraFeed displayedFeed;
 
-    private boolean triggerOnStart;
-
-    private int characterOffset;
-    private byte characterByte;
+    private boolean showStatistics;
 
     private BufferedImage textureLoading;
 
+    private int viewPortWidth;
+    private int viewPortHeight;
+    private int viewPortOffsetX;
+    private int viewPortOffsetY;
+    private int viewPortZoom;
+    private CameraFeed viewPortFeed;
+
+    private int maxFrameRate;
+    private float renderInterval;
+    private volatile long lastRendered;
+    private boolean visible = true;
+
     public IPCameraModule() {
         super(200, 120);
     }
@@ -52,120 +65,141 @@ public class IPCameraModule extends FreeViewModule<SmartHomeAddon> {
     public void onLoadConfig(JsonObject config) {
         super.onLoadConfig(config);
 
-        // Get stream configuration
-        try {
-            String streamUrl = Addon.getConfigValue(config, "mjpeg_url", "http://127.0.0.1/cgi-bin/CGIStream.cgi?cmd=GetMJStream");
-            this.motionPictureStream = new MotionPictureStream(new URL(streamUrl));
-
-            this.lastMotionDetected = System.currentTimeMillis();
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
-        }
-
-        this.triggerOnStart = Addon.getConfigValue(config, "trigger_on_start", false);
-
-        // Get motion configuration
-        try {
-            JsonObject motionDetection = Addon.getConfigObject(config, "motion_detection");
-            this.motionDetectionEnabled = Addon.getConfigValue(motionDetection, "enabled", false);
-
-            if (this.motionDetectionEnabled) {
-                this.motionUrl = new URL(Addon.getConfigValue(motionDetection, "url", "http://127.0.0.1/cgi-bin/CGIProxy.fcgi?cmd=getDevState"));
-                this.motionInterval = Addon.getConfigValue(motionDetection, "intervalInSeconds", 3) * 1000L;
+        // Release the previous cameras
+        disconnect();
 
-                // Trigger condition of the document to detect the motion
-                JsonObject triggerCondition = Addon.getConfigObject(motionDetection, "trigger_condition");
+        this.maxFrameRate = Addon.getConfigValue(config, "max_fps", 0);
+        this.showStatistics = Addon.getConfigValue(config, "show_statistics", false);
 
-                // Offset of the response document
-                this.characterOffset = Addon.getConfigValue(triggerCondition, "character_offset", 0);
-
-                // Required character as byte to flag as motion
-                this.characterByte = (byte) Addon.getConfigValue(triggerCondition, "character_byte", 0);
-            } else if (this.motionPictureStream != null) {
-                // Open stream directly
-                this.lastMotionDetected = System.currentTimeMillis();
-                this.motionPictureStream.openAsync();
+        // Each entry of the camera array is configured like a single camera, the module itself is the only camera otherwise
+        List<JsonObject> cameras = new ArrayList<>();
+        if (config.has("cameras") && config.get("cameras").isJsonArray()) {
+            JsonArray array = config.getAsJsonArray("cameras");
+            for (JsonElement element : array) {
+                if (element.isJsonObject()) {
+                    cameras.add(element.getAsJsonObject());
+                }
             }
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
+        } else {
+            cameras.add(config);
         }
+        this.cameras = cameras;
+
+        connect();
     }
 
     @Override
     public void onEnable() {
         super.onEnable();
 
-        // Start stream on initialize
-        if (this.triggerOnStart && !this.motionPictureStream.isAlive()) {
-            this.lastMotionDetected = System.currentTimeMillis();
-            this.motionPictureStream.openAsync();
+        // Reconnect the cameras after the module has been disabled
+        if (this.feeds.isEmpty()) {
+            connect();
         }
-    }
 
-    @Override
-    public void onTick() {
-        // Check motion each x seconds
-        if (!this.motionDetectionEnabled || this.lastMotionChecked + this.motionInterval > System.currentTimeMillis()) {
-            return;
+        // Start streams on initialize
+        for (CameraFeed feed : this.feeds) {
+            feed.enable();
         }
+    }
 
-        this.lastMotionChecked = System.currentTimeMillis();
-
-        // Check motion
-        if (this.motionPictureStream != null) {
-            Executors.newSingleThreadExecutor().execute(() -> {
-                try {
-                    // Check status file
-                    DataInputStream dataInputStream = new DataInputStream(this.motionUrl.openStream());
-
-                    // Skip to record state
-                    dataInputStream.skipBytes(this.characterOffset);
+    @Override
+    public void onDisable() {
+        super.onDisable();
 
-                    try {
-                        // Find byte at offset
-                        byte targetByte = dataInputStream.readByte();
+        // Complete running clips and release the connections, the relays and the motion triggers
+        disconnect();
+    }
 
-                        // Compare byte
-                        if (targetByte == this.characterByte) {
+    /**
+     * Connect all configured cameras
+     */
+    private void connect() {
+        List<CameraFeed> feeds = new ArrayList<>();
+        for (JsonObject camera : this.cameras) {
+            CameraFeed feed = new CameraFeed(this, this.addon);
+            feed.load(camera);
+            feeds.add(feed);
+        }
+        this.feeds = feeds;
+    }
 
-                            // Start stream
-                            if (!this.motionPictureStream.isAlive()) {
-                                this.lastMotionDetected = System.currentTimeMillis();
-                                this.motionPictureStream.openAsync();
-                            }
-                        } else if (this.motionPictureStream.isAlive() && this.lastMotionDetected + 1000 * 60 < System.currentTimeMillis() && !isMouseOver()) {
+    /**
+     * Release all cameras
+     */
+    private void disconnect() {
+        List<CameraFeed> feeds = this.feeds;
+        this.feeds = Collections.emptyList();
+        this.displayedFeed = null;
+        this.viewPortFeed = null;
+
+        for (CameraFeed feed : feeds) {
+            feed.dispose();
+        }
+    }
 
-                            // Close the stream
-                            this.motionPictureStream.close();
-                        }
-                    } catch (EOFException ignore) {
-                        // File just changed
-                    }
+    @Override
+    public void onTick() {
+        // Stop decoding if the module is no longer painted
+        if (this.visible && this.lastRendered + INVISIBLE_TIMEOUT < System.currentTimeMillis()) {
+            this.visible = false;
+            for (CameraFeed feed : this.feeds) {
+                feed.setVisible(false);
+            }
+        }
 
-                    dataInputStream.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            });
+        for (CameraFeed feed : this.feeds) {
+            feed.tick();
         }
     }
 
+    /**
+     * Indicates if the mouse is over the given camera, which keeps its stream open
+     *
+     * @param feed The camera
+     * @return The camera is displayed and the mouse is over the module
+     */
+    boolean isHovered(CameraFeed feed) {
+        return this.displayedFeed == feed && isMouseOver();
+    }
+
     @Override
     public void onRender(IRenderContext context, int width, int height) {
+        List<CameraFeed> feeds = this.feeds;
+
         // Error view
-        if (this.motionPictureStream == null) {
+        if (feeds.isEmpty() || feeds.stream().allMatch(feed -> feed.getCameraView() == null)) {
             context.drawRect(0, 0, this.width, this.height, Color.DARK_GRAY);
             context.drawString("Wrong configuration", width / 2.0F, height / 2.0F + 6, StringAlignment.CENTERED, StringEffect.NONE, Color.RED, FONT);
+            return;
+        }
+
+        // Show the camera with the latest motion, the others are not decoded for the display
+        CameraFeed displayed = null;
+        for (CameraFeed feed : feeds) {
+            if (feed.isDisplayable() && (displayed == null || feed.getLastMotionDetected() > displayed.getLastMotionDetected())) {
+                displayed = feed;
+            }
         }
+        for (CameraFeed feed : feeds) {
+            if (feed != displayed) {
+                feed.setVisible(false);
+            }
+        }
+        this.displayedFeed = displayed;
 
         // Hide the module if there is no video feed right now
-        if (this.motionPictureStream == null || !this.motionPictureStream.isAlive()) {
+        if (displayed == null) {
             return;
         }
+        CameraView cameraView = displayed.getCameraView();
+
+        // Decode frames only as often as they are painted
+        updateDemand(displayed);
 
         // Animation values
-        int timePassed = (int) (System.currentTimeMillis() - this.lastMotionDetected);
-        float alpha = this.motionPictureStream.isLoading() ? 1.0F / 1000.0F * timePassed : 1.0F;
+        int timePassed = (int) (System.currentTimeMillis() - displayed.getLastMotionDetected());
+        float alpha = cameraView.isLoading() ? 1.0F / 1000.0F * timePassed : 1.0F;
 
         // Update alpha value
         context.setAlpha(alpha);
@@ -173,16 +207,36 @@ public class IPCameraModule extends FreeViewModule<SmartHomeAddon> {
         // No image
         context.drawRect(0, 0, this.width, this.height, Color.DARK_GRAY);
 
+        // Decode only the visible part of the camera image
+        updateViewPort(displayed);
+
         // Draw video frame
-        BufferedImage frame = this.motionPictureStream.getCurrentFrame();
+        VideoFrame frame = cameraView.getCurrentVideoFrame();
         if (frame != null) {
-            context.drawImage(frame, this.offsetX, this.offsetY,
-                    this.width + this.zoom,
-                    this.height + this.zoom);
+            int imageWidth = this.width + this.zoom;
+            int imageHeight = this.height + this.zoom;
+
+            // Draw the decoded region at its position in the full image
+            context.drawImage(frame.getImage(),
+                    this.offsetX + Math.round(frame.getX() * imageWidth),
+                    this.offsetY + Math.round(frame.getY() * imageHeight),
+                    Math.round(frame.getWidth() * imageWidth),
+                    Math.round(frame.getHeight() * imageHeight));
+        }
+
+        // Performance overlay
+        if (this.showStatistics) {
+            renderStatistics(context, cameraView.getStatistics());
+        }
+
+        // The last frame stays visible while the connection is restored
+        if (!cameraView.isLoading() && cameraView.getConnectionState() == ConnectionState.RECONNECTING) {
+            context.drawRect(0, this.height - 16, this.width, 16, new Color(0, 0, 0, 150));
+            context.drawString("Reconnecting...", this.width / 2.0F, this.height - 4, StringAlignment.CENTERED, StringEffect.NONE, Color.WHITE, FONT);
         }
 
         // Loading animation
-        if (this.motionPictureStream.isLoading()) {
+        if (cameraView.isLoading()) {
             // Draw dimmed overlay
             context.drawRect(0, 0, this.width, this.height, new Color(0, 0, 0, 150));
 
@@ -195,6 +249,97 @@ public class IPCameraModule extends FreeViewModule<SmartHomeAddon> {
         }
     }
 
+    /**
+     * Draw the performance counters of the stream on top of the camera image
+     *
+     * @param context    The render context
+     * @param statistics The statistics of the stream
+     */
+    private void renderStatistics(IRenderContext context, StreamStatistics statistics) {
+        String[] lines = {
+                String.format("%.1f fps received, %.1f fps decoded", statistics.getReceivedFrameRate(), statistics.getDecodedFrameRate()),
+                String.format("%.1f dropped/s, %d KB/s", statistics.getDroppedFrameRate(), statistics.getBytesPerSecond() / 1024),
+                String.format("Decode %.1f ms avg, %.1f ms p99", statistics.getAverageDecodeTime() / 1000F, statistics.getDecodeTimeP99() / 1000F),
+                String.format("Latency %.1f ms avg, %.1f ms p99", statistics.getAverageLatency() / 1000F, statistics.getLatencyP99() / 1000F)
+        };
+
+        context.drawRect(0, 0, this.width, lines.length * 11 + 4, new Color(0, 0, 0, 120));
+
+        int y = 11;
+        for (String line : lines) {
+            context.drawString(line, 3, y, StringAlignment.from(false), StringEffect.SHADOW, Color.WHITE, STATISTICS_FONT);
+            y += 11;
+        }
+    }
+
+    /**
+     * Report the visibility and the current paint rate to the displayed camera
+     *
+     * @param feed The displayed camera
+     */
+    private void updateDemand(CameraFeed feed) {
+        long now = System.currentTimeMillis();
+
+        // Measure the paint interval
+        long interval = now - this.lastRendered;
+        if (interval < INVISIBLE_TIMEOUT) {
+            this.renderInterval = this.renderInterval == 0 ? interval : this.renderInterval * 0.9F + interval * 0.1F;
+        }
+        this.lastRendered = now;
+
+        // Module is painted again
+        this.visible = true;
+        feed.setVisible(true);
+
+        // Decode as many frames as we can paint
+        int frameRate = this.renderInterval <= 0 ? 0 : Math.round(1000F / this.renderInterval);
+        if (this.maxFrameRate > 0) {
+            frameRate = frameRate == 0 ? this.maxFrameRate : Math.min(frameRate, this.maxFrameRate);
+        }
+        feed.setTargetFrameRate(frameRate);
+    }
+
+    /**
+     * Pass the visible region of the camera image and its size on the screen to the stream
+     * when the module has been resized, moved or zoomed or another camera is displayed
+     *
+     * @param feed The displayed camera
+     */
+    private void updateViewPort(CameraFeed feed) {
+        if (this.viewPortFeed == feed && this.viewPortWidth == this.width && this.viewPortHeight == this.height
+                && this.viewPortOffsetX == this.offsetX && this.viewPortOffsetY == this.offsetY
+                && this.viewPortZoom == this.zoom) {
+            return;
+        }
+
+        this.viewPortFeed = feed;
+        this.viewPortWidth = this.width;
+        this.viewPortHeight = this.height;
+        this.viewPortOffsetX = this.offsetX;
+        this.viewPortOffsetY = this.offsetY;
+        this.viewPortZoom = this.zoom;
+
+        // Size of the full camera image on the screen
+        int imageWidth = this.width + this.zoom;
+        int imageHeight = this.height + this.zoom;
+        if (imageWidth <= 0 || imageHeight <= 0) {
+            return;
+        }
+
+        // Visible part of the camera image on the screen
+        int minX = Math.max(0, -this.offsetX);
+        int minY = Math.max(0, -this.offsetY);
+        int maxX = Math.min(imageWidth, this.width - this.offsetX);
+        int maxY = Math.min(imageHeight, this.height - this.offsetY);
+        if (maxX <= minX || maxY <= minY) {
+            return;
+        }
+
+        feed.getCameraView().setViewPort(new ViewPort(maxX - minX, maxY - minY,
+                (float) minX / imageWidth, (float) minY / imageHeight,
+                (float) (maxX - minX) / imageWidth, (float) (maxY - minY) / imageHeight));
+    }
+
     @Override
     public void loadTextures(TextureLoader textureLoader) {
         this.textureLoading = textureLoader.load("textures/smarthome/camera/loading.png");
@@ -0,0 +1,173 @@
+package de.labystudio.desktopmodules.smarthome.api.event;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the queue policies of the event dispatcher
+ *
+ * @author LabyStudio
+ */
+public class EventDispatcherTest {
+
+    private final List<Runnable> tasks = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+
+    private final AtomicInteger retained = new AtomicInteger();
+    private EventDispatcher<Integer> dispatcher;
+
+    @Before
+    public void setUp() {
+        this.tasks.clear();
+        this.received.clear();
+        this.retained.set(0);
+
+        // The listeners only run when the test runs the queued tasks
+        this.dispatcher = new EventDispatcher<>(this.tasks::add, event -> {
+            this.retained.incrementAndGet();
+            return true;
+        }, event -> this.retained.decrementAndGet());
+    }
+
+    @Test
+    public void testLatestOnly() {
+        Subscription<Integer> subscription = this.dispatcher.subscribe(this.received::add, DispatchPolicy.LATEST_ONLY, 10);
+
+        for (int i = 1; i <= 5; i++) {
+            this.dispatcher.dispatch(i);
+        }
+        assertEquals(1, subscription.getPending());
+
+        runTasks();
+
+        // Only the newest event is delivered, the capacity is ignored
+        assertEquals(Collections.singletonList(5), this.received);
+        assertEquals(1, subscription.getDelivered());
+        assertEquals(4, subscription.getDropped());
+        assertEquals(0, this.retained.get());
+    }
+
+    @Test
+    public void testDropOldest() {
+        Subscription<Integer> subscription = this.dispatcher.subscribe(this.received::add, DispatchPolicy.DROP_OLDEST, 3);
+
+        for (int i = 1; i <= 5; i++) {
+            this.dispatcher.dispatch(i);
+        }
+        assertEquals(3, subscription.getPending());
+
+        runTasks();
+
+        // The newest events are delivered in order
+        assertEquals(Arrays.asList(3, 4, 5), this.received);
+        assertEquals(3, subscription.getDelivered());
+        assertEquals(2, subscription.getDropped());
+        assertEquals(0, this.retained.get());
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        Subscription<Integer> subscription = this.dispatcher.subscribe(this.received::add, DispatchPolicy.BLOCK, 2);
+
+        // The third event has to wait for the listener
+        Thread publisher = new Thread(() -> {
+            for (int i = 1; i <= 3; i++) {
+                this.dispatcher.dispatch(i);
+            }
+        });
+        publisher.start();
+        awaitState(publisher, Thread.State.WAITING);
+        assertEquals(2, subscription.getPending());
+
+        // Taking the events releases the publisher
+        while (publisher.isAlive() || !this.tasks.isEmpty()) {
+            runTasks();
+            publisher.join(10);
+        }
+
+        // Nothing is lost
+        assertEquals(Arrays.asList(1, 2, 3), this.received);
+        assertEquals(0, subscription.getDropped());
+        assertEquals(0, this.retained.get());
+    }
+
+    @Test
+    public void testUnsubscribeReleasesBlockedPublisher() throws InterruptedException {
+        Subscription<Integer> subscription = this.dispatcher.subscribe(this.received::add, DispatchPolicy.BLOCK, 1);
+
+        Thread publisher = new Thread(() -> {
+            this.dispatcher.dispatch(1);
+            this.dispatcher.dispatch(2);
+        });
+        publisher.start();
+        awaitState(publisher, Thread.State.WAITING);
+
+        subscription.unsubscribe();
+        publisher.join(1000);
+        assertFalse(publisher.isAlive());
+
+        // The pending and the waiting event are dropped without calling the listener
+        runTasks();
+        assertTrue(this.received.isEmpty());
+        assertFalse(this.dispatcher.hasSubscribers());
+        assertEquals(0, this.retained.get());
+    }
+
+    @Test
+    public void testSlowSubscriberOnlyAffectsItself() {
+        List<Integer> fast = new ArrayList<>();
+        Subscription<Integer> latest = this.dispatcher.subscribe(this.received::add);
+        Subscription<Integer> queued = this.dispatcher.subscribe(fast::add, DispatchPolicy.DROP_OLDEST, 8);
+
+        for (int i = 1; i <= 4; i++) {
+            this.dispatcher.dispatch(i);
+        }
+        runTasks();
+
+        assertEquals(Collections.singletonList(4), this.received);
+        assertEquals(Arrays.asList(1, 2, 3, 4), fast);
+        assertEquals(3, latest.getDropped());
+        assertEquals(0, queued.getDropped());
+    }
+
+    /**
+     * Run the deliveries that have been scheduled on the executor
+     */
+    private void runTasks() {
+        while (true) {
+            Runnable task;
+            synchronized (this.tasks) {
+                if (this.tasks.isEmpty()) {
+                    return;
+                }
+                task = this.tasks.remove(0);
+            }
+            task.run();
+        }
+    }
+
+    /**
+     * Wait until the given thread reached the given state
+     *
+     * @param thread The thread
+     * @param state  The expected state
+     * @throws InterruptedException Interrupted while waiting
+     */
+    private static void awaitState(Thread thread, Thread.State state) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 1000;
+        while (thread.getState() != state && System.currentTimeMillis() < timeout) {
+            Thread.sleep(1);
+        }
+        assertEquals(state, thread.getState());
+    }
+}
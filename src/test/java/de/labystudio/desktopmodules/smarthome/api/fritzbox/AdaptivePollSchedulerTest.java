@@ -0,0 +1,179 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the intervals and the refresh requests of the poll scheduler
+ *
+ * @author LabyStudio
+ */
+public class AdaptivePollSchedulerTest {
+
+    private static final long TIMEOUT = 5000L;
+
+    private ScheduledExecutorService executor;
+    private AdaptivePollScheduler scheduler;
+
+    private final AtomicInteger polls = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger overlaps = new AtomicInteger();
+    private final AtomicBoolean changed = new AtomicBoolean();
+    private final AtomicBoolean failing = new AtomicBoolean();
+    private volatile CountDownLatch started = new CountDownLatch(0);
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newScheduledThreadPool(4);
+        this.scheduler = new AdaptivePollScheduler(this.executor, () -> {
+            if (this.running.incrementAndGet() > 1) {
+                this.overlaps.incrementAndGet();
+            }
+            try {
+                this.polls.incrementAndGet();
+                this.started.countDown();
+                this.release.await();
+
+                if (this.failing.get()) {
+                    throw new IllegalStateException("Unreachable");
+                }
+                return this.changed.getAndSet(false);
+            } finally {
+                this.running.decrementAndGet();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        this.scheduler.stop();
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testBackoff() throws InterruptedException {
+        this.scheduler.start(10L, 40L, 160L);
+
+        // A stable source reaches the maximum interval
+        awaitInterval(160L);
+
+        // A change polls with the fast interval again
+        this.changed.set(true);
+        awaitInterval(10L);
+        awaitInterval(160L);
+        assertEquals(0, this.overlaps.get());
+    }
+
+    @Test
+    public void testFast() throws InterruptedException {
+        this.scheduler.setFast(true);
+        this.scheduler.start(10L, 40L, 160L);
+        awaitInterval(40L);
+
+        // The interval doesn't grow further while fast polling is requested
+        int polls = this.polls.get();
+        awaitPolls(polls + 5);
+        assertEquals(40L, this.scheduler.getCurrentInterval());
+
+        // Polling is only a fallback for an event driven source
+        this.scheduler.setEventDriven(true);
+        awaitInterval(160L);
+    }
+
+    @Test
+    public void testFailure() throws InterruptedException {
+        this.failing.set(true);
+        this.scheduler.start(10L, 40L, 160L);
+        awaitInterval(160L);
+
+        this.failing.set(false);
+        this.changed.set(true);
+        awaitInterval(10L);
+    }
+
+    @Test
+    public void testCombinedRefresh() throws Exception {
+        this.started = new CountDownLatch(1);
+        this.release = new CountDownLatch(1);
+        this.scheduler.start(60000L, 60000L, 60000L);
+        assertTrue(this.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // Requests during a poll are served by a single poll after it
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[50];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = this.scheduler.requestRefresh();
+        }
+        assertFalse(futures[0].isDone());
+        this.release.countDown();
+
+        CompletableFuture.allOf(futures).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals(2, this.polls.get());
+        assertEquals(0, this.overlaps.get());
+    }
+
+    @Test
+    public void testRefreshFailure() throws Exception {
+        this.scheduler.start(60000L, 60000L, 60000L);
+        awaitPolls(1);
+
+        this.failing.set(true);
+        try {
+            this.scheduler.requestRefresh().get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("The failure of the poll must be passed to the refresh request");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testStop() throws InterruptedException {
+        this.scheduler.start(10L, 40L, 160L);
+        awaitPolls(1);
+
+        this.scheduler.stop();
+        assertFalse(this.scheduler.isRunning());
+        assertTrue(this.scheduler.requestRefresh().isCompletedExceptionally());
+
+        // A running poll is not repeated
+        Thread.sleep(100L);
+        int polls = this.polls.get();
+        Thread.sleep(100L);
+        assertEquals(polls, this.polls.get());
+    }
+
+    private void awaitInterval(long interval) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + TIMEOUT;
+        while (this.scheduler.getCurrentInterval() != interval) {
+            if (System.currentTimeMillis() > timeout) {
+                fail("Interval is " + this.scheduler.getCurrentInterval() + " instead of " + interval);
+            }
+            Thread.sleep(1L);
+        }
+    }
+
+    private void awaitPolls(int polls) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + TIMEOUT;
+        while (this.polls.get() < polls) {
+            if (System.currentTimeMillis() > timeout) {
+                fail("Only " + this.polls.get() + " of " + polls + " polls");
+            }
+            Thread.sleep(1L);
+        }
+    }
+}
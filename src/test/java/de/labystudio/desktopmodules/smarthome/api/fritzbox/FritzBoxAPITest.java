@@ -0,0 +1,22 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox;
+
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the login of the fritz box
+ *
+ * @author LabyStudio
+ */
+public class FritzBoxAPITest {
+
+    @Test
+    public void testPbkdf2Response() throws GeneralSecurityException {
+        // Example of the AVM session id documentation
+        assertEquals("5A1722$1798a1672bca7c6463d6b245f82b53703b0f50813401b03e4045a5861e689adb",
+                FritzBoxAPI.getPbkdf2Response("2$10000$5A1711$2000$5A1722", "1example!"));
+    }
+}
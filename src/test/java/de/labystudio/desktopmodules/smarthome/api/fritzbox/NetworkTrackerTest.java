@@ -0,0 +1,129 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox;
+
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.NetworkChange;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.NetworkChangeType;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.NetworkDeviceList;
+import de.labystudio.desktopmodules.smarthome.api.fritzbox.model.NetworkDiff;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the changes computed between two device lists
+ *
+ * @author LabyStudio
+ */
+public class NetworkTrackerTest {
+
+    private static final String INITIAL = "{\"network\":["
+            + "{\"UID\":\"a\",\"name\":\"A\",\"active\":\"1\"},"
+            + "{\"UID\":\"b\",\"name\":\"B\",\"active\":\"0\"}]}";
+
+    private static final String CHANGED = "{\"network\":["
+            + "{\"UID\":\"a\",\"name\":\"A2\",\"active\":\"0\"},"
+            + "{\"UID\":\"c\",\"name\":\"C\",\"active\":\"1\"}]}";
+
+    private NetworkDeviceList list;
+    private NetworkTracker tracker;
+
+    @Before
+    public void setUp() {
+        this.list = new NetworkDeviceList("UID");
+        this.tracker = new NetworkTracker();
+    }
+
+    @Test
+    public void testInitialList() throws IOException {
+        NetworkDiff diff = update(INITIAL);
+        assertTrue(diff.isReset());
+
+        List<NetworkChange> changes = diff.getChanges();
+        assertEquals(2, changes.size());
+        assertChange(find(changes, "a"), NetworkChangeType.JOINED, "a", "A", true);
+        assertChange(find(changes, "b"), NetworkChangeType.JOINED, "b", "B", false);
+    }
+
+    @Test
+    public void testUnchangedList() throws IOException {
+        update(INITIAL);
+        assertNull(update(INITIAL));
+    }
+
+    @Test
+    public void testChanges() throws IOException {
+        update(INITIAL);
+
+        NetworkDiff diff = update(CHANGED);
+        assertFalse(diff.isReset());
+
+        List<NetworkChange> changes = diff.getChanges();
+        assertEquals(4, changes.size());
+        assertChange(changes.get(0), NetworkChangeType.RENAMED, "a", "A2", false);
+        assertEquals("A", changes.get(0).getPreviousName());
+        assertChange(changes.get(1), NetworkChangeType.INACTIVE, "a", "A2", false);
+        assertChange(changes.get(2), NetworkChangeType.JOINED, "c", "C", true);
+        assertChange(changes.get(3), NetworkChangeType.LEFT, "b", "B", false);
+    }
+
+    @Test
+    public void testReset() throws IOException {
+        update(INITIAL);
+        this.tracker.reset();
+
+        // All devices are reported again after a reset
+        NetworkDiff diff = update(INITIAL);
+        assertTrue(diff.isReset());
+        assertEquals(2, diff.getChanges().size());
+    }
+
+    @Test
+    public void testExtras() throws IOException {
+        update(INITIAL);
+        assertEquals("a", update(CHANGED).getChanges().get(0).getExtra("UID"));
+    }
+
+    @Test
+    public void testUpdatedExtras() throws IOException {
+        this.list = new NetworkDeviceList("UID", "ip");
+        update("{\"network\":[{\"UID\":\"a\",\"name\":\"A\",\"active\":\"1\",\"ip\":\"192.168.178.2\"}]}");
+        assertNull(update("{\"network\":[{\"UID\":\"a\",\"name\":\"A\",\"active\":\"1\",\"ip\":\"192.168.178.2\"}]}"));
+
+        // Only the requested extra field changed
+        NetworkDiff diff = update("{\"network\":[{\"UID\":\"a\",\"name\":\"A\",\"active\":\"1\",\"ip\":\"192.168.178.3\"}]}");
+        assertFalse(diff.isReset());
+        assertEquals(1, diff.getChanges().size());
+        assertChange(diff.getChanges().get(0), NetworkChangeType.UPDATED, "a", "A", true);
+        assertEquals("192.168.178.3", diff.getChanges().get(0).getExtra("ip"));
+    }
+
+    private NetworkDiff update(String json) throws IOException {
+        this.list.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        return this.tracker.update(this.list, 0);
+    }
+
+    private static NetworkChange find(List<NetworkChange> changes, String id) {
+        // The complete device list has no defined order
+        for (NetworkChange change : changes) {
+            if (change.getId().equals(id)) {
+                return change;
+            }
+        }
+        throw new AssertionError("No change of device " + id);
+    }
+
+    private static void assertChange(NetworkChange change, NetworkChangeType type, String id, String name, boolean active) {
+        assertEquals(type, change.getType());
+        assertEquals(id, change.getId());
+        assertEquals(name, change.getName());
+        assertEquals(active, change.isActive());
+    }
+}
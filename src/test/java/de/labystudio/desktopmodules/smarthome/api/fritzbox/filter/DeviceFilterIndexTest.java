@@ -0,0 +1,123 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox.filter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the lookup of devices by their rules
+ *
+ * @author LabyStudio
+ */
+public class DeviceFilterIndexTest {
+
+    @Test
+    public void testNames() {
+        DeviceFilterIndex<String> index = new DeviceFilterIndex<>();
+        index.add("MyComputer", "exact");
+        index.add("iPhone-*", "prefix");
+        index.add("iPhone-Work*", "longer prefix");
+        index.add("Printer-??", "wildcard");
+        index.compile();
+
+        assertEquals("exact", index.match("mycomputer", null, null));
+        assertEquals("prefix", index.match("IPHONE-private", null, null));
+        assertEquals("longer prefix", index.match("iPhone-Work-2", null, null));
+        assertEquals("wildcard", index.match("Printer-01", null, null));
+        assertNull(index.match("Printer-001", null, null));
+        assertNull(index.match("MyComputer2", null, null));
+        assertNull(index.match(null, null, null));
+    }
+
+    @Test
+    public void testExpressions() {
+        DeviceFilterIndex<String> index = new DeviceFilterIndex<>();
+        index.add("regex:(x)(y)z", "first");
+        index.add("regex:(a)\\1-b", "backreference");
+        index.add("regex:(?<n>q)w", "named1");
+        index.add("regex:(?<n>e)r", "named2");
+        index.add("regex:(p)o\\d", "plain");
+        index.add("regex:\\Q\\1\\E-lit", "quoted");
+        index.compile();
+
+        // Groups of combined expressions don't shift each other
+        assertEquals("first", index.match("xyz", null, null));
+        assertEquals("plain", index.match("po5", null, null));
+        assertEquals("quoted", index.match("\\1-lit", null, null));
+
+        // Expressions that are matched on their own
+        assertEquals("backreference", index.match("aa-B", null, null));
+        assertNull(index.match("ab-b", null, null));
+        assertEquals("named1", index.match("qw", null, null));
+        assertEquals("named2", index.match("er", null, null));
+
+        // The whole name has to match
+        assertNull(index.match("xyz2", null, null));
+    }
+
+    @Test
+    public void testFirstExpressionWins() {
+        DeviceFilterIndex<String> index = new DeviceFilterIndex<>();
+        index.add("regex:(a)\\1", "separate");
+        index.add("regex:a+", "combined");
+        index.compile();
+
+        assertEquals("separate", index.match("aa", null, null));
+        assertEquals("combined", index.match("aaa", null, null));
+    }
+
+    @Test
+    public void testMacAddresses() {
+        DeviceFilterIndex<String> index = new DeviceFilterIndex<>();
+        index.add("mac:AA:BB:CC:DD:EE:FF", "address");
+        index.add("mac:AA:BB:CC:*", "vendor");
+        index.compile();
+
+        assertTrue(index.requiresMac());
+        assertFalse(index.requiresIp());
+        assertEquals("address", index.match(null, "aa-bb-cc-dd-ee-ff", null));
+        assertEquals("vendor", index.match(null, "AA:BB:CC:00:11:22", null));
+        assertNull(index.match(null, "AA:BB:00:00:11:22", null));
+    }
+
+    @Test
+    public void testNetworks() {
+        DeviceFilterIndex<String> index = new DeviceFilterIndex<>();
+        index.add("ip:192.168.178.0/24", "network");
+        index.add("ip:192.168.178.20", "address");
+        index.add("ip:0.0.0.0/0", "everything");
+        index.compile();
+
+        assertTrue(index.requiresIp());
+        assertFalse(index.requiresMac());
+        assertEquals("address", index.match(null, null, "192.168.178.20"));
+        assertEquals("network", index.match(null, null, "192.168.178.21"));
+        assertEquals("everything", index.match(null, null, "10.0.0.1"));
+        assertNull(index.match(null, null, "fritz.box"));
+    }
+
+    @Test
+    public void testPriority() {
+        DeviceFilterIndex<String> index = new DeviceFilterIndex<>();
+        index.add("regex:.*", "expression");
+        index.add("Computer*", "prefix");
+        index.add("ip:192.168.178.0/24", "network");
+        index.add("mac:AA:BB:CC:DD:EE:FF", "address");
+        index.add("Computer", "exact");
+        index.compile();
+
+        assertEquals("exact", index.match("Computer", "AA:BB:CC:DD:EE:FF", "192.168.178.20"));
+        assertEquals("address", index.match("Computer2", "AA:BB:CC:DD:EE:FF", "192.168.178.20"));
+        assertEquals("network", index.match("Computer2", null, "192.168.178.20"));
+        assertEquals("prefix", index.match("Computer2", null, null));
+        assertEquals("expression", index.match("Phone", null, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNetwork() {
+        new DeviceFilterIndex<String>().add("ip:192.168.178.0/33", "invalid");
+    }
+}
@@ -0,0 +1,92 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox.model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the streaming parser of the device list
+ *
+ * @author LabyStudio
+ */
+public class NetworkDeviceListTest {
+
+    @Test
+    public void testReadDevices() throws IOException {
+        NetworkDeviceList list = new NetworkDeviceList("mac");
+        read(list, "{\"pid\":\"netDev\",\"network\":["
+                + "{\"name\":\"Computer\",\"active\":\"1\",\"mac\":\"AA:BB:CC:DD:EE:01\",\"ip\":{\"v4\":\"192.168.178.20\"}},"
+                + "{\"name\":\"Phone\",\"active\":\"0\",\"mac\":\"AA:BB:CC:DD:EE:02\",\"ports\":[1,2,3]},"
+                + "{\"name\":\"Tablet\",\"active\":true}"
+                + "],\"other\":[{\"name\":\"Ignored\"}]}");
+
+        assertEquals(3, list.size());
+        assertEquals("Computer", list.getName(0));
+        assertTrue(list.isActive(0));
+        assertEquals("AA:BB:CC:DD:EE:01", list.getExtra(list.indexOf("mac"), 0));
+
+        assertEquals("Phone", list.getName(1));
+        assertFalse(list.isActive(1));
+
+        // Missing fields
+        assertTrue(list.isActive(2));
+        assertNull(list.getExtra(0, 2));
+    }
+
+    @Test
+    public void testReadAgain() throws IOException {
+        NetworkDeviceList list = new NetworkDeviceList("mac");
+
+        // More devices than the initial capacity
+        StringBuilder json = new StringBuilder("{\"network\":[");
+        for (int i = 0; i < 400; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"name\":\"Device").append(i).append("\",\"active\":\"").append(i % 2).append("\",\"mac\":\"AA:").append(i).append("\"}");
+        }
+        json.append("]}");
+
+        read(list, json.toString());
+        assertEquals(400, list.size());
+        assertEquals("Device399", list.getName(399));
+        assertEquals("AA:7", list.getExtra(0, 7));
+        String name = list.getName(5);
+
+        // A smaller response must not keep values of the previous one
+        read(list, "{\"network\":[{\"name\":\"Device0\"},{\"name\":\"Device1\",\"active\":\"1\"}]}");
+        assertEquals(2, list.size());
+        assertFalse(list.isActive(0));
+        assertNull(list.getExtra(0, 0));
+        assertTrue(list.isActive(1));
+
+        // Unchanged names are reused
+        read(list, json.toString());
+        assertSame(name, list.getName(5));
+    }
+
+    @Test
+    public void testIndexOf() {
+        NetworkDeviceList list = new NetworkDeviceList("mac", "UID");
+        assertEquals(0, list.indexOf("mac"));
+        assertEquals(1, list.indexOf("UID"));
+        assertEquals(-1, list.indexOf("ip"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformed() throws IOException {
+        read(new NetworkDeviceList(), "{\"network\":[{\"name\":");
+    }
+
+    private static void read(NetworkDeviceList list, String json) throws IOException {
+        list.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,229 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox.upnp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the event subscription against a stub device
+ *
+ * @author LabyStudio
+ */
+public class GenaSubscriberTest {
+
+    private static final long TIMEOUT = 5000L;
+
+    private StubDevice device;
+    private ScheduledExecutorService executor;
+    private GenaSubscriber subscriber;
+
+    private final AtomicInteger events = new AtomicInteger();
+    private final BlockingQueue<Boolean> states = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        this.device = new StubDevice();
+        this.executor = Executors.newScheduledThreadPool(2);
+        this.subscriber = new GenaSubscriber(this.executor, this.device.getUrl(StubDevice.EVENT_PATH), new InetSocketAddress(0),
+                this.events::incrementAndGet, this.states::add);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.subscriber.stop();
+        this.executor.shutdownNow();
+        this.device.close();
+    }
+
+    @Test
+    public void testFindEventUrl() throws IOException {
+        assertEquals(this.device.getUrl(StubDevice.EVENT_PATH),
+                ServiceDescription.findEventUrl(this.device.getUrl(StubDevice.DESCRIPTION_PATH), StubDevice.SERVICE_HOSTS));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testServiceWithoutEvents() throws IOException {
+        ServiceDescription.findEventUrl(this.device.getUrl(StubDevice.DESCRIPTION_PATH), StubDevice.SERVICE_WITHOUT_EVENTS);
+    }
+
+    @Test
+    public void testSubscribe() throws Exception {
+        this.subscriber.start();
+
+        // The initial event activates the subscription
+        awaitState(true);
+        awaitEvents(1);
+        assertEquals(this.subscriber.getCallbackUrl().toString(), this.device.callback);
+
+        // Events are only accepted for the current subscription
+        assertEquals(200, this.device.sendEvent(this.device.sid, 1));
+        assertEquals(412, this.device.sendEvent("uuid:unknown", 1));
+        awaitEvents(2);
+        Thread.sleep(100L);
+        assertEquals(2, this.events.get());
+        assertEquals(2, this.subscriber.getEventCount());
+        assertTrue(this.subscriber.getLastEvent() > 0);
+    }
+
+    @Test
+    public void testBareLineBreaks() throws Exception {
+        this.device.bareLineBreaks = true;
+        this.subscriber.start();
+        awaitState(true);
+    }
+
+    @Test
+    public void testWithoutInitialEvent() throws Exception {
+        // A device that can't reach the callback never sends an event
+        this.device.sendInitialEvent = false;
+        this.subscriber.start();
+
+        awaitSubscriptions(1);
+        assertNull(this.states.poll(500L, TimeUnit.MILLISECONDS));
+        assertFalse(this.subscriber.isActive());
+    }
+
+    @Test
+    public void testRenewal() throws Exception {
+        this.device.timeout = 2;
+        this.subscriber.start();
+        awaitState(true);
+        String sid = this.device.sid;
+
+        // Renewed after half of the timeout
+        awaitRenewals(2);
+        assertEquals(1, this.device.subscriptions.get());
+        assertTrue(this.subscriber.isActive());
+        assertEquals(200, this.device.sendEvent(sid, 1));
+    }
+
+    @Test
+    public void testRejectedRenewal() throws Exception {
+        this.device.timeout = 2;
+        this.subscriber.start();
+        awaitState(true);
+        String sid = this.device.sid;
+
+        // The device forgot the subscription, polling takes over until a new subscription is active
+        this.device.rejectRenewal = true;
+        awaitState(false);
+        awaitState(true);
+        this.device.rejectRenewal = false;
+
+        assertEquals(2, this.device.subscriptions.get());
+        assertNotEquals(sid, this.device.sid);
+        assertEquals(412, this.device.sendEvent(sid, 1));
+        assertEquals(200, this.device.sendEvent(this.device.sid, 1));
+    }
+
+    @Test
+    public void testFailedSubscription() throws Exception {
+        this.device.rejectSubscription = true;
+        this.subscriber.start();
+
+        awaitSubscriptions(1);
+        assertNull(this.states.poll(500L, TimeUnit.MILLISECONDS));
+        assertFalse(this.subscriber.isActive());
+    }
+
+    @Test
+    public void testTruncatedResponse() throws Exception {
+        this.device.truncateResponse = true;
+        this.device.sendInitialEvent = false;
+        this.subscriber.start();
+
+        awaitSubscriptions(1);
+        assertNull(this.states.poll(500L, TimeUnit.MILLISECONDS));
+
+        // The SID of the broken response is unknown to the subscriber
+        assertEquals(412, this.device.sendEvent(this.device.sid, 0));
+    }
+
+    @Test
+    public void testResubscribe() throws Exception {
+        this.subscriber.start();
+        awaitState(true);
+        String sid = this.device.sid;
+
+        this.subscriber.resubscribe(0L);
+        awaitState(false);
+        awaitState(true);
+        assertEquals(2, this.device.subscriptions.get());
+        assertNotEquals(sid, this.device.sid);
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        this.subscriber.start();
+        awaitState(true);
+        String sid = this.device.sid;
+
+        this.subscriber.stop();
+        awaitState(false);
+        assertEquals(sid, this.device.unsubscribed.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // The callback server is gone
+        try {
+            this.device.sendEvent(sid, 1);
+            fail("The callback server must be stopped");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private void awaitState(boolean active) throws InterruptedException {
+        Boolean state = this.states.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+        if (state == null) {
+            fail("The subscription didn't become " + (active ? "active" : "inactive"));
+        }
+        assertEquals(active, state);
+    }
+
+    private void awaitEvents(int events) throws InterruptedException {
+        // The listener is called after the response has been sent
+        long timeout = System.currentTimeMillis() + TIMEOUT;
+        while (this.events.get() < events) {
+            if (System.currentTimeMillis() > timeout) {
+                fail("Only " + this.events.get() + " of " + events + " events");
+            }
+            Thread.sleep(1L);
+        }
+    }
+
+    private void awaitSubscriptions(int subscriptions) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + TIMEOUT;
+        while (this.device.subscriptions.get() < subscriptions) {
+            if (System.currentTimeMillis() > timeout) {
+                fail("Only " + this.device.subscriptions.get() + " of " + subscriptions + " subscriptions");
+            }
+            Thread.sleep(1L);
+        }
+    }
+
+    private void awaitRenewals(int renewals) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + TIMEOUT;
+        while (this.device.renewals.get() < renewals) {
+            if (System.currentTimeMillis() > timeout) {
+                fail("Only " + this.device.renewals.get() + " of " + renewals + " renewals");
+            }
+            Thread.sleep(1L);
+        }
+    }
+}
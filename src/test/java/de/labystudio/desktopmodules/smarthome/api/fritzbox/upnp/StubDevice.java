@@ -0,0 +1,280 @@
+package de.labystudio.desktopmodules.smarthome.api.fritzbox.upnp;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local emulation of the UPnP endpoints of a fritz box.
+ * It serves the device description, accepts GENA subscriptions and sends events to their callbacks.
+ *
+ * @author LabyStudio
+ */
+class StubDevice implements Closeable {
+
+    static final String SERVICE_HOSTS = "urn:dslforum-org:service:Hosts:1";
+    static final String SERVICE_WITHOUT_EVENTS = "urn:dslforum-org:service:DeviceInfo:1";
+    static final String DESCRIPTION_PATH = "/tr64desc.xml";
+    static final String EVENT_PATH = "/upnp/control/hosts";
+
+    private static final String DESCRIPTION = "<?xml version=\"1.0\"?>\n"
+            + "<root xmlns=\"urn:dslforum-org:device-1-0\">\n"
+            + "  <device>\n"
+            + "    <deviceType>urn:dslforum-org:device:InternetGatewayDevice:1</deviceType>\n"
+            + "    <serviceList>\n"
+            + "      <service>\n"
+            + "        <serviceType>" + SERVICE_WITHOUT_EVENTS + "</serviceType>\n"
+            + "        <controlURL>/upnp/control/deviceinfo</controlURL>\n"
+            + "        <eventSubURL></eventSubURL>\n"
+            + "      </service>\n"
+            + "    </serviceList>\n"
+            + "    <deviceList>\n"
+            + "      <device>\n"
+            + "        <deviceType>urn:dslforum-org:device:LANDevice:1</deviceType>\n"
+            + "        <serviceList>\n"
+            + "          <service>\n"
+            + "            <serviceType>" + SERVICE_HOSTS + "</serviceType>\n"
+            + "            <controlURL>/upnp/control/hosts</controlURL>\n"
+            + "            <eventSubURL>" + EVENT_PATH + "</eventSubURL>\n"
+            + "          </service>\n"
+            + "        </serviceList>\n"
+            + "      </device>\n"
+            + "    </deviceList>\n"
+            + "  </device>\n"
+            + "</root>\n";
+
+    private static final String EVENT = "<e:propertyset xmlns:e=\"urn:schemas-upnp-org:event-1-0\">"
+            + "<e:property><HostNumberOfEntries>3</HostNumberOfEntries></e:property>"
+            + "</e:propertyset>";
+
+    private final ServerSocket server;
+    private final Thread thread;
+    private final ExecutorService notifier = Executors.newSingleThreadExecutor();
+
+    private final AtomicInteger sidCounter = new AtomicInteger();
+    private final Set<String> sids = ConcurrentHashMap.newKeySet();
+
+    final AtomicInteger subscriptions = new AtomicInteger();
+    final AtomicInteger renewals = new AtomicInteger();
+    final BlockingQueue<String> unsubscribed = new LinkedBlockingQueue<>();
+
+    // Behaviour of the device
+    volatile int timeout = 1800;
+    volatile boolean sendInitialEvent = true;
+    volatile boolean rejectSubscription;
+    volatile boolean rejectRenewal;
+    volatile boolean truncateResponse;
+    volatile boolean bareLineBreaks;
+
+    // State of the last subscription
+    volatile String callback;
+    volatile String sid;
+
+    /**
+     * Start the device on a free local port
+     *
+     * @throws IOException If the port can't be opened
+     */
+    StubDevice() throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.thread = new Thread(this::run, "Stub device");
+        this.thread.start();
+    }
+
+    /**
+     * Accept the requests one after another
+     */
+    private void run() {
+        while (!this.server.isClosed()) {
+            try (Socket socket = this.server.accept()) {
+                socket.setSoTimeout(5000);
+                handle(socket);
+            } catch (IOException e) {
+                // Closed or broken request
+            }
+        }
+    }
+
+    /**
+     * Handle a single request
+     *
+     * @param socket The connection of the request
+     * @throws IOException Request exception
+     */
+    private void handle(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+        String[] request = reader.readLine().split(" ");
+        String method = request[0];
+        String path = request[1];
+
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            int separator = line.indexOf(':');
+            headers.put(line.substring(0, separator).trim().toUpperCase(Locale.ROOT), line.substring(separator + 1).trim());
+        }
+
+        OutputStream output = socket.getOutputStream();
+        if (method.equals("GET") && path.equals(DESCRIPTION_PATH)) {
+            byte[] body = DESCRIPTION.getBytes(StandardCharsets.UTF_8);
+            respond(output, "200 OK", "CONTENT-TYPE: text/xml\r\nContent-Length: " + body.length + "\r\n");
+            output.write(body);
+        } else if (!path.equals(EVENT_PATH)) {
+            respond(output, "404 Not Found", "");
+        } else if (method.equals("SUBSCRIBE") && headers.containsKey("CALLBACK")) {
+            subscribe(output, headers.get("CALLBACK"));
+        } else if (method.equals("SUBSCRIBE")) {
+            this.renewals.incrementAndGet();
+
+            String sid = headers.get("SID");
+            if (this.rejectRenewal || sid == null || !this.sids.contains(sid)) {
+                // The device forgot the subscription
+                respond(output, "412 Precondition Failed", "");
+            } else {
+                respond(output, "200 OK", "SID: " + sid + "\r\nTIMEOUT: Second-" + this.timeout + "\r\n");
+            }
+        } else if (method.equals("UNSUBSCRIBE")) {
+            String sid = headers.get("SID");
+            respond(output, this.sids.remove(sid) ? "200 OK" : "412 Precondition Failed", "");
+            this.unsubscribed.add(sid);
+        } else {
+            respond(output, "405 Method Not Allowed", "");
+        }
+        output.flush();
+    }
+
+    /**
+     * Create a subscription and send the initial event after the response
+     *
+     * @param output   The response stream
+     * @param callback The CALLBACK header of the request
+     * @throws IOException Write exception
+     */
+    private void subscribe(OutputStream output, String callback) throws IOException {
+        this.subscriptions.incrementAndGet();
+
+        if (this.rejectSubscription) {
+            respond(output, "500 Internal Server Error", "");
+            return;
+        }
+
+        String sid = "uuid:stub-" + this.sidCounter.incrementAndGet();
+        this.sids.add(sid);
+        this.sid = sid;
+        this.callback = callback.substring(1, callback.length() - 1);
+
+        if (this.truncateResponse) {
+            // The connection breaks in the middle of the headers
+            output.write(("HTTP/1.1 200 OK\r\nSID: " + sid).getBytes(StandardCharsets.ISO_8859_1));
+            return;
+        }
+
+        // Lowercase header names are valid as well
+        respond(output, "200 OK", "sid: " + sid + "\r\ntimeout: Second-" + this.timeout + "\r\nSERVER: Stub UPnP/1.0\r\n");
+
+        if (this.sendInitialEvent) {
+            this.notifier.execute(() -> {
+                try {
+                    sendEvent(sid, 0);
+                } catch (IOException e) {
+                    // The subscriber is gone
+                }
+            });
+        }
+    }
+
+    /**
+     * Write the status line and the headers of a response
+     *
+     * @param output  The response stream
+     * @param status  The status, for example "200 OK"
+     * @param headers Header lines
+     * @throws IOException Write exception
+     */
+    private void respond(OutputStream output, String status, String headers) throws IOException {
+        String response = "HTTP/1.1 " + status + "\r\n" + headers + "Connection: close\r\n\r\n";
+        if (this.bareLineBreaks) {
+            response = response.replace("\r\n", "\n");
+        }
+        output.write(response.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Send an event to the callback of the last subscription
+     *
+     * @param sid The SID of the event
+     * @param seq The sequence number of the event
+     * @return The status code of the response
+     * @throws IOException Request exception
+     */
+    int sendEvent(String sid, int seq) throws IOException {
+        URL url = new URL(this.callback);
+        byte[] body = EVENT.getBytes(StandardCharsets.UTF_8);
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(url.getHost(), url.getPort()), 5000);
+            socket.setSoTimeout(10000);
+
+            String request = "NOTIFY " + url.getFile() + " HTTP/1.1\r\n"
+                    + "HOST: " + url.getHost() + ":" + url.getPort() + "\r\n"
+                    + "CONTENT-TYPE: text/xml; charset=\"utf-8\"\r\n"
+                    + "NT: upnp:event\r\n"
+                    + "NTS: upnp:propchange\r\n"
+                    + "SID: " + sid + "\r\n"
+                    + "SEQ: " + seq + "\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + "\r\n";
+            OutputStream output = socket.getOutputStream();
+            output.write(request.getBytes(StandardCharsets.ISO_8859_1));
+            output.write(body);
+            output.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            String status = reader.readLine();
+            if (status == null) {
+                throw new IOException("No response");
+            }
+            return Integer.parseInt(status.split(" ")[1]);
+        }
+    }
+
+    /**
+     * URL of a path on the device
+     *
+     * @param path The path
+     * @return The absolute URL
+     * @throws IOException Invalid URL
+     */
+    URL getUrl(String path) throws IOException {
+        return new URL("http", "127.0.0.1", this.server.getLocalPort(), path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.server.close();
+        this.notifier.shutdownNow();
+        try {
+            this.thread.join(5000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
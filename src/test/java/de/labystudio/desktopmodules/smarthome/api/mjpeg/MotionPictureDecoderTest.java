@@ -0,0 +1,66 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the image type handling of the JPEG decoder
+ *
+ * @author LabyStudio
+ */
+public class MotionPictureDecoderTest {
+
+    private final FrameBufferPool pool = new FrameBufferPool(2);
+
+    @Test
+    public void testComponents() throws IOException {
+        assertEquals(3, MotionPictureDecoder.getComponents(frame(jpeg(16, 16, BufferedImage.TYPE_3BYTE_BGR))));
+        assertEquals(1, MotionPictureDecoder.getComponents(frame(jpeg(16, 16, BufferedImage.TYPE_BYTE_GRAY))));
+
+        // No start of frame segment
+        assertEquals(-1, MotionPictureDecoder.getComponents(frame(MotionPictureParserTest.image(100, 1))));
+    }
+
+    @Test
+    public void testColorModelChange() throws IOException {
+        MotionPictureDecoder decoder = new MotionPictureDecoder();
+        VideoFrame target = new VideoFrame();
+
+        decoder.decode(frame(jpeg(32, 24, BufferedImage.TYPE_3BYTE_BGR)), ViewPort.FULL, target);
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, target.getImage().getType());
+
+        // The cached type is not used for a frame of the same size with another color model
+        decoder.decode(frame(jpeg(32, 24, BufferedImage.TYPE_BYTE_GRAY)), ViewPort.FULL, target);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, target.getImage().getType());
+
+        // Another size with the same color model
+        decoder.decode(frame(jpeg(16, 8, BufferedImage.TYPE_BYTE_GRAY)), ViewPort.FULL, target);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, target.getImage().getType());
+        assertEquals(16, target.getImage().getWidth());
+        assertEquals(8, target.getImage().getHeight());
+    }
+
+    private FrameBuffer frame(byte[] data) {
+        FrameBuffer buffer = this.pool.acquire();
+        System.arraycopy(data, 0, buffer.ensureCapacity(data.length), 0, data.length);
+        buffer.setLength(data.length);
+        return buffer;
+    }
+
+    private static byte[] jpeg(int width, int height, int type) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int x = 0; x < width; x++) {
+            image.setRGB(x, x % height, 0xFF8040);
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", stream);
+        return stream.toByteArray();
+    }
+}
@@ -0,0 +1,255 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the frame extraction of the MJPEG parser
+ *
+ * @author LabyStudio
+ */
+public class MotionPictureParserTest {
+
+    private final List<byte[]> frames = new ArrayList<>();
+    private MotionPictureParser parser;
+
+    @Before
+    public void setUp() {
+        this.frames.clear();
+        this.parser = new MotionPictureParser(new FrameBufferPool(4), frame -> {
+            this.frames.add(Arrays.copyOf(frame.getData(), frame.getLength()));
+            frame.release();
+        });
+    }
+
+    @Test
+    public void testScanMarkersSplitAcrossChunks() throws IOException {
+        byte[][] images = {image(100, 1), image(2000, 2), image(10, 3)};
+        byte[] stream = stream(images, -1);
+
+        // Every chunk size splits the markers at a different position
+        for (int chunkSize = 1; chunkSize <= 8; chunkSize++) {
+            setUp();
+            feed(stream, chunkSize);
+            assertFrames(images);
+        }
+    }
+
+    @Test
+    public void testContentLength() throws IOException {
+        byte[][] images = {image(100, 1), image(70000, 2), image(10, 3)};
+        byte[] stream = stream(images, 0);
+
+        feed(stream, 3);
+        assertFrames(images);
+
+        // Frames of known length are read directly from the stream
+        setUp();
+        read(stream);
+        assertFrames(images);
+    }
+
+    @Test
+    public void testContentLengthTooShort() throws IOException {
+        byte[][] images = {image(100, 1), image(200, 2), image(300, 3)};
+
+        // The first part announces less than the frame, the parser scans for the end marker instead
+        feed(stream(images, -50), 7);
+        assertFrames(images);
+    }
+
+    @Test
+    public void testScanAfterWrongLength() throws IOException {
+        byte[][] images = {image(100, 1), image(200, 2), image(300, 3)};
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        part(stream, images[0], images[0].length - 10);
+
+        // Lengths are not trusted anymore, so a huge length can't swallow the following frames
+        part(stream, images[1], 1000000);
+        part(stream, images[2], images[2].length);
+
+        feed(stream.toByteArray(), 16);
+        assertFrames(images);
+    }
+
+    @Test
+    public void testContentLengthIncludesTrailer() throws IOException {
+        byte[][] images = {image(100, 1), image(200, 2), image(300, 3)};
+        byte[] stream = stream(images, 2);
+
+        // The first part announces the line break after the frame as well
+        for (int chunkSize = 1; chunkSize <= 8; chunkSize++) {
+            setUp();
+            feed(stream, chunkSize);
+            assertFrames(images);
+        }
+    }
+
+    @Test
+    public void testContentLengthCoversNextFrame() throws IOException {
+        byte[][] images = {image(100, 1), image(200, 2), image(300, 3)};
+
+        ByteArrayOutputStream next = new ByteArrayOutputStream();
+        part(next, images[1], images[1].length);
+
+        // The length of the first part runs over the delimiter, the header and the data of the second part
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        part(stream, images[0], images[0].length + 2 + next.size());
+        stream.write(next.toByteArray(), 0, next.size());
+        part(stream, images[2], images[2].length);
+
+        // The trailer is split across chunks or read directly into the frame buffer
+        for (int chunkSize : new int[]{1, 3, 7, 64}) {
+            setUp();
+            feed(stream.toByteArray(), chunkSize);
+            assertFrames(images);
+        }
+
+        setUp();
+        read(stream.toByteArray());
+        assertFrames(images);
+    }
+
+    @Test
+    public void testContentLengthCoversSeveralFrames() throws IOException {
+        byte[][] images = {image(100, 1), image(200, 2), image(300, 3), image(50, 4)};
+
+        // The length of the third part is correct
+        ByteArrayOutputStream third = new ByteArrayOutputStream();
+        part(third, images[2], images[2].length);
+
+        // The length of the second part covers the third part
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        part(second, images[1], images[1].length + 2 + third.size());
+        second.write(third.toByteArray(), 0, third.size());
+
+        // The length of the first part covers both following parts
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        part(stream, images[0], images[0].length + 2 + second.size());
+        stream.write(second.toByteArray(), 0, second.size());
+        part(stream, images[3], images[3].length);
+
+        // The trailer of the second frame is found inside of the trailer of the first frame
+        for (int chunkSize : new int[]{1, 5, 64, 4096}) {
+            setUp();
+            feed(stream.toByteArray(), chunkSize);
+            assertFrames(images);
+        }
+
+        setUp();
+        read(stream.toByteArray());
+        assertFrames(images);
+    }
+
+    @Test
+    public void testEmbeddedThumbnail() throws IOException {
+        // The end marker of the thumbnail is inside of the frame
+        byte[] thumbnail = image(50, 4);
+        byte[] image = concat(Arrays.copyOf(image(200, 5), 100), thumbnail, image(200, 6));
+        byte[][] images = {image, image(100, 7)};
+
+        feed(stream(images, 0), 5);
+        assertFrames(images);
+    }
+
+    @Test
+    public void testEmbeddedThumbnailWithTrailer() throws IOException {
+        // The end marker of the thumbnail is followed by image data, so it doesn't end the frame
+        byte[] thumbnail = image(50, 4);
+        byte[] image = concat(Arrays.copyOf(image(200, 5), 100), thumbnail, image(200, 6));
+        byte[][] images = {image, image(100, 7)};
+
+        feed(stream(images, 2), 5);
+        assertFrames(images);
+    }
+
+    private void feed(byte[] stream, int chunkSize) throws IOException {
+        for (int offset = 0; offset < stream.length; offset += chunkSize) {
+            // Use a separate buffer like the chunk of a socket read
+            byte[] chunk = Arrays.copyOfRange(stream, offset, Math.min(stream.length, offset + chunkSize));
+            this.parser.feed(chunk, 0, chunk.length);
+        }
+    }
+
+    private void read(byte[] stream) throws IOException {
+        InputStream input = new ByteArrayInputStream(stream);
+        while (this.parser.read(input)) {
+            // Read until the end
+        }
+    }
+
+    private void assertFrames(byte[][] images) {
+        assertEquals(images.length, this.frames.size());
+        for (int i = 0; i < images.length; i++) {
+            assertArrayEquals(images[i], this.frames.get(i));
+        }
+    }
+
+    /**
+     * Create a multipart transmission
+     *
+     * @param images      The frames
+     * @param lengthDelta Difference of the announced length of the first part to the actual length, -1 to omit the header
+     * @return The transmission bytes
+     */
+    private static byte[] stream(byte[][] images, int lengthDelta) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < images.length; i++) {
+            int length = lengthDelta == -1 ? -1 : images[i].length + (i == 0 ? lengthDelta : 0);
+            part(stream, images[i], length);
+        }
+        return stream.toByteArray();
+    }
+
+    private static void part(ByteArrayOutputStream stream, byte[] image, int length) {
+        String header = "--boundary\r\nContent-Type: image/jpeg\r\n"
+                + (length == -1 ? "" : "Content-Length: " + length + "\r\n")
+                + "\r\n";
+        byte[] bytes = header.getBytes(StandardCharsets.US_ASCII);
+        stream.write(bytes, 0, bytes.length);
+        stream.write(image, 0, image.length);
+        stream.write('\r');
+        stream.write('\n');
+    }
+
+    /**
+     * Create a fake JPEG with binary data between the start and the end marker
+     *
+     * @param length Length of the data between the markers
+     * @param seed   Seed of the data
+     * @return The JPEG bytes
+     */
+    static byte[] image(int length, int seed) {
+        byte[] image = new byte[length + 4];
+        image[0] = (byte) 0xFF;
+        image[1] = (byte) 0xD8;
+        for (int i = 0; i < length; i++) {
+            // 0x80 to 0xFE, so no marker is created by accident
+            image[i + 2] = (byte) (0x80 + (i * 31 + seed) % 0x7F);
+        }
+        image[length + 2] = (byte) 0xFF;
+        image[length + 3] = (byte) 0xD9;
+        return image;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            stream.write(part, 0, part.length);
+        }
+        return stream.toByteArray();
+    }
+}
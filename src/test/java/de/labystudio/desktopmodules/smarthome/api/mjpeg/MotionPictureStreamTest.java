@@ -0,0 +1,209 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the transports of the motion picture stream against a fake camera
+ *
+ * @author LabyStudio
+ */
+public class MotionPictureStreamTest {
+
+    private static final long TIMEOUT = 5000L;
+
+    private ServerSocket camera;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger snapshots = new AtomicInteger();
+    private byte[] image;
+
+    private ExecutorService executor;
+    private StreamSelector selector;
+    private MotionPictureStream stream;
+
+    @Before
+    public void setUp() throws IOException {
+        this.openConnections.set(0);
+        this.snapshots.set(0);
+        this.image = jpeg();
+
+        // Fake camera with a stream and a snapshot url
+        this.camera = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(() -> {
+            while (!this.camera.isClosed()) {
+                try {
+                    Socket socket = this.camera.accept();
+                    Thread connection = new Thread(() -> serveCamera(socket));
+                    connection.setDaemon(true);
+                    connection.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+
+        this.executor = Executors.newCachedThreadPool();
+        this.stream = new MotionPictureStream(url("/stream"), this.executor, this.executor);
+        this.stream.setStallTimeout(1000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.stream.close();
+        if (this.selector != null) {
+            this.selector.close();
+        }
+        this.executor.shutdownNow();
+        this.camera.close();
+    }
+
+    @Test
+    public void testBlockingTransport() throws Exception {
+        assertStreaming();
+    }
+
+    @Test
+    public void testSelectorTransport() throws Exception {
+        this.selector = new StreamSelector();
+        this.stream.setStreamSelector(this.selector);
+
+        assertStreaming();
+        assertEquals(0, this.selector.getConnectionCount());
+    }
+
+    @Test
+    public void testSnapshotPolling() throws Exception {
+        this.selector = new StreamSelector();
+        this.stream.setStreamSelector(this.selector);
+        this.stream.setSnapshotUrl(url("/snapshot"));
+        this.stream.setSnapshotInterval(1000L);
+        this.stream.openAsync();
+
+        // The stream is not connected while snapshots are polled
+        await(() -> this.stream.getConnectionState() == ConnectionState.POLLING && this.snapshots.get() > 0, "snapshot");
+        await(() -> this.stream.getStatistics().getReceivedFrames() > 0, "received snapshot");
+        assertEquals(0, this.openConnections.get());
+
+        // The stream is connected again on the selector after the snapshot mode ended
+        this.stream.setSnapshotInterval(0L);
+        await(() -> this.stream.getConnectionState() == ConnectionState.STREAMING, "stream");
+        assertEquals(1, this.selector.getConnectionCount());
+    }
+
+    /**
+     * Open the stream, wait for frames and check that closing the stream disconnects the camera
+     *
+     * @throws Exception Timeout or connection exception
+     */
+    private void assertStreaming() throws Exception {
+        this.stream.openAsync();
+
+        await(() -> this.stream.getConnectionState() == ConnectionState.STREAMING, "stream");
+        await(() -> this.stream.getStatistics().getReceivedFrames() >= 3, "frames");
+        assertEquals(1, this.openConnections.get());
+
+        this.stream.close();
+        assertEquals(ConnectionState.CLOSED, this.stream.getConnectionState());
+        await(() -> this.openConnections.get() == 0, "disconnect");
+    }
+
+    /**
+     * Serve the stream or a single snapshot depending on the requested path
+     *
+     * @param socket The accepted connection
+     */
+    private void serveCamera(Socket socket) {
+        try (Socket connection = socket) {
+            DataInputStream input = new DataInputStream(connection.getInputStream());
+            OutputStream output = connection.getOutputStream();
+
+            String request = readLine(input);
+            while (!readLine(input).isEmpty()) {
+                // Request headers
+            }
+
+            if (request.startsWith("GET /snapshot ")) {
+                this.snapshots.incrementAndGet();
+                output.write(("HTTP/1.1 200 OK\r\nContent-Type: image/jpeg\r\nContent-Length: " + this.image.length
+                        + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                output.write(this.image);
+                output.flush();
+                return;
+            }
+
+            this.openConnections.incrementAndGet();
+            try {
+                output.write(("HTTP/1.0 200 OK\r\n"
+                        + "Content-Type: multipart/x-mixed-replace; boundary=camera\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                while (true) {
+                    output.write(("--camera\r\nContent-Type: image/jpeg\r\nContent-Length: " + this.image.length + "\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    output.write(this.image);
+                    output.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                    output.flush();
+                    Thread.sleep(10);
+                }
+            } finally {
+                this.openConnections.decrementAndGet();
+            }
+        } catch (IOException | InterruptedException e) {
+            // Client disconnected
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + this.camera.getLocalPort() + path);
+    }
+
+    private static void await(BooleanSupplier condition, String description) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > timeout) {
+                fail("Timeout while waiting for the " + description);
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static String readLine(DataInputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("End of stream");
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        return new String(bytes, 0, Math.max(0, bytes.length - 1), StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] jpeg() throws IOException {
+        BufferedImage image = new BufferedImage(32, 24, BufferedImage.TYPE_3BYTE_BGR);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", stream);
+        return stream.toByteArray();
+    }
+}
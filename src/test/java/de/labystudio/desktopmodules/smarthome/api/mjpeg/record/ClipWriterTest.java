@@ -0,0 +1,105 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg.record;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the clip file and its index
+ *
+ * @author LabyStudio
+ */
+public class ClipWriterTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.file = File.createTempFile("clip", ".mjpeg");
+    }
+
+    @After
+    public void tearDown() {
+        this.file.delete();
+        new File(this.file.getPath() + ".idx").delete();
+    }
+
+    @Test
+    public void testFramesAndIndex() throws IOException {
+        // A small frame, a frame larger than the staging buffer and a frame written in several parts
+        byte[][] frames = {frame(100, 1), frame(300 * 1024, 2), frame(5000, 3)};
+        long[] timestamps = {1000L, 1040L, 1080L};
+
+        ClipWriter writer = new ClipWriter(this.file);
+        try {
+            for (int i = 0; i < frames.length; i++) {
+                writer.beginFrame(timestamps[i], frames[i].length);
+                if (i == 2) {
+                    writer.append(ByteBuffer.wrap(frames[i], 0, 2000));
+                    writer.append(ByteBuffer.wrap(frames[i], 2000, 3000));
+                } else {
+                    writer.append(ByteBuffer.wrap(frames[i]));
+                }
+                writer.endFrame();
+            }
+
+        } finally {
+            writer.close();
+        }
+
+        assertEquals(frames.length, writer.getFrameCount());
+        assertEquals(this.file.length(), writer.getLength());
+
+        byte[] clip = Files.readAllBytes(this.file.toPath());
+        byte[] index = Files.readAllBytes(new File(this.file.getPath() + ".idx").toPath());
+        assertEquals(frames.length * 20, index.length);
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(index));
+        for (int i = 0; i < frames.length; i++) {
+            assertEquals(timestamps[i], input.readLong());
+            int offset = (int) input.readLong();
+            int length = input.readInt();
+
+            // The index points to the JPEG data of the part
+            assertEquals(frames[i].length, length);
+            assertArrayEquals(frames[i], Arrays.copyOfRange(clip, offset, offset + length));
+
+            String header = new String(clip, 0, offset, StandardCharsets.US_ASCII);
+            assertTrue(header.endsWith("X-Timestamp: " + timestamps[i] + "\r\n\r\n"));
+        }
+    }
+
+    @Test
+    public void testTruncateExisting() throws IOException {
+        Files.write(this.file.toPath(), new byte[1024 * 1024]);
+
+        try (ClipWriter writer = new ClipWriter(this.file)) {
+            writer.beginFrame(0L, 10);
+            writer.append(ByteBuffer.wrap(frame(10, 0)));
+            writer.endFrame();
+        }
+
+        assertTrue(this.file.length() < 1024);
+    }
+
+    private static byte[] frame(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,248 @@
+package de.labystudio.desktopmodules.smarthome.api.mjpeg.relay;
+
+import de.labystudio.desktopmodules.smarthome.api.mjpeg.CameraRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the local relay against a fake camera
+ *
+ * @author LabyStudio
+ */
+public class MotionPictureRelayTest {
+
+    private static final byte[] FRAME = frame(2000);
+
+    private ServerSocket camera;
+    private Thread cameraThread;
+    private final AtomicInteger cameraConnections = new AtomicInteger();
+
+    private CameraRegistry registry;
+    private MotionPictureRelay relay;
+
+    @Before
+    public void setUp() throws IOException {
+        this.cameraConnections.set(0);
+
+        // Fake camera that streams the same frame until the connection is closed
+        this.camera = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.cameraThread = new Thread(() -> {
+            while (!this.camera.isClosed()) {
+                try {
+                    Socket socket = this.camera.accept();
+                    this.cameraConnections.incrementAndGet();
+                    Thread thread = new Thread(() -> serveCamera(socket));
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        this.cameraThread.setDaemon(true);
+        this.cameraThread.start();
+
+        this.registry = new CameraRegistry();
+        URL url = new URL("http://127.0.0.1:" + this.camera.getLocalPort() + "/stream");
+        this.relay = this.registry.startRelay(url, new InetSocketAddress("127.0.0.1", freePort()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.registry.closeAll();
+        this.camera.close();
+    }
+
+    @Test
+    public void testRelayFrames() throws Exception {
+        // The camera is only connected while clients are streaming
+        Thread.sleep(100);
+        assertEquals(0, this.cameraConnections.get());
+
+        try (Socket first = connect(); Socket second = connect()) {
+            DataInputStream firstInput = new DataInputStream(first.getInputStream());
+            DataInputStream secondInput = new DataInputStream(second.getInputStream());
+
+            assertTrue(readLine(firstInput).startsWith("HTTP/1.0 200 OK"));
+            assertTrue(readLine(secondInput).startsWith("HTTP/1.0 200 OK"));
+            assertEquals("Content-Type: multipart/x-mixed-replace; boundary=" + MotionPictureRelay.BOUNDARY, readLine(firstInput));
+
+            // Both clients receive the frames of the camera
+            for (int i = 0; i < 3; i++) {
+                assertArrayEquals(FRAME, readPart(firstInput));
+                assertArrayEquals(FRAME, readPart(secondInput));
+            }
+
+            // Both clients share one upstream connection
+            assertEquals(2, this.relay.getClientCount());
+            assertEquals(1, this.cameraConnections.get());
+        }
+
+        // The relay notices the disconnects
+        long timeout = System.currentTimeMillis() + 2000;
+        while (this.relay.getClientCount() != 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, this.relay.getClientCount());
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        try (Socket client = connect()) {
+            DataInputStream input = new DataInputStream(client.getInputStream());
+            assertTrue(readLine(input).startsWith("HTTP/1.0 200 OK"));
+
+            this.relay.stop();
+            assertFalse(this.relay.isRunning());
+
+            // The client is disconnected
+            try {
+                byte[] buffer = new byte[8192];
+                while (input.read(buffer) != -1) {
+                    // Skip the frames that were already sent
+                }
+            } catch (SocketTimeoutException e) {
+                throw new AssertionError("Client has not been disconnected");
+            } catch (IOException e) {
+                // Connection reset
+            }
+        }
+    }
+
+    /**
+     * Connect a client to the relay and send the request
+     *
+     * @return The connected socket
+     * @throws IOException Connect exception
+     */
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.connect(this.relay.getAddress(), 1000);
+        socket.setSoTimeout(2000);
+        socket.getOutputStream().write("GET / HTTP/1.0\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        return socket;
+    }
+
+    /**
+     * Stream the frame as MJPEG to a connection of the fake camera
+     *
+     * @param socket The accepted connection
+     */
+    private void serveCamera(Socket socket) {
+        try (Socket connection = socket) {
+            DataInputStream input = new DataInputStream(connection.getInputStream());
+            OutputStream output = connection.getOutputStream();
+
+            // Skip the request
+            while (!readLine(input).isEmpty()) {
+                // Request headers
+            }
+
+            output.write(("HTTP/1.0 200 OK\r\n"
+                    + "Content-Type: multipart/x-mixed-replace; boundary=camera\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            while (true) {
+                output.write(("--camera\r\nContent-Type: image/jpeg\r\nContent-Length: " + FRAME.length + "\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                output.write(FRAME);
+                output.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                output.flush();
+                Thread.sleep(10);
+            }
+        } catch (IOException | InterruptedException e) {
+            // Client disconnected
+        }
+    }
+
+    /**
+     * Read the next part of the relay stream
+     *
+     * @param input The stream of the client
+     * @return The frame of the part
+     * @throws IOException Read exception
+     */
+    private static byte[] readPart(DataInputStream input) throws IOException {
+        // Skip to the next boundary
+        String line;
+        do {
+            line = readLine(input);
+        } while (!line.equals("--" + MotionPictureRelay.BOUNDARY));
+
+        assertEquals("Content-Type: image/jpeg", readLine(input));
+        line = readLine(input);
+        assertTrue(line.startsWith("Content-Length: "));
+        int length = Integer.parseInt(line.substring("Content-Length: ".length()));
+        assertEquals("", readLine(input));
+
+        byte[] frame = new byte[length];
+        input.readFully(frame);
+        return frame;
+    }
+
+    /**
+     * Read a line terminated by CRLF
+     *
+     * @param input The input stream
+     * @return The line without the line break
+     * @throws IOException Read exception
+     */
+    private static String readLine(DataInputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("End of stream");
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        return new String(bytes, 0, Math.max(0, bytes.length - 1), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Find a free local port for the relay
+     *
+     * @return The port
+     * @throws IOException Bind exception
+     */
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Create a JPEG-like frame with SOI and EOI markers
+     *
+     * @param length Total length of the frame
+     * @return The frame
+     */
+    private static byte[] frame(int length) {
+        byte[] frame = new byte[length];
+        Arrays.fill(frame, (byte) 0x55);
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xD8;
+        frame[length - 2] = (byte) 0xFF;
+        frame[length - 1] = (byte) 0xD9;
+        return frame;
+    }
+}